@@ -5,12 +5,7 @@
  This work is derived from shader named "Shiny Circle", created by "phil" on www.shadertoy.com licensed
  by default under CC BY-NC-SA 3.0. https://www.shadertoy.com/view/ltBXRc
 **/
-precision mediump float;
-#define PI 3.141592654
-varying vec2 v_TexCoord;
-uniform sampler2D s_Texture;
-uniform vec4 u_Color;
-uniform float u_Time;
+#include "common_frag.glsl"
 uniform float u_HourRads;
 uniform float u_MinRads;
 
@@ -47,6 +42,10 @@ void main()
     float radius = 0.34;
     vec2 center = vec2(0.5);
 
+#ifdef AMBIENT
+    //paint white circle only, on black
+    gl_FragColor = vec4(paintCircle(uv, center, radius, 0.01), 1.0);
+#else
     //paint color circle
     color = paintCircle(uv, center, radius, 0.1);
 
@@ -71,4 +70,5 @@ void main()
     //paint white circle
     color += paintCircle(uv, center, radius, 0.01);
 	gl_FragColor = vec4(color, 1.0);
+#endif
 }
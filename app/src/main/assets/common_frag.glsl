@@ -0,0 +1,7 @@
+// Declarations shared by the fragment shaders drawing a bitmap object
+#define PI 3.141592654
+#define TAU 6.2831853
+varying vec2 v_TexCoord;
+uniform sampler2D s_Texture;
+uniform vec4 u_Color;
+uniform float u_Time;
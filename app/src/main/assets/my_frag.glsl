@@ -1,9 +1,4 @@
-precision mediump float;
-const float tau = 6.2831853;
-varying vec2 v_TexCoord;
-uniform sampler2D s_Texture;
-uniform vec4 u_Color;
-uniform float u_Time;
+#include "common_frag.glsl"
 
 void main()
 {
@@ -18,13 +18,19 @@ package com.ustwo.gl2dwatchface;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
 import android.graphics.Typeface;
+import android.text.format.DateUtils;
 
+import com.ustwo.glbitmapcanvas.GLAsyncRasterizer;
 import com.ustwo.glbitmapcanvas.GLBitmapObject;
 import com.ustwo.glbitmapcanvas.GLBitmapRenderer;
+import com.ustwo.glbitmapcanvas.GLGlyphAtlas;
+import com.ustwo.glbitmapcanvas.GLPixelFormat;
+import com.ustwo.glbitmapcanvas.GLText;
 import com.ustwo.glbitmapcanvas.GLWatchFace;
+import com.ustwo.glbitmapcanvas.TimeBoundary;
 import com.ustwo.glbitmapcanvas.programs.GLProgram;
+import com.ustwo.glbitmapcanvas.programs.GLShaderPreprocessor;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -39,7 +45,9 @@ import java.util.Locale;
 public class ExampleFace extends GLWatchFace {
     private SimpleDateFormat mTimeFormat12 = new SimpleDateFormat("hh:mm", Locale.getDefault());
     private SimpleDateFormat mTimeFormat24 = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private SimpleDateFormat mDateFormat = new SimpleDateFormat("EEE d MMM", Locale.getDefault());
     private Paint mTimePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private Paint mDatePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 
     @Override
     public GLEngine onCreateGLEngine() {
@@ -48,7 +56,17 @@ public class ExampleFace extends GLWatchFace {
 
     private class ExampleGLEngine extends GLWatchFace.GLEngine {
         GLBitmapObject mBackgroundObject = null;
-        GLBitmapObject mTimeObject = null;
+        GLText mTimeText = null;
+        GLBitmapObject mDateObject = null;
+        GLBitmapObject mDateStandbyObject = null;
+        /**
+         * The date mDateObject shows, and the date swapped in from the standby object at the upcoming
+         * boundary, if one is scheduled
+         */
+        String mShownDate = null;
+        String mSwapDate = null;
+        long mSwapTimeMillis = 0;
+        GLShaderPreprocessor mShaderPreprocessor = null;
         @Override
         protected long getInteractiveModeUpdateRate() {
             return 0;
@@ -57,10 +75,17 @@ public class ExampleFace extends GLWatchFace {
         @Override
         public void onCreate() {
             super.onCreate();
+            // The background's fragment shader is slow to compile, load it from its binary after the first run
+            setProgramBinaryCacheEnabled(true);
+            // Resolves the shared snippets the shaders include, reading each asset once
+            mShaderPreprocessor = GLShaderPreprocessor.forAssets(ExampleFace.this);
             mTimePaint.setStrokeWidth(2.0f);
             mTimePaint.setColor(0xFFFFFFFF);
             mTimePaint.setTextAlign(Paint.Align.CENTER);
             mTimePaint.setTypeface(Typeface.create("sans-serif-condensed-light", Typeface.NORMAL));
+            mDatePaint.setColor(0xFFFFFFFF);
+            mDatePaint.setTextAlign(Paint.Align.CENTER);
+            mDatePaint.setTypeface(Typeface.create("sans-serif-condensed", Typeface.NORMAL));
         }
 
         @Override
@@ -69,26 +94,85 @@ public class ExampleFace extends GLWatchFace {
             mBackgroundObject = renderer.createBitmapObject(renderer.getSurfaceWidth(), renderer.getSurfaceHeight(), false);
             // Create a custom program for this object. This program object is responsible for passing
             // any parameters to the GLSL program.
-            GLProgram backgroundProgram = new BackgroundProgram(ExampleFace.this, "circle_vert.glsl", "circle_frag.glsl");
+            GLProgram backgroundProgram = new BackgroundProgram(mShaderPreprocessor, "circle_vert.glsl", "circle_frag.glsl");
             mBackgroundObject.attachGLProgram(backgroundProgram);
+            // In ambient mode only the white outline is drawn, from the same shader
+            mBackgroundObject.setAmbientGLProgram(new BackgroundProgram(mShaderPreprocessor, "circle_vert.glsl", "circle_frag.glsl", GLShaderPreprocessor.AMBIENT));
 
             mTimePaint.setTextSize(60f * renderer.getSurfaceWidth()/320f);
-            // Allocate an object for us to draw time into (by default, a Bitmap and associated
-            // Canvas are created). We'll draw to it when time changes.
-            mTimeObject = renderer.createBitmapObject(renderer.getSurfaceWidth()/2, renderer.getSurfaceHeight()/2);
-            // Position the object in the center of the screen (we use the object's center as the
-            // anchor point, and position it at the surface center.
-            mTimeObject.transformTo(0f, 1.0f, 1.0f, renderer.getSurfaceWidth()/2, renderer.getSurfaceHeight()/2, mTimeObject.getBitmapWidth()/2, mTimeObject.getBitmapHeight()/2);
+            // Rasterize the digits once. The time is then drawn from them, so changing it doesn't
+            // draw into a bitmap or upload a texture.
+            GLGlyphAtlas timeAtlas = renderer.createGlyphAtlas(mTimePaint, "0123456789:", 8);
+            mTimeText = timeAtlas.createText();
+            mTimeText.setAlign(Paint.Align.CENTER);
+            // We want to center the text vertically. Because we position text at the baseline, we
+            // must then figure out how much distance there is from text center to its baseline.
+            float pixelsFromBaselineToCenterOfText = ((timeAtlas.getDescent() + timeAtlas.getAscent()) / 2);
+            mTimeText.setPosition(renderer.getSurfaceWidth()/2, renderer.getSurfaceHeight()/2 - pixelsFromBaselineToCenterOfText);
+
+            // The date is drawn into a bitmap, so the next day's date is drawn ahead of midnight into
+            // a hidden standby object, and swapped in at the first frame of the new day
+            mDatePaint.setTextSize(20f * renderer.getSurfaceWidth()/320f);
+            int dateWidth = renderer.getSurfaceWidth()/2;
+            int dateHeight = (int)Math.ceil(mDatePaint.descent() - mDatePaint.ascent());
+            mDateObject = renderer.createBitmapObject(dateWidth, dateHeight, null, true, true, GLPixelFormat.ALPHA_8);
+            mDateObject.transformTo(0f, 1.0f, 1.0f, renderer.getSurfaceWidth()/2, renderer.getSurfaceHeight()*3/4);
+            mDateStandbyObject = renderer.createBitmapObject(dateWidth, dateHeight, null, true, true, GLPixelFormat.ALPHA_8);
+            mDateStandbyObject.setVisible(false);
+            mShownDate = mDateFormat.format(getLatestTime().getTime());
+            drawDate(mDateObject, mShownDate);
+            setUpcomingTimeBoundaryNotification(TimeBoundary.DAY, 10 * DateUtils.SECOND_IN_MILLIS);
 
             updateTime(getTimeFormat().format(getLatestTime().getTime()));
         }
 
+        @Override
+        protected void onUpcomingTimeBoundary(int boundary, GregorianCalendar boundaryTime) {
+            super.onUpcomingTimeBoundary(boundary, boundaryTime);
+            mSwapDate = mDateFormat.format(boundaryTime.getTime());
+            mSwapTimeMillis = boundaryTime.getTimeInMillis();
+            drawDate(mDateStandbyObject, mSwapDate);
+            mGLBitmapRenderer.swapTexturesAt(mDateObject, mDateStandbyObject, mSwapTimeMillis);
+        }
+
+        /**
+         * Redraw the date if it isn't the one shown, e.g. when midnight passed while the screen was
+         * off and no swap was scheduled, or the date or time zone changed. Scheduled swaps stay the
+         * fast path: their date is taken as shown once they're due.
+         */
+        private void updateDate(GregorianCalendar time) {
+            if(mDateObject == null) {
+                return;
+            }
+            String date = mDateFormat.format(time.getTime());
+            if(mSwapDate != null && time.getTimeInMillis() >= mSwapTimeMillis) {
+                // Swapped in at the next frame, if not already
+                mShownDate = mSwapDate;
+                mSwapDate = null;
+            }
+            if(!date.equals(mShownDate)) {
+                mGLBitmapRenderer.cancelTextureSwap(mDateObject);
+                mSwapDate = null;
+                mShownDate = date;
+                drawDate(mDateObject, date);
+            }
+        }
+
+        private void drawDate(GLBitmapObject dateObject, final String dateString) {
+            mGLBitmapRenderer.getAsyncRasterizer().request(dateObject, new GLAsyncRasterizer.Painter() {
+                @Override
+                public void paint(Canvas canvas, int width, int height) {
+                    canvas.drawText(dateString, width/2, -mDatePaint.ascent(), mDatePaint);
+                }
+            });
+        }
+
         @Override
         protected void onTimeChanged(GregorianCalendar oldTime, GregorianCalendar newTime) {
             super.onTimeChanged(oldTime, newTime);
+            updateDate(newTime);
 
-            // Draw into the time bitmap and then "invalidate" this object (causing its texture data
-            // to be substituted with our new bitmap data, we should do this sparingly).
+            // Lay out the time again from the glyphs already in the atlas texture
 
             DateFormat format = getTimeFormat();
             String newTimeString = format.format(newTime.getTime());
@@ -106,28 +190,12 @@ public class ExampleFace extends GLWatchFace {
         }
 
         private void updateTime(String timeString) {
-            Canvas canvas = mTimeObject.getCanvas();
-            // Clear canvas
-            canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
-            // Draw time to canvas
-
-            // We want to center the text vertically. Because we position text at the baseline, we
-            // must then figure out how much distance there is from text center to its baseline.
-            float pixelsFromBaselineToCenterOfText = ((mTimePaint.descent() + mTimePaint.ascent()) / 2);
-            canvas.drawText(timeString,  mTimeObject.getBitmapWidth()/2, mTimeObject.getBitmapHeight()/2 - pixelsFromBaselineToCenterOfText, mTimePaint);
-            mGLBitmapRenderer.invalidateBitmapObject(mTimeObject);
+            mTimeText.setText(timeString);
         }
+
         @Override
         public void onRendererDestroyed(GLBitmapRenderer renderer) {
 
         }
-
-        @Override
-        public void onAmbientModeChanged(boolean inAmbientMode) {
-            super.onAmbientModeChanged(inAmbientMode);
-            if(mBackgroundObject != null) {
-                mBackgroundObject.setVisible(!inAmbientMode);
-            }
-        }
     }
 }
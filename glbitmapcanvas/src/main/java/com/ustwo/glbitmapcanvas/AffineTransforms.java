@@ -0,0 +1,48 @@
+package com.ustwo.glbitmapcanvas;
+
+/**
+ * Operations on 2D affine transforms stored as 6 floats (a, b, c, d, tx, ty), mapping a point to
+ * x' = a * x + c * y + tx and y' = b * x + d * y + ty.
+ */
+final class AffineTransforms {
+    static final int SIZE = 6;
+
+    private AffineTransforms() {
+    }
+
+    static void setIdentity(float[] out) {
+        out[0] = 1f;
+        out[1] = 0f;
+        out[2] = 0f;
+        out[3] = 1f;
+        out[4] = 0f;
+        out[5] = 0f;
+    }
+
+    /**
+     * Compute lhs * rhs, i.e. the transform applying rhs first, then lhs. out may not be lhs or rhs.
+     */
+    static void multiply(float[] lhs, float[] rhs, float[] out) {
+        out[0] = lhs[0] * rhs[0] + lhs[2] * rhs[1];
+        out[1] = lhs[1] * rhs[0] + lhs[3] * rhs[1];
+        out[2] = lhs[0] * rhs[2] + lhs[2] * rhs[3];
+        out[3] = lhs[1] * rhs[2] + lhs[3] * rhs[3];
+        out[4] = lhs[0] * rhs[4] + lhs[2] * rhs[5] + lhs[4];
+        out[5] = lhs[1] * rhs[4] + lhs[3] * rhs[5] + lhs[5];
+    }
+
+    /**
+     * Set to a rotation and scale around a pivot, followed by a translation
+     * @param sin Sine of the counter-clockwise rotation angle
+     * @param cos Cosine of the counter-clockwise rotation angle
+     */
+    static void setRotateScale(float[] out, float sin, float cos, float scaleX, float scaleY,
+                               float pivotX, float pivotY, float translationX, float translationY) {
+        out[0] = cos * scaleX;
+        out[1] = sin * scaleX;
+        out[2] = -sin * scaleY;
+        out[3] = cos * scaleY;
+        out[4] = pivotX - (out[0] * pivotX + out[2] * pivotY) + translationX;
+        out[5] = pivotY - (out[1] * pivotX + out[3] * pivotY) + translationY;
+    }
+}
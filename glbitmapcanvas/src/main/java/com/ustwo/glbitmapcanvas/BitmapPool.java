@@ -0,0 +1,193 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps released {@link Bitmap}s for reuse by later allocations of the same width, height and config,
+ * so rebuilding layers (e.g. on layout, ambient or locale changes) doesn't churn large native
+ * allocations. Pooled bitmaps are held up to a byte budget, beyond which the least recently released
+ * are recycled.
+ *
+ * The renderer's pool (see {@link GLBitmapRenderer#getBitmapPool()}) backs the bitmaps of the objects
+ * it creates, which are returned to it when destroyed. May be used from any thread.
+ */
+public class BitmapPool {
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private long mMaxBytes;
+    private long mResidentBytes = 0;
+
+    /**
+     * Pooled bitmaps by key, and all pooled bitmaps in the order they were released, oldest first
+     */
+    private final Map<Long, List<Bitmap>> mBuckets = new HashMap<>();
+    private final LinkedHashMap<Bitmap, Long> mReleaseOrder = new LinkedHashMap<>();
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    public BitmapPool() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes The maximum number of bytes held by pooled bitmaps
+     */
+    public BitmapPool(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Set the maximum number of bytes held by pooled bitmaps, recycling the least recently released
+     * ones if the pool is now over budget
+     * @param maxBytes The budget, 0 to disable pooling
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException(String.format("maxBytes must not be negative, was %d", maxBytes));
+        }
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Get a mutable, fully transparent bitmap, reusing a pooled one if available
+     * @param width The bitmap width
+     * @param height The bitmap height
+     * @param config The bitmap config
+     * @return The bitmap, to be handed back with {@link #release(Bitmap)} once unused
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = null;
+        synchronized(this) {
+            List<Bitmap> bucket = mBuckets.get(getKey(width, height, config));
+            while(bucket != null && !bucket.isEmpty()) {
+                Bitmap candidate = bucket.remove(bucket.size() - 1);
+                mReleaseOrder.remove(candidate);
+                mResidentBytes -= candidate.getAllocationByteCount();
+                // Recycled behind the pool's back
+                if(!candidate.isRecycled()) {
+                    bitmap = candidate;
+                    break;
+                }
+            }
+            if(bitmap != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+
+        if(bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0x00000000);
+        return bitmap;
+    }
+
+    /**
+     * Hand a bitmap to the pool for reuse. It must not be used by the caller afterwards. Bitmaps that
+     * are immutable, recycled, or larger than the budget are recycled or ignored.
+     * @param bitmap The bitmap, or null
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if(bitmap == null || bitmap.isRecycled() || mReleaseOrder.containsKey(bitmap)) {
+            return;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        if(!bitmap.isMutable() || bitmap.getConfig() == null || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        List<Bitmap> bucket = mBuckets.get(key);
+        if(bucket == null) {
+            bucket = new ArrayList<>(2);
+            mBuckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        mReleaseOrder.put(bitmap, key);
+        mResidentBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Recycle the least recently released bitmaps until the pool holds at most the given number of bytes
+     * @param maxBytes The number of bytes to keep
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Bitmap, Long>> iterator = mReleaseOrder.entrySet().iterator();
+        while(mResidentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Bitmap, Long> entry = iterator.next();
+            Bitmap bitmap = entry.getKey();
+            iterator.remove();
+            List<Bitmap> bucket = mBuckets.get(entry.getValue());
+            bucket.remove(bitmap);
+            if(bucket.isEmpty()) {
+                mBuckets.remove(entry.getValue());
+            }
+            mResidentBytes -= bitmap.getAllocationByteCount();
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Recycle all pooled bitmaps
+     */
+    public synchronized void clear() {
+        Log.d(TAG, String.format("clear: %d bitmaps, %d bytes", mReleaseOrder.size(), mResidentBytes));
+        trimToSize(0);
+    }
+
+    /**
+     * The number of acquired bitmaps that were reused
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * The number of acquired bitmaps that had to be created
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * The number of bytes held by pooled bitmaps
+     */
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * The number of pooled bitmaps
+     */
+    public synchronized int getPooledCount() {
+        return mReleaseOrder.size();
+    }
+
+    public synchronized void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+    }
+
+    private static long getKey(int width, int height, Bitmap.Config config) {
+        return ((long)width << 32) | ((long)height << 8) | config.ordinal();
+    }
+}
@@ -0,0 +1,431 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Picture;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+
+/**
+ * A {@link Canvas} accumulating the bounds of everything drawn into it, so only the changed part of a
+ * {@link GLBitmapObject}'s bitmap needs uploading. Bounds are mapped through the current matrix and
+ * widened for strokes and anti-aliasing, so they are conservative. Clipping isn't taken into account.
+ *
+ * Text runs, positioned text, text on paths, pictures, color arrays, bitmap meshes and vertices mark
+ * the whole bitmap dirty, as their bounds aren't cheap to compute. Drawing that isn't tracked, e.g.
+ * effects reaching outside the drawn geometry such as shadow layers and blur mask filters, or changes
+ * made to the bitmap directly, must be reported with {@link #markDirty(int, int, int, int)} or
+ * {@link #markAllDirty()}.
+ *
+ * Enable with {@link GLBitmapObject#setDirtyTrackingEnabled(boolean)}.
+ */
+public class DirtyTrackingCanvas extends Canvas {
+    /**
+     * Pixels added on every side to cover anti-aliased edges
+     */
+    private static final float ANTI_ALIAS_OUTSET = 1f;
+
+    private final Rect mDirtyRect = new Rect();
+    private final RectF mScratchRect = new RectF();
+    private final Rect mScratchTextBounds = new Rect();
+    private final Matrix mScratchMatrix = new Matrix();
+
+    public DirtyTrackingCanvas(Bitmap bitmap) {
+        super(bitmap);
+        markAllDirty();
+    }
+
+    /**
+     * Changing the bitmap marks all of it dirty
+     */
+    @Override
+    public void setBitmap(Bitmap bitmap) {
+        super.setBitmap(bitmap);
+        markAllDirty();
+    }
+
+    /**
+     * Mark an area as changed
+     * @param left Left of the area, in bitmap pixels, not affected by the canvas matrix
+     * @param top Top of the area, in bitmap pixels
+     * @param right Right of the area, in bitmap pixels
+     * @param bottom Bottom of the area, in bitmap pixels
+     */
+    public void markDirty(int left, int top, int right, int bottom) {
+        if(left < right && top < bottom) {
+            mDirtyRect.union(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Mark the whole bitmap as changed
+     */
+    public void markAllDirty() {
+        mDirtyRect.set(0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * The area changed since the last {@link #resetDirtyRect()}, clipped to the bitmap
+     * @param out Receives the area, in bitmap pixels
+     * @return True if anything changed, false if out is empty
+     */
+    public boolean getDirtyRect(Rect out) {
+        out.set(mDirtyRect);
+        if(!out.intersect(0, 0, getWidth(), getHeight())) {
+            out.setEmpty();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget the changed area, typically once it has been uploaded
+     */
+    public void resetDirtyRect() {
+        mDirtyRect.setEmpty();
+    }
+
+    @Override
+    public void drawColor(int color) {
+        super.drawColor(color);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawColor(int color, PorterDuff.Mode mode) {
+        super.drawColor(color, mode);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawARGB(int a, int r, int g, int b) {
+        super.drawARGB(a, r, g, b);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawRGB(int r, int g, int b) {
+        super.drawRGB(r, g, b);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawPaint(Paint paint) {
+        super.drawPaint(paint);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawRect(RectF rect, Paint paint) {
+        super.drawRect(rect, paint);
+        track(rect.left, rect.top, rect.right, rect.bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawRect(Rect r, Paint paint) {
+        super.drawRect(r, paint);
+        track(r.left, r.top, r.right, r.bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        super.drawRect(left, top, right, bottom, paint);
+        track(left, top, right, bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+        super.drawRoundRect(rect, rx, ry, paint);
+        track(rect.left, rect.top, rect.right, rect.bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float rx, float ry, Paint paint) {
+        super.drawRoundRect(left, top, right, bottom, rx, ry, paint);
+        track(left, top, right, bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawOval(RectF oval, Paint paint) {
+        super.drawOval(oval, paint);
+        track(oval.left, oval.top, oval.right, oval.bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, Paint paint) {
+        super.drawOval(left, top, right, bottom, paint);
+        track(left, top, right, bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter, Paint paint) {
+        super.drawArc(oval, startAngle, sweepAngle, useCenter, paint);
+        track(oval.left, oval.top, oval.right, oval.bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawArc(float left, float top, float right, float bottom, float startAngle, float sweepAngle, boolean useCenter, Paint paint) {
+        super.drawArc(left, top, right, bottom, startAngle, sweepAngle, useCenter, paint);
+        track(left, top, right, bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+        super.drawCircle(cx, cy, radius, paint);
+        track(cx - radius, cy - radius, cx + radius, cy + radius, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+        super.drawLine(startX, startY, stopX, stopY, paint);
+        track(Math.min(startX, stopX), Math.min(startY, stopY), Math.max(startX, stopX), Math.max(startY, stopY),
+                getStrokeOutset(paint, true));
+    }
+
+    @Override
+    public void drawLines(float[] pts, int offset, int count, Paint paint) {
+        super.drawLines(pts, offset, count, paint);
+        trackPoints(pts, offset, count, paint);
+    }
+
+    @Override
+    public void drawLines(float[] pts, Paint paint) {
+        super.drawLines(pts, paint);
+        trackPoints(pts, 0, pts.length, paint);
+    }
+
+    @Override
+    public void drawPoint(float x, float y, Paint paint) {
+        super.drawPoint(x, y, paint);
+        track(x, y, x, y, getStrokeOutset(paint, true));
+    }
+
+    @Override
+    public void drawPoints(float[] pts, int offset, int count, Paint paint) {
+        super.drawPoints(pts, offset, count, paint);
+        trackPoints(pts, offset, count, paint);
+    }
+
+    @Override
+    public void drawPoints(float[] pts, Paint paint) {
+        super.drawPoints(pts, paint);
+        trackPoints(pts, 0, pts.length, paint);
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+        super.drawPath(path, paint);
+        path.computeBounds(mScratchRect, true);
+        track(mScratchRect.left, mScratchRect.top, mScratchRect.right, mScratchRect.bottom, getStrokeOutset(paint, false));
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        super.drawBitmap(bitmap, left, top, paint);
+        track(left, top, left + bitmap.getWidth(), top + bitmap.getHeight(), 0f);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        super.drawBitmap(bitmap, src, dst, paint);
+        track(dst.left, dst.top, dst.right, dst.bottom, 0f);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        super.drawBitmap(bitmap, src, dst, paint);
+        track(dst.left, dst.top, dst.right, dst.bottom, 0f);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        super.drawBitmap(bitmap, matrix, paint);
+        mScratchRect.set(0f, 0f, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(mScratchRect);
+        track(mScratchRect.left, mScratchRect.top, mScratchRect.right, mScratchRect.bottom, 0f);
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, Paint paint) {
+        super.drawText(text, x, y, paint);
+        paint.getTextBounds(text, 0, text.length(), mScratchTextBounds);
+        trackText(x, y, paint.measureText(text), paint);
+    }
+
+    @Override
+    public void drawText(String text, int start, int end, float x, float y, Paint paint) {
+        super.drawText(text, start, end, x, y, paint);
+        paint.getTextBounds(text, start, end, mScratchTextBounds);
+        trackText(x, y, paint.measureText(text, start, end), paint);
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        super.drawText(text, index, count, x, y, paint);
+        paint.getTextBounds(text, index, count, mScratchTextBounds);
+        trackText(x, y, paint.measureText(text, index, count), paint);
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+        super.drawText(text, start, end, x, y, paint);
+        String string = text.toString();
+        paint.getTextBounds(string, start, end, mScratchTextBounds);
+        trackText(x, y, paint.measureText(string, start, end), paint);
+    }
+
+    @Override
+    public void drawTextOnPath(String text, Path path, float hOffset, float vOffset, Paint paint) {
+        super.drawTextOnPath(text, path, hOffset, vOffset, paint);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawTextOnPath(char[] text, int index, int count, Path path, float hOffset, float vOffset, Paint paint) {
+        super.drawTextOnPath(text, index, count, path, hOffset, vOffset, paint);
+        markAllDirty();
+    }
+
+    /**
+     * Used by {@link android.text.Layout}s to draw text
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    @Override
+    public void drawTextRun(char[] text, int index, int count, int contextIndex, int contextCount, float x, float y, boolean isRtl, Paint paint) {
+        super.drawTextRun(text, index, count, contextIndex, contextCount, x, y, isRtl, paint);
+        markAllDirty();
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @Override
+    public void drawTextRun(CharSequence text, int start, int end, int contextStart, int contextEnd, float x, float y, boolean isRtl, Paint paint) {
+        super.drawTextRun(text, start, end, contextStart, contextEnd, x, y, isRtl, paint);
+        markAllDirty();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void drawPosText(char[] text, int index, int count, float[] pos, Paint paint) {
+        super.drawPosText(text, index, count, pos, paint);
+        markAllDirty();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void drawPosText(String text, float[] pos, Paint paint) {
+        super.drawPosText(text, pos, paint);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawPicture(Picture picture) {
+        super.drawPicture(picture);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawPicture(Picture picture, RectF dst) {
+        super.drawPicture(picture, dst);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawPicture(Picture picture, Rect dst) {
+        super.drawPicture(picture, dst);
+        markAllDirty();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void drawBitmap(int[] colors, int offset, int stride, float x, float y, int width, int height, boolean hasAlpha, Paint paint) {
+        super.drawBitmap(colors, offset, stride, x, y, width, height, hasAlpha, paint);
+        markAllDirty();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void drawBitmap(int[] colors, int offset, int stride, int x, int y, int width, int height, boolean hasAlpha, Paint paint) {
+        super.drawBitmap(colors, offset, stride, x, y, width, height, hasAlpha, paint);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawBitmapMesh(Bitmap bitmap, int meshWidth, int meshHeight, float[] verts, int vertOffset, int[] colors, int colorOffset, Paint paint) {
+        super.drawBitmapMesh(bitmap, meshWidth, meshHeight, verts, vertOffset, colors, colorOffset, paint);
+        markAllDirty();
+    }
+
+    @Override
+    public void drawVertices(VertexMode mode, int vertexCount, float[] verts, int vertOffset, float[] texs, int texOffset,
+                             int[] colors, int colorOffset, short[] indices, int indexOffset, int indexCount, Paint paint) {
+        super.drawVertices(mode, vertexCount, verts, vertOffset, texs, texOffset, colors, colorOffset, indices, indexOffset, indexCount, paint);
+        markAllDirty();
+    }
+
+    /**
+     * Track text whose glyph bounds relative to its origin are in {@link #mScratchTextBounds}
+     */
+    private void trackText(float x, float y, float advance, Paint paint) {
+        Paint.Align align = paint.getTextAlign();
+        if(align == Paint.Align.CENTER) {
+            x -= advance * 0.5f;
+        } else if(align == Paint.Align.RIGHT) {
+            x -= advance;
+        }
+        Rect bounds = mScratchTextBounds;
+        track(x + Math.min(bounds.left, 0), y + bounds.top,
+                x + Math.max(bounds.right, advance), y + bounds.bottom, getStrokeOutset(paint, false));
+    }
+
+    private void trackPoints(float[] pts, int offset, int count, Paint paint) {
+        if(count < 2) {
+            return;
+        }
+        float left = Float.POSITIVE_INFINITY;
+        float top = Float.POSITIVE_INFINITY;
+        float right = Float.NEGATIVE_INFINITY;
+        float bottom = Float.NEGATIVE_INFINITY;
+        for(int i = offset; i + 1 < offset + count; i += 2) {
+            left = Math.min(left, pts[i]);
+            right = Math.max(right, pts[i]);
+            top = Math.min(top, pts[i + 1]);
+            bottom = Math.max(bottom, pts[i + 1]);
+        }
+        track(left, top, right, bottom, getStrokeOutset(paint, true));
+    }
+
+    /**
+     * How far drawing with a paint can reach beyond the geometry: half the stroke, times the miter
+     * limit to cover sharp joins and square caps, plus the anti-aliased edge
+     * @param alwaysStroked Whether the geometry is stroked regardless of the paint's style, e.g. lines
+     */
+    private static float getStrokeOutset(Paint paint, boolean alwaysStroked) {
+        float outset = ANTI_ALIAS_OUTSET;
+        if(alwaysStroked || paint.getStyle() != Paint.Style.FILL) {
+            // Zero width strokes are drawn as hairlines
+            float strokeWidth = Math.max(paint.getStrokeWidth(), 1f);
+            outset += strokeWidth * 0.5f * Math.max(paint.getStrokeMiter(), 1f);
+        }
+        return outset;
+    }
+
+    /**
+     * Map an area in canvas coordinates through the current matrix and add it to the dirty rect
+     */
+    private void track(float left, float top, float right, float bottom, float outset) {
+        RectF rect = mScratchRect;
+        rect.set(left - outset, top - outset, right + outset, bottom + outset);
+        getMatrix(mScratchMatrix);
+        if(!mScratchMatrix.isIdentity()) {
+            mScratchMatrix.mapRect(rect);
+        }
+        markDirty((int)Math.floor(rect.left), (int)Math.floor(rect.top),
+                (int)Math.ceil(rect.right), (int)Math.ceil(rect.bottom));
+    }
+}
@@ -0,0 +1,361 @@
+package com.ustwo.glbitmapcanvas;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes ARGB pixels into {@link GLCompressedTexture}s, and decodes them again where ETC1 textures
+ * aren't supported. Encoding searches both sub-block orientations, individual and differential base
+ * colors, and every modifier table per sub-block, which is slow, so it's meant to run once, e.g. by
+ * {@link GLCompressedTextureLoader} on first run, with the result cached.
+ *
+ * Pixels are non-premultiplied ARGB, as from {@link android.graphics.Bitmap#getPixels}. Pure Java, so
+ * it can also run at build time.
+ */
+public final class ETC1Codec {
+    /**
+     * Modifier tables, the small and large offset added to or subtracted from a sub-block's base color
+     */
+    private static final int[][] MODIFIER_TABLES = {
+            {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+    };
+
+    private static final int PIXELS_PER_BLOCK = 16;
+
+    private ETC1Codec() {
+    }
+
+    /**
+     * Encode the color of an image, ignoring alpha
+     * @param pixels The ARGB pixels, row by row
+     * @param width The image width
+     * @param height The image height
+     * @return The opaque texture
+     */
+    public static GLCompressedTexture encode(int[] pixels, int width, int height) {
+        return new GLCompressedTexture(width, height, ByteBuffer.wrap(encodeBlocks(pixels, width, height, false)), null);
+    }
+
+    /**
+     * Encode an image, with an alpha plane if any pixel isn't opaque
+     * @param pixels The non-premultiplied ARGB pixels, row by row
+     * @param width The image width
+     * @param height The image height
+     * @return The texture
+     */
+    public static GLCompressedTexture encodeWithAlpha(int[] pixels, int width, int height) {
+        GLCompressedTexture texture = encode(pixels, width, height);
+        if(isOpaque(pixels, width, height)) {
+            return texture;
+        }
+        GLCompressedTexture alphaPlane = new GLCompressedTexture(width, height, ByteBuffer.wrap(encodeBlocks(pixels, width, height, true)), null);
+        return texture.withAlphaPlane(alphaPlane);
+    }
+
+    /**
+     * Decode a texture, combining its alpha plane if it has one
+     * @param texture The texture
+     * @return The non-premultiplied ARGB pixels, row by row, of the image size
+     */
+    public static int[] decode(GLCompressedTexture texture) {
+        int width = texture.getWidth();
+        int height = texture.getHeight();
+        int[] pixels = decodeBlocks(texture.getData(), width, height);
+        if(texture.hasAlphaPlane()) {
+            int[] alpha = decodeBlocks(texture.getAlphaPlane().getData(), width, height);
+            for(int i = 0; i < pixels.length; i++) {
+                pixels[i] = (pixels[i] & 0x00FFFFFF) | ((alpha[i] & 0x0000FF00) << 16);
+            }
+        }
+        return pixels;
+    }
+
+    private static boolean isOpaque(int[] pixels, int width, int height) {
+        for(int i = 0; i < width * height; i++) {
+            if((pixels[i] >>> 24) != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode every block of an image, or of its alpha as a gray image
+     */
+    private static byte[] encodeBlocks(int[] pixels, int width, int height, boolean alpha) {
+        if(pixels.length < width * height) {
+            throw new IllegalArgumentException(String.format("%d x %d image needs %d pixels, was %d", width, height, width * height, pixels.length));
+        }
+        int blocksX = GLCompressedTexture.getEncodedSize(width) / GLCompressedTexture.ETC1_BLOCK_SIZE;
+        int blocksY = GLCompressedTexture.getEncodedSize(height) / GLCompressedTexture.ETC1_BLOCK_SIZE;
+        byte[] out = new byte[blocksX * blocksY * GLCompressedTexture.ETC1_BLOCK_BYTES];
+
+        // Block pixels by channel, in the order ETC1 indexes them: column by column
+        int[][] block = new int[3][PIXELS_PER_BLOCK];
+        for(int by = 0; by < blocksY; by++) {
+            for(int bx = 0; bx < blocksX; bx++) {
+                for(int x = 0; x < 4; x++) {
+                    for(int y = 0; y < 4; y++) {
+                        // Edge blocks repeat the last row and column
+                        int px = Math.min(bx * 4 + x, width - 1);
+                        int py = Math.min(by * 4 + y, height - 1);
+                        int color = pixels[py * width + px];
+                        int i = x * 4 + y;
+                        if(alpha) {
+                            int a = color >>> 24;
+                            block[0][i] = a;
+                            block[1][i] = a;
+                            block[2][i] = a;
+                        } else {
+                            block[0][i] = (color >> 16) & 0xFF;
+                            block[1][i] = (color >> 8) & 0xFF;
+                            block[2][i] = color & 0xFF;
+                        }
+                    }
+                }
+                long bits = encodeBlock(block);
+                int offset = (by * blocksX + bx) * GLCompressedTexture.ETC1_BLOCK_BYTES;
+                for(int b = 0; b < 8; b++) {
+                    out[offset + b] = (byte)(bits >>> (56 - b * 8));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Encode a block, keeping the candidate with the smallest squared error
+     * @param block Red, green and blue of the block's pixels, column by column
+     * @return The 64 block bits
+     */
+    static long encodeBlock(int[][] block) {
+        long bestBits = 0;
+        long bestError = Long.MAX_VALUE;
+        int[] base1 = new int[3];
+        int[] base2 = new int[3];
+        int[] quantized1 = new int[3];
+        int[] quantized2 = new int[3];
+        int[] base = new int[3];
+        int[] choice = new int[3];
+
+        for(int flip = 0; flip < 2; flip++) {
+            averageSubBlock(block, flip, 0, base1);
+            averageSubBlock(block, flip, 1, base2);
+
+            for(int differential = 0; differential < 2; differential++) {
+                boolean representable = true;
+                for(int c = 0; c < 3; c++) {
+                    if(differential == 0) {
+                        quantized1[c] = quantize(base1[c], 15);
+                        quantized2[c] = quantize(base2[c], 15);
+                    } else {
+                        quantized1[c] = quantize(base1[c], 31);
+                        quantized2[c] = quantize(base2[c], 31);
+                        int delta = quantized2[c] - quantized1[c];
+                        if(delta < -4 || delta > 3) {
+                            representable = false;
+                        }
+                    }
+                }
+                if(!representable) {
+                    continue;
+                }
+
+                long bits = ((long)differential << 33) | ((long)flip << 32);
+                for(int c = 0; c < 3; c++) {
+                    int shift = 59 - c * 8;
+                    if(differential == 0) {
+                        bits |= (long)quantized1[c] << (shift + 1);
+                        bits |= (long)quantized2[c] << (shift - 3);
+                    } else {
+                        bits |= (long)quantized1[c] << shift;
+                        bits |= (long)((quantized2[c] - quantized1[c]) & 0x7) << (shift - 3);
+                    }
+                }
+
+                long error = 0;
+                for(int subBlock = 0; subBlock < 2; subBlock++) {
+                    int[] quantized = subBlock == 0 ? quantized1 : quantized2;
+                    for(int c = 0; c < 3; c++) {
+                        base[c] = differential == 0 ? expand4(quantized[c]) : expand5(quantized[c]);
+                    }
+                    error += encodeSubBlock(block, flip, subBlock, base, choice);
+                    // Sub-blocks cover disjoint pixels, so their index bits don't overlap
+                    bits |= (long)choice[0] << (37 - subBlock * 3);
+                    bits |= ((long)choice[1] << 16) | choice[2];
+                }
+
+                if(error < bestError) {
+                    bestError = error;
+                    bestBits = bits;
+                }
+            }
+        }
+        return bestBits;
+    }
+
+    /**
+     * Choose the modifier table and pixel indices of a sub-block with the given base color
+     * @param out Receives the table, and the most and least significant index bits of the sub-block's pixels
+     * @return The squared error
+     */
+    private static long encodeSubBlock(int[][] block, int flip, int subBlock, int[] base, int[] out) {
+        long bestError = Long.MAX_VALUE;
+        int bestTable = 0;
+        int bestMsb = 0;
+        int bestLsb = 0;
+        int r = base[0];
+        int g = base[1];
+        int b = base[2];
+
+        for(int table = 0; table < MODIFIER_TABLES.length; table++) {
+            long error = 0;
+            int msb = 0;
+            int lsb = 0;
+            for(int i = 0; i < PIXELS_PER_BLOCK; i++) {
+                if(getSubBlock(i, flip) != subBlock) {
+                    continue;
+                }
+                long bestPixelError = Long.MAX_VALUE;
+                int bestIndex = 0;
+                for(int index = 0; index < 4; index++) {
+                    int modifier = getModifier(table, index);
+                    long dr = clamp(r + modifier) - block[0][i];
+                    long dg = clamp(g + modifier) - block[1][i];
+                    long db = clamp(b + modifier) - block[2][i];
+                    long pixelError = dr * dr + dg * dg + db * db;
+                    if(pixelError < bestPixelError) {
+                        bestPixelError = pixelError;
+                        bestIndex = index;
+                    }
+                }
+                error += bestPixelError;
+                msb |= (bestIndex >> 1) << i;
+                lsb |= (bestIndex & 1) << i;
+                if(error >= bestError) {
+                    break;
+                }
+            }
+            if(error < bestError) {
+                bestError = error;
+                bestTable = table;
+                bestMsb = msb;
+                bestLsb = lsb;
+            }
+        }
+        out[0] = bestTable;
+        out[1] = bestMsb;
+        out[2] = bestLsb;
+        return bestError;
+    }
+
+    private static void averageSubBlock(int[][] block, int flip, int subBlock, int[] out) {
+        for(int c = 0; c < 3; c++) {
+            int sum = 0;
+            for(int i = 0; i < PIXELS_PER_BLOCK; i++) {
+                if(getSubBlock(i, flip) == subBlock) {
+                    sum += block[c][i];
+                }
+            }
+            out[c] = (sum + 4) / 8;
+        }
+    }
+
+    /**
+     * Decode the blocks of an image into opaque ARGB pixels
+     */
+    private static int[] decodeBlocks(ByteBuffer data, int width, int height) {
+        ByteBuffer blocks = data.duplicate();
+        blocks.position(0);
+        int blocksX = GLCompressedTexture.getEncodedSize(width) / GLCompressedTexture.ETC1_BLOCK_SIZE;
+        int blocksY = GLCompressedTexture.getEncodedSize(height) / GLCompressedTexture.ETC1_BLOCK_SIZE;
+        int[] pixels = new int[width * height];
+        int[] decoded = new int[PIXELS_PER_BLOCK];
+
+        for(int by = 0; by < blocksY; by++) {
+            for(int bx = 0; bx < blocksX; bx++) {
+                long bits = 0;
+                for(int b = 0; b < 8; b++) {
+                    bits = (bits << 8) | (blocks.get() & 0xFF);
+                }
+                decodeBlock(bits, decoded);
+                for(int x = 0; x < 4; x++) {
+                    for(int y = 0; y < 4; y++) {
+                        int px = bx * 4 + x;
+                        int py = by * 4 + y;
+                        if(px < width && py < height) {
+                            pixels[py * width + px] = decoded[x * 4 + y];
+                        }
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Decode a block
+     * @param bits The 64 block bits
+     * @param out Receives the opaque ARGB pixels, column by column
+     */
+    static void decodeBlock(long bits, int[] out) {
+        boolean differential = ((bits >>> 33) & 1) != 0;
+        int flip = (int)((bits >>> 32) & 1);
+        int[][] base = new int[2][3];
+        for(int c = 0; c < 3; c++) {
+            int shift = 59 - c * 8;
+            if(differential) {
+                int first = (int)((bits >>> shift) & 0x1F);
+                int delta = (int)((bits >>> (shift - 3)) & 0x7);
+                delta = (delta << 29) >> 29;
+                base[0][c] = expand5(first);
+                base[1][c] = expand5(first + delta);
+            } else {
+                base[0][c] = expand4((int)((bits >>> (shift + 1)) & 0xF));
+                base[1][c] = expand4((int)((bits >>> (shift - 3)) & 0xF));
+            }
+        }
+        int[] tables = {(int)((bits >>> 37) & 0x7), (int)((bits >>> 34) & 0x7)};
+
+        for(int i = 0; i < PIXELS_PER_BLOCK; i++) {
+            int subBlock = getSubBlock(i, flip);
+            int index = (int)(((bits >>> (16 + i)) & 1) << 1 | ((bits >>> i) & 1));
+            int modifier = getModifier(tables[subBlock], index);
+            int r = clamp(base[subBlock][0] + modifier);
+            int g = clamp(base[subBlock][1] + modifier);
+            int b = clamp(base[subBlock][2] + modifier);
+            out[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * The sub-block of the i-th pixel, counted column by column: the left and right half, or the top
+     * and bottom half if flipped
+     */
+    private static int getSubBlock(int i, int flip) {
+        return flip == 0 ? (i >> 3) : ((i & 3) >> 1);
+    }
+
+    /**
+     * Index 0 and 1 add the small and large offset, 2 and 3 subtract them
+     */
+    private static int getModifier(int table, int index) {
+        int modifier = MODIFIER_TABLES[table][index & 1];
+        return index < 2 ? modifier : -modifier;
+    }
+
+    private static int quantize(int value, int max) {
+        return (value * max + 127) / 255;
+    }
+
+    private static int expand4(int value) {
+        return (value << 4) | value;
+    }
+
+    private static int expand5(int value) {
+        return (value << 3) | (value >> 2);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
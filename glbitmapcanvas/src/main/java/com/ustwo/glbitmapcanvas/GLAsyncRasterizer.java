@@ -0,0 +1,308 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws the content of {@link GLBitmapObject}s on a background thread, so slow {@link Canvas} work
+ * doesn't stall frames. Each request draws into a back buffer on a worker thread. The finished buffer
+ * is handed to the GL thread through {@link GLBitmapRenderer#queue(Runnable)}, uploaded at the
+ * next frame and swapped in as the object's bitmap. A newer request for the same object cancels older
+ * ones that haven't been handed over yet.
+ *
+ * Obtain with {@link GLBitmapRenderer#getAsyncRasterizer()}. Requests must be made on the GL thread.
+ */
+public class GLAsyncRasterizer {
+    private static final String TAG = GLAsyncRasterizer.class.getSimpleName();
+
+    /**
+     * Back buffers kept per object besides its front bitmap: one being drawn while one is handed over
+     */
+    private static final int MAX_SPARE_BUFFERS = 2;
+
+    /**
+     * Draws an object's content. Called on the worker thread, so it must not touch GL or state shared
+     * with the GL thread without synchronization.
+     */
+    public interface Painter {
+        /**
+         * @param canvas A canvas drawing into a cleared back buffer of the object's size
+         * @param width The object's bitmap width
+         * @param height The object's bitmap height
+         */
+        void paint(Canvas canvas, int width, int height);
+    }
+
+    private final GLBitmapRenderer mRenderer;
+    private final ExecutorService mExecutor;
+    private final Map<GLBitmapObject, Target> mTargets = new HashMap<>();
+
+    private final AtomicInteger mCancelledCount = new AtomicInteger();
+    private int mCompletedCount = 0;
+    private long mLastLatencyMillis = 0;
+    private long mMaxLatencyMillis = 0;
+    private long mTotalLatencyMillis = 0;
+
+    GLAsyncRasterizer(GLBitmapRenderer renderer) {
+        mRenderer = renderer;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, TAG);
+            }
+        });
+    }
+
+    /**
+     * Draw an object's content in the background. The object's texture and bitmap are replaced at the
+     * first frame after drawing finished, unless a newer request for the object was made meanwhile.
+     * @param bitmapObject The object to draw, which must have been created with a bitmap
+     * @param painter Draws the content, on the worker thread
+     */
+    public void request(GLBitmapObject bitmapObject, Painter painter) {
+        if(bitmapObject == null || painter == null) {
+            throw new IllegalArgumentException("bitmapObject and painter must not be null");
+        }
+
+        Target target = mTargets.get(bitmapObject);
+        if(target == null) {
+            target = new Target(bitmapObject, mRenderer.getBitmapPool());
+            mTargets.put(bitmapObject, target);
+        }
+        int generation = target.mGeneration.incrementAndGet();
+        mExecutor.execute(new Job(target, generation, painter, SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Cancel all pending requests for an object. A request already being drawn finishes, but isn't used.
+     */
+    public void cancel(GLBitmapObject bitmapObject) {
+        Target target = mTargets.get(bitmapObject);
+        if(target != null) {
+            target.mCompletedGeneration = target.mGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Whether the latest request for an object hasn't been uploaded yet. Must be called on the GL thread.
+     * @return True if the object's content is still being drawn, false otherwise
+     */
+    public boolean isPending(GLBitmapObject bitmapObject) {
+        Target target = mTargets.get(bitmapObject);
+        return target != null && target.mCompletedGeneration != target.mGeneration.get();
+    }
+
+    /**
+     * Cancel pending requests for an object and release its back buffers. Called by the renderer when
+     * the object is destroyed.
+     */
+    void forget(GLBitmapObject bitmapObject) {
+        Target target = mTargets.remove(bitmapObject);
+        if(target != null) {
+            target.mGeneration.incrementAndGet();
+            target.releaseSpares();
+        }
+    }
+
+    /**
+     * Stop the worker thread, dropping pending requests
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+        for(Target target : mTargets.values()) {
+            target.mGeneration.incrementAndGet();
+            target.releaseSpares();
+        }
+        mTargets.clear();
+    }
+
+    /**
+     * The number of requests whose result was uploaded
+     */
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * The number of requests dropped because a newer request for the same object was made
+     */
+    public int getCancelledCount() {
+        return mCancelledCount.get();
+    }
+
+    /**
+     * Time from the last completed request until its result was uploaded for the frame showing it
+     */
+    public long getLastLatencyMillis() {
+        return mLastLatencyMillis;
+    }
+
+    public long getMaxLatencyMillis() {
+        return mMaxLatencyMillis;
+    }
+
+    public long getAverageLatencyMillis() {
+        return mCompletedCount > 0 ? mTotalLatencyMillis / mCompletedCount : 0;
+    }
+
+    public void resetStats() {
+        mCancelledCount.set(0);
+        mCompletedCount = 0;
+        mLastLatencyMillis = 0;
+        mMaxLatencyMillis = 0;
+        mTotalLatencyMillis = 0;
+    }
+
+    /**
+     * Swap a finished buffer in as the object's bitmap and upload it. Runs on the GL thread.
+     */
+    private void onJobFinished(Target target, int generation, Bitmap buffer, long requestTimeMillis) {
+        if(generation != target.mGeneration.get() || mTargets.get(target.mObject) != target) {
+            mCancelledCount.incrementAndGet();
+            target.releaseSpare(buffer);
+            return;
+        }
+
+        Bitmap front = target.mObject.getBitmap();
+        mRenderer.invalidateBitmapObject(target.mObject, buffer);
+        target.mObject.setBitmap(buffer);
+        target.mCompletedGeneration = generation;
+        if(front != null) {
+            target.releaseSpare(front);
+        }
+
+        long latency = SystemClock.elapsedRealtime() - requestTimeMillis;
+        mLastLatencyMillis = latency;
+        mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latency);
+        mTotalLatencyMillis += latency;
+        mCompletedCount++;
+    }
+
+    /**
+     * Per object state: the latest request generation, the last one uploaded (or cancelled) on the GL
+     * thread, and back buffers not in use. Buffers beyond
+     * those kept go back to the renderer's {@link BitmapPool}.
+     */
+    private static final class Target {
+        private final GLBitmapObject mObject;
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+        private final BitmapPool mBitmapPool;
+        private final AtomicInteger mGeneration = new AtomicInteger();
+        private int mCompletedGeneration = 0;
+        private final List<Bitmap> mSpares = new ArrayList<>(MAX_SPARE_BUFFERS);
+        private Canvas mCanvas = null;
+
+        Target(GLBitmapObject bitmapObject, BitmapPool bitmapPool) {
+            mObject = bitmapObject;
+            mBitmapPool = bitmapPool;
+            mWidth = bitmapObject.getBitmapWidth();
+            mHeight = bitmapObject.getBitmapHeight();
+            mConfig = bitmapObject.getPixelFormat().getBitmapConfig();
+        }
+
+        synchronized Bitmap acquireSpare() {
+            if(!mSpares.isEmpty()) {
+                return mSpares.remove(mSpares.size() - 1);
+            }
+            return mBitmapPool.acquire(mWidth, mHeight, mConfig);
+        }
+
+        synchronized void releaseSpare(Bitmap bitmap) {
+            if(mSpares.size() < MAX_SPARE_BUFFERS && !bitmap.isRecycled()) {
+                mSpares.add(bitmap);
+            } else {
+                mBitmapPool.release(bitmap);
+            }
+        }
+
+        synchronized void releaseSpares() {
+            for(Bitmap bitmap : mSpares) {
+                mBitmapPool.release(bitmap);
+            }
+            mSpares.clear();
+        }
+    }
+
+    private final class Job implements Runnable {
+        private final Target mTarget;
+        private final int mGeneration;
+        private final Painter mPainter;
+        private final long mRequestTimeMillis;
+
+        Job(Target target, int generation, Painter painter, long requestTimeMillis) {
+            mTarget = target;
+            mGeneration = generation;
+            mPainter = painter;
+            mRequestTimeMillis = requestTimeMillis;
+        }
+
+        @Override
+        public void run() {
+            if(mGeneration != mTarget.mGeneration.get()) {
+                mCancelledCount.incrementAndGet();
+                return;
+            }
+
+            final Bitmap buffer = mTarget.acquireSpare();
+            buffer.eraseColor(0x00000000);
+            // Only this thread draws, so one canvas per object is enough
+            if(mTarget.mCanvas == null) {
+                mTarget.mCanvas = new Canvas(buffer);
+            } else {
+                mTarget.mCanvas.setBitmap(buffer);
+            }
+            try {
+                mPainter.paint(mTarget.mCanvas, mTarget.mWidth, mTarget.mHeight);
+            } catch(RuntimeException e) {
+                Log.e(TAG, "Painter failed", e);
+                mTarget.releaseSpare(buffer);
+                // Nothing will be uploaded, so the request is no longer pending
+                mRenderer.queue(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(mTarget.mGeneration.get() == mGeneration) {
+                            mTarget.mCompletedGeneration = mGeneration;
+                        }
+                    }
+                });
+                return;
+            } finally {
+                mTarget.mCanvas.setBitmap(null);
+            }
+
+            if(mGeneration != mTarget.mGeneration.get()) {
+                mCancelledCount.incrementAndGet();
+                mTarget.releaseSpare(buffer);
+                return;
+            }
+
+            // Not keyed: a replaced handoff would lose its buffer, stale results are dropped when run
+            mRenderer.queue(new Runnable() {
+                @Override
+                public void run() {
+                    onJobFinished(mTarget, mGeneration, buffer, mRequestTimeMillis);
+                }
+            });
+        }
+    }
+}
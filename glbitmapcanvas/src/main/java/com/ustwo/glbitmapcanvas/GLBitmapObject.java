@@ -2,29 +2,155 @@ package com.ustwo.glbitmapcanvas;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.opengl.Matrix;
 import android.support.annotation.CallSuper;
 
 import com.ustwo.glbitmapcanvas.programs.GLProgram;
+import com.ustwo.glbitmapcanvas.programs.GLProgramRegistry;
 
 public class GLBitmapObject {
+    /**
+     * Dirty flags, describing what changed about this object since it was last drawn
+     */
+    public static final int DIRTY_TRANSFORM = 1;
+    public static final int DIRTY_COLOR = 1 << 1;
+    public static final int DIRTY_VISIBILITY = 1 << 2;
+    public static final int DIRTY_TEXTURE = 1 << 3;
+    public static final int DIRTY_PROGRAM = 1 << 4;
+    public static final int DIRTY_ORDER = 1 << 5;
+    public static final int DIRTY_ALL = DIRTY_TRANSFORM | DIRTY_COLOR | DIRTY_VISIBILITY | DIRTY_TEXTURE | DIRTY_PROGRAM | DIRTY_ORDER;
+
+    /**
+     * Ambient visibility, see {@link #setAmbientVisibility(int)}
+     */
+    public static final int AMBIENT_SHOWN = 0;
+    public static final int AMBIENT_HIDDEN = 1;
+    public static final int AMBIENT_ONLY = 2;
+
+    /**
+     * Bits of the program id and texture reference kept in the sort key. Ids beyond these only
+     * weaken the grouping of equal-order objects, never the ordering.
+     */
+    private static final int SORT_KEY_PROGRAM_BITS = 12;
+    private static final int SORT_KEY_TEXTURE_BITS = 20;
+
     private int mSurfaceWidth;
     private int mSurfaceHeight;
     private boolean mIsVisible = true;
-    private Integer mOrder;
-    private final int mTextureRef;
+    private int mOrder;
+    private long mSortKey;
+    private boolean mSortKeyValid = false;
+    private int mTextureRef;
     private final float[] mModelMatrix = new float[16];
+    private boolean mModelMatrixValid = false;
+
+    /**
+     * Surface space affine transform of the unit quad (a, b, c, d, tx, ty), and the sine and cosine of
+     * the angle it was last computed with
+     */
+    private final float[] mAffine = new float[6];
+    private float mAffineAngleDegrees = 0f;
+    private float mAffineSin = 0f;
+    private float mAffineCos = 1f;
+
+    /**
+     * Group membership, the parent world version the world transform was computed with, and the
+     * transform and color combined with those of the groups
+     */
+    private GLGroup mParent = null;
+    private int mParentVersion = -1;
+    private final float[] mWorldAffine = new float[6];
+    private final float[] mWorldColor = new float[4];
     private GLProgram mGLProgram = null;
+    private GLProgramRegistry mProgramRegistry = null;
+    private GLProgram mAmbientGLProgram = null;
+    private int mAmbientVisibility = AMBIENT_SHOWN;
     private TransformState mTransformState = null;
     private TransformState mPostTransformState = null;
     private boolean mRenderWithGL = true;
     private boolean mDidPushTexture = false;
     private float[] mColor = new float[]{1f, 1f, 1f, 1f};
+    private final float[] mUVRect = new float[]{0f, 0f, 1f, 1f};
+    private GLTextureAtlas.Region mAtlasRegion = null;
+    private int mDirtyFlags = DIRTY_ALL;
+    private final ScreenRect mBounds = new ScreenRect();
+    private boolean mBoundsValid = false;
+    private final ScreenRect mDrawnBounds = new ScreenRect();
+    private boolean mDirtyTrackingEnabled = false;
+
+    /**
+     * Texture residency: GPU bytes held by this object's own texture, the number of the last frame
+     * the object was drawn in or uploaded at, and whether its texture was evicted
+     */
+    private long mTextureBytes = 0;
+    private long mLastUsedFrame = 0;
+    private boolean mTextureEvicted = false;
+    private TextureRegenerator mTextureRegenerator = null;
 
-    public Integer getOrder() {
+    /**
+     * Compressed pixels this object's texture is uploaded from instead of a bitmap, and the texture
+     * holding their alpha plane
+     */
+    private GLCompressedTexture mCompressedTexture = null;
+    private int mAlphaTextureRef = 0;
+
+    public int getOrder() {
         return mOrder;
     }
 
+    /**
+     * Set the order in which this object is drawn. Higher order means this object will be drawn after
+     * objects of lower order. Objects of equal order are grouped by program and texture, so their
+     * relative drawing order is undefined.
+     *
+     * @param order The order
+     */
+    public void setOrder(int order) {
+        if(mOrder != order) {
+            mOrder = order;
+            mSortKeyValid = false;
+            invalidate(DIRTY_ORDER);
+        }
+    }
+
+    /**
+     * Key by which the renderer sorts objects: order, then program, then texture
+     */
+    long getSortKey() {
+        if(!mSortKeyValid) {
+            mSortKey = packSortKey(mOrder, mGLProgram != null ? mGLProgram.getId() : 0, getTextureRef());
+            mSortKeyValid = true;
+        }
+        return mSortKey;
+    }
+
+    /**
+     * Whether the sort key is unchanged since it was last read with {@link #getSortKey()}
+     */
+    boolean isSortKeyValid() {
+        return mSortKeyValid;
+    }
+
+    void invalidateSortKey() {
+        mSortKeyValid = false;
+    }
+
+    /**
+     * Pack a signed order into the high 32 bits and the program id and texture reference into the low
+     * 32 bits, so comparing keys as longs compares orders first.
+     */
+    static long packSortKey(int order, int programId, int textureRef) {
+        long programBits = programId & ((1 << SORT_KEY_PROGRAM_BITS) - 1);
+        long textureBits = textureRef & ((1 << SORT_KEY_TEXTURE_BITS) - 1);
+        return ((long)order << 32) | (programBits << SORT_KEY_TEXTURE_BITS) | textureBits;
+    }
+
+    /**
+     * The color by which all fragment colors are multiplied. Change it with
+     * {@link #setColor(float, float, float, float)} or {@link #setAlpha(float)} rather than by
+     * modifying the returned array, so the change is noticed by the renderer.
+     */
     public float[] getColor() {
         return mColor;
     }
@@ -35,16 +161,307 @@ public class GLBitmapObject {
 
     public void onTexturePushed() {
         mDidPushTexture = true;
+        invalidate(DIRTY_TEXTURE);
+    }
+
+    /**
+     * Whether anything about this object changed since it was last drawn
+     *
+     * @return True if any dirty flag is set
+     */
+    public boolean isDirty() {
+        updateTransform();
+        return mDirtyFlags != 0;
+    }
+
+    /**
+     * @return The dirty flags set since this object was last drawn, e.g. {@link #DIRTY_TRANSFORM}
+     */
+    public int getDirtyFlags() {
+        updateTransform();
+        return mDirtyFlags;
+    }
+
+    /**
+     * Mark this object as changed, so the renderer doesn't skip the next frame. Only needed for
+     * changes made behind this object's back, e.g. to the array returned by {@link #getColor()}.
+     *
+     * @param dirtyFlags The flags describing what changed, e.g. {@link #DIRTY_COLOR}
+     */
+    public void invalidate(int dirtyFlags) {
+        mDirtyFlags |= dirtyFlags;
+    }
+
+    /**
+     * Called by the renderer once this object's current state has been drawn, remembering the area
+     * it now covers
+     */
+    void clearDirty() {
+        mDirtyFlags = 0;
+        if(mRenderWithGL && isVisibleInScene()) {
+            mDrawnBounds.set(getBounds());
+        } else {
+            mDrawnBounds.setEmpty();
+        }
+    }
+
+    /**
+     * The surface space bounds of this object's quad, as transformed by its model matrix
+     */
+    ScreenRect getBounds() {
+        updateTransform();
+        if(!mBoundsValid) {
+            mBounds.setToTransformedUnitQuad(getAffineTransform(), 0);
+            mBoundsValid = true;
+        }
+        return mBounds;
+    }
+
+    /**
+     * The bounds this object covered when it was last drawn, empty if it wasn't drawn
+     */
+    ScreenRect getDrawnBounds() {
+        return mDrawnBounds;
+    }
+
+    /**
+     * Called when this object's texture was lost along with its GL context, or evicted and about to be
+     * restored, and replaced by a new, empty texture.
+     */
+    void onTextureLost(int newTextureRef) {
+        mTextureRef = newTextureRef;
+        mSortKeyValid = false;
+        // The texture is part of the sort key, and re-sorting may move this object among overlapping ones
+        invalidate(DIRTY_ORDER);
+        mDidPushTexture = false;
+        mTextureEvicted = false;
+        mTextureBytes = 0;
+    }
+
+    /**
+     * Called when this object's texture was deleted to stay within the renderer's texture memory
+     * budget. It is restored the next time the object is drawn or invalidated.
+     */
+    void onTextureEvicted() {
+        mTextureRef = 0;
+        mAlphaTextureRef = 0;
+        mSortKeyValid = false;
+        // The texture is part of the sort key, and re-sorting may move this object among overlapping ones
+        invalidate(DIRTY_ORDER);
+        mDidPushTexture = false;
+        mTextureEvicted = true;
+        mTextureBytes = 0;
+    }
+
+    /**
+     * Exchange textures and bitmaps with another object of the same size and format, so each shows
+     * what the other did. Used to swap a pre-rendered standby object in, see
+     * {@link GLBitmapRenderer#swapTexturesAt(GLBitmapObject, GLBitmapObject, long)}.
+     */
+    void swapTextureWith(GLBitmapObject other) {
+        int textureRef = mTextureRef;
+        mTextureRef = other.mTextureRef;
+        other.mTextureRef = textureRef;
+
+        boolean didPushTexture = mDidPushTexture;
+        mDidPushTexture = other.mDidPushTexture;
+        other.mDidPushTexture = didPushTexture;
+
+        boolean textureEvicted = mTextureEvicted;
+        mTextureEvicted = other.mTextureEvicted;
+        other.mTextureEvicted = textureEvicted;
+
+        long textureBytes = mTextureBytes;
+        mTextureBytes = other.mTextureBytes;
+        other.mTextureBytes = textureBytes;
+
+        Bitmap bitmap = mBitmap;
+        mBitmap = other.mBitmap;
+        other.mBitmap = bitmap;
+
+        Canvas canvas = mCanvas;
+        mCanvas = other.mCanvas;
+        other.mCanvas = canvas;
+
+        mSortKeyValid = false;
+        other.mSortKeyValid = false;
+        invalidate(DIRTY_TEXTURE);
+        other.invalidate(DIRTY_TEXTURE);
+    }
+
+    /**
+     * Whether this object's texture was evicted by the renderer, see
+     * {@link GLBitmapRenderer#setTextureMemoryBudget(long)}
+     *
+     * @return True if the texture was evicted and not yet restored
+     */
+    public boolean isTextureEvicted() {
+        return mTextureEvicted;
+    }
+
+    /**
+     * The GPU memory held by this object's own texture. Objects in a {@link GLTextureAtlas} share its
+     * pages, so they hold none of their own.
+     *
+     * @return The texture size in bytes, 0 if no pixels were pushed or the texture was evicted
+     */
+    public long getTextureBytes() {
+        return mTextureBytes;
+    }
+
+    void setTextureBytes(long textureBytes) {
+        mTextureBytes = textureBytes;
+    }
+
+    long getLastUsedFrame() {
+        return mLastUsedFrame;
+    }
+
+    void setLastUsedFrame(long frame) {
+        mLastUsedFrame = frame;
+    }
+
+    public TextureRegenerator getTextureRegenerator() {
+        return mTextureRegenerator;
+    }
+
+    /**
+     * Set how this object's texture is restored after eviction if the object has no bitmap, e.g. after
+     * {@link #releaseBitmap()}. Objects with neither a bitmap nor a regenerator are never evicted.
+     *
+     * @param textureRegenerator The regenerator, or null
+     */
+    public void setTextureRegenerator(TextureRegenerator textureRegenerator) {
+        mTextureRegenerator = textureRegenerator;
+    }
+
+    /**
+     * Whether this object's texture can be restored after eviction
+     */
+    boolean canRestoreTexture() {
+        return mBitmap != null || mTextureRegenerator != null || mCompressedTexture != null;
+    }
+
+    /**
+     * The compressed pixels of an object created with
+     * {@link GLBitmapRenderer#createCompressedBitmapObject(GLCompressedTexture, Integer)}, kept to
+     * restore its texture
+     *
+     * @return The compressed texture, or null if this object's texture is uploaded from bitmaps
+     */
+    public GLCompressedTexture getCompressedTexture() {
+        return mCompressedTexture;
+    }
+
+    /**
+     * Use compressed pixels, sampling only the image area of the encoded texture
+     */
+    void setCompressedTexture(GLCompressedTexture compressedTexture) {
+        mCompressedTexture = compressedTexture;
+        mUVRect[0] = 0f;
+        mUVRect[1] = 0f;
+        mUVRect[2] = (float)compressedTexture.getWidth() / compressedTexture.getEncodedWidth();
+        mUVRect[3] = (float)compressedTexture.getHeight() / compressedTexture.getEncodedHeight();
+        invalidate(DIRTY_TEXTURE);
+    }
+
+    /**
+     * The texture holding the alpha plane of this object's compressed texture
+     *
+     * @return The texture reference, or 0 if there is none
+     */
+    public int getAlphaTextureRef() {
+        return mAlphaTextureRef;
+    }
+
+    void setAlphaTextureRef(int alphaTextureRef) {
+        mAlphaTextureRef = alphaTextureRef;
     }
 
     public GLProgram getGLProgram() {
         return mGLProgram;
     }
 
+    /**
+     * Draw this object with a custom program, linked now if it isn't yet. Objects created by a
+     * {@link GLBitmapRenderer} link programs through its {@link GLProgramRegistry}, so program
+     * objects with identical shaders share one GL program. The renderer deletes the program when the
+     * last object drawn with it is destroyed.
+     * @param program The program, or null to draw with the standard program
+     * @throws IllegalStateException If this object can't be drawn with a custom program, as
+     * {@link GLSpriteBatch}es, which are always drawn with the batch program
+     */
     public void attachGLProgram(GLProgram program) {
+        checkCustomProgramSupported(program);
         mGLProgram = program;
+        mSortKeyValid = false;
+        invalidate(DIRTY_PROGRAM);
+        if(program != null) {
+            program.glCreateCompileLink(mProgramRegistry);
+        }
+    }
+
+    void setProgramRegistry(GLProgramRegistry programRegistry) {
+        mProgramRegistry = programRegistry;
+    }
+
+    /**
+     * Whether this object can be drawn with a custom program
+     */
+    boolean isCustomProgramSupported() {
+        return true;
+    }
+
+    private void checkCustomProgramSupported(GLProgram program) {
+        if(program != null && !isCustomProgramSupported()) {
+            throw new IllegalStateException(String.format("%s can't be drawn with a custom program", getClass().getSimpleName()));
+        }
+    }
+
+    public GLProgram getAmbientGLProgram() {
+        return mAmbientGLProgram;
+    }
+
+    /**
+     * Draw this object with another program in ambient mode, see
+     * {@link GLBitmapRenderer#setAmbient(boolean)}, e.g. a variant of its custom program compiled
+     * with {@link com.ustwo.glbitmapcanvas.programs.GLShaderPreprocessor#AMBIENT} that draws
+     * outlines only. Linked now if it isn't yet, like {@link #attachGLProgram(GLProgram)}.
+     * Without an ambient program, objects drawn with a custom program are hidden in ambient mode
+     * unless the renderer allows custom programs there, see
+     * {@link GLBitmapRenderer#setAmbientCustomProgramsEnabled(boolean)}.
+     * @param program The program, or null to use the object's program per the renderer's settings
+     * @throws IllegalStateException If this object can't be drawn with a custom program, see
+     * {@link #attachGLProgram(GLProgram)}
+     */
+    public void setAmbientGLProgram(GLProgram program) {
+        checkCustomProgramSupported(program);
+        mAmbientGLProgram = program;
+        invalidate(DIRTY_PROGRAM);
         if(program != null) {
-            program.glCreateCompileLink();
+            program.glCreateCompileLink(mProgramRegistry);
+        }
+    }
+
+    public int getAmbientVisibility() {
+        return mAmbientVisibility;
+    }
+
+    /**
+     * Set whether this object is drawn in ambient mode, on top of its own visibility. Pairs of
+     * objects, one {@link #AMBIENT_HIDDEN} and one {@link #AMBIENT_ONLY}, show another texture in
+     * ambient mode, e.g. a black and white version of an image. Default is {@link #AMBIENT_SHOWN}.
+     * @param ambientVisibility {@link #AMBIENT_SHOWN} to draw this object in both modes,
+     *                          {@link #AMBIENT_HIDDEN} to draw it in interactive mode only, or
+     *                          {@link #AMBIENT_ONLY} to draw it in ambient mode only
+     */
+    public void setAmbientVisibility(int ambientVisibility) {
+        if(ambientVisibility != AMBIENT_SHOWN && ambientVisibility != AMBIENT_HIDDEN && ambientVisibility != AMBIENT_ONLY) {
+            throw new IllegalArgumentException(String.format("Invalid ambient visibility %d", ambientVisibility));
+        }
+        if(mAmbientVisibility != ambientVisibility) {
+            mAmbientVisibility = ambientVisibility;
+            invalidate(DIRTY_VISIBILITY);
         }
     }
 
@@ -74,7 +491,10 @@ public class GLBitmapObject {
      * @param alpha The alpha, in range 0.0 - 1.0
      */
     public void setAlpha(float alpha) {
-        mColor[3] = alpha;
+        if(mColor[3] != alpha) {
+            mColor[3] = alpha;
+            invalidate(DIRTY_COLOR);
+        }
     }
 
     /**
@@ -86,6 +506,10 @@ public class GLBitmapObject {
      * @param a Alpha component
      */
     public void setColor(float r, float g, float b, float a) {
+        if(mColor[0] == r && mColor[1] == g && mColor[2] == b && mColor[3] == a) {
+            return;
+        }
+        invalidate(DIRTY_COLOR);
         mColor[0] = r;
         mColor[1] = g;
         mColor[2] = b;
@@ -100,12 +524,179 @@ public class GLBitmapObject {
         return mPostTransformState;
     }
 
+    /**
+     * The model matrix transforming the unit quad into surface space, computed from the 2D transform
+     * when requested. Modifying the returned array has no effect on how this object is drawn.
+     *
+     * @return The column-major 4x4 model matrix
+     */
     public float[] getModelMatrix() {
+        updateTransform();
+        if(!mModelMatrixValid) {
+            float[] affine = getAffineTransform();
+            Matrix.setIdentityM(mModelMatrix, 0);
+            mModelMatrix[0] = affine[0];
+            mModelMatrix[1] = affine[1];
+            mModelMatrix[4] = affine[2];
+            mModelMatrix[5] = affine[3];
+            mModelMatrix[10] = 0f;
+            mModelMatrix[12] = affine[4];
+            mModelMatrix[13] = affine[5];
+            mModelMatrixValid = true;
+        }
         return mModelMatrix;
     }
 
+    /**
+     * The 2D affine transform of the unit quad into surface space, as (a, b, c, d, tx, ty) with
+     * x' = a * x + c * y + tx and y' = b * x + d * y + ty, including the transforms of the groups
+     * this object belongs to. Recomputed when the {@link TransformState} or a group changed since it
+     * was last read.
+     *
+     * @return The affine transform, which must not be modified
+     */
+    public float[] getAffineTransform() {
+        updateTransform();
+        return mParent != null ? mWorldAffine : mAffine;
+    }
+
+    /**
+     * Recompute the affine transform if the transform state changed, and the world transform if
+     * either it or the parent group's world state changed
+     */
+    private void updateTransform() {
+        boolean changed = false;
+        TransformState state = mTransformState;
+        if(state != null && state.mChanged) {
+            state.mChanged = false;
+            computeLocalTransform(state);
+            changed = true;
+        }
+
+        if(mParent != null) {
+            mParent.update();
+            if(changed || mParent.getVersion() != mParentVersion) {
+                mParentVersion = mParent.getVersion();
+                AffineTransforms.multiply(mParent.getWorldTransform(), mAffine, mWorldAffine);
+                // The group's visibility or alpha may have changed too
+                mDirtyFlags |= DIRTY_VISIBILITY | DIRTY_COLOR;
+                changed = true;
+            }
+        }
+
+        if(changed) {
+            mModelMatrixValid = false;
+            mBoundsValid = false;
+            mDirtyFlags |= DIRTY_TRANSFORM;
+        }
+    }
+
+    private void computeLocalTransform(TransformState state) {
+        float width = mBitmapWidth * state.getScaleX();
+        float height = mBitmapHeight * state.getScaleY();
+        float angleDegrees = state.getAngleDegrees();
+        if(angleDegrees != mAffineAngleDegrees) {
+            double radians = Math.toRadians(-angleDegrees);
+            mAffineSin = (float)Math.sin(radians);
+            mAffineCos = (float)Math.cos(radians);
+            mAffineAngleDegrees = angleDegrees;
+        }
+        float sin = mAffineSin;
+        float cos = mAffineCos;
+        float anchorX = state.getAnchorX();
+        float anchorY = state.getAnchorY();
+
+        // translate(position) * rotate(-angle) * translate(-anchor) * scale(size), with y flipped to GL
+        mAffine[0] = cos * width;
+        mAffine[1] = sin * width;
+        mAffine[2] = -sin * height;
+        mAffine[3] = cos * height;
+        mAffine[4] = state.getTranslationX() - cos * anchorX + sin * anchorY;
+        mAffine[5] = (mSurfaceHeight - state.getTranslationY()) - sin * anchorX - cos * anchorY;
+    }
+
+    /**
+     * The group this object belongs to, see {@link GLGroup#add(GLBitmapObject)}
+     *
+     * @return The group, or null
+     */
+    public GLGroup getParent() {
+        return mParent;
+    }
+
+    void setParent(GLGroup parent) {
+        mParent = parent;
+        mParentVersion = -1;
+        mModelMatrixValid = false;
+        mBoundsValid = false;
+        invalidate(DIRTY_TRANSFORM | DIRTY_VISIBILITY | DIRTY_COLOR);
+    }
+
+    /**
+     * Whether this object and all groups it belongs to are visible
+     */
+    boolean isVisibleInScene() {
+        if(!mIsVisible) {
+            return false;
+        }
+        if(mParent != null) {
+            mParent.update();
+            return mParent.isWorldVisible();
+        }
+        return true;
+    }
+
+    /**
+     * The color this object is drawn with: its color, with the alpha multiplied by that of the groups
+     * it belongs to
+     */
+    float[] getWorldColor() {
+        if(mParent == null) {
+            return mColor;
+        }
+        mParent.update();
+        mWorldColor[0] = mColor[0];
+        mWorldColor[1] = mColor[1];
+        mWorldColor[2] = mColor[2];
+        mWorldColor[3] = mColor[3] * mParent.getWorldAlpha();
+        return mWorldColor;
+    }
+
     public int getTextureRef() {
-        return mTextureRef;
+        return mAtlasRegion != null ? mAtlasRegion.getTextureRef() : mTextureRef;
+    }
+
+    /**
+     * The area of the texture holding this object's pixels, in normalized texture coordinates.
+     * This covers the whole texture unless the object was placed in a {@link GLTextureAtlas}.
+     *
+     * @return The rectangle as (u, v, width, height)
+     */
+    public float[] getUVRect() {
+        return mUVRect;
+    }
+
+    /**
+     * The atlas region holding this object's pixels
+     *
+     * @return The region, or null if this object has a texture of its own
+     */
+    public GLTextureAtlas.Region getAtlasRegion() {
+        return mAtlasRegion;
+    }
+
+    void setAtlasRegion(GLTextureAtlas.Region region) {
+        mAtlasRegion = region;
+        mSortKeyValid = false;
+        invalidate(DIRTY_TEXTURE);
+        if(region != null) {
+            region.getUVRect(mUVRect);
+        } else {
+            mUVRect[0] = 0f;
+            mUVRect[1] = 0f;
+            mUVRect[2] = 1f;
+            mUVRect[3] = 1f;
+        }
     }
 
     public boolean isVisible() {
@@ -113,7 +704,10 @@ public class GLBitmapObject {
     }
 
     public void setVisible(boolean visible) {
-        mIsVisible = visible;
+        if(mIsVisible != visible) {
+            mIsVisible = visible;
+            invalidate(DIRTY_VISIBILITY);
+        }
     }
 
     public void transformTo(float angleDegrees, float scaleX, float scaleY, float centerPositionX, float centerPositionY) {
@@ -127,25 +721,27 @@ public class GLBitmapObject {
             mTransformState = new TransformState();
         }
         mTransformState.set(angleDegrees, anchorPositionX, anchorPositionY, scaleX, scaleY, anchorX, anchorY);
-        Matrix.setIdentityM(mModelMatrix, 0);
-        float newWidth = mBitmapWidth * scaleX;
-        float newHeight = mBitmapHeight * scaleY;
-        float canvasPositionY = (mSurfaceHeight - anchorPositionY);
-        Matrix.translateM(mModelMatrix, 0, anchorPositionX, canvasPositionY, 0f);
-        Matrix.rotateM(mModelMatrix, 0, -angleDegrees, 0f, 0f, 1f);
-        Matrix.translateM(mModelMatrix, 0, -anchorX, -anchorY, 0f);
-        Matrix.scaleM(mModelMatrix, 0, newWidth, newHeight, 0f);
     }
 
-    public GLBitmapObject(int textureRef, int bitmapWidth, int bitmapHeight, int surfaceWidth, int surfaceHeight, Integer order, boolean allocateBitmap) {
+    public GLBitmapObject(int textureRef, int bitmapWidth, int bitmapHeight, int surfaceWidth, int surfaceHeight, int order, boolean allocateBitmap) {
+        this(textureRef, bitmapWidth, bitmapHeight, surfaceWidth, surfaceHeight, order, allocateBitmap, GLPixelFormat.RGBA_8888, null);
+    }
+
+    /**
+     * @param pixelFormat The format of this object's bitmap and texture
+     * @param bitmapPool The pool bitmaps are allocated from and released to, or null to always
+     *                   create and recycle them
+     */
+    GLBitmapObject(int textureRef, int bitmapWidth, int bitmapHeight, int surfaceWidth, int surfaceHeight, int order, boolean allocateBitmap, GLPixelFormat pixelFormat, BitmapPool bitmapPool) {
 
         mBitmapWidth = bitmapWidth;
         mBitmapHeight = bitmapHeight;
+        mPixelFormat = pixelFormat;
+        mBitmapPool = bitmapPool;
 
         if (allocateBitmap) {
-            mBitmap = Bitmap.createBitmap(mBitmapWidth, mBitmapHeight, Bitmap.Config.ARGB_8888);
-            mCanvas = new Canvas(mBitmap);
-            mBitmap.eraseColor(0x00000000);
+            mBitmap = createBitmap();
+            mCanvas = createCanvas(mBitmap);
         }
 
         mTextureRef = textureRef;
@@ -153,17 +749,29 @@ public class GLBitmapObject {
         mSurfaceHeight = surfaceHeight;
         mOrder = order;
 
-        Matrix.setIdentityM(mModelMatrix, 0);
-        Matrix.scaleM(mModelMatrix, 0, mBitmapWidth, mBitmapHeight, 0f);
+        mAffine[0] = mBitmapWidth;
+        mAffine[3] = mBitmapHeight;
     }
 
 
     protected Bitmap mBitmap;
     protected Canvas mCanvas = null;
+    private final GLPixelFormat mPixelFormat;
+    private final BitmapPool mBitmapPool;
 
     protected final int mBitmapHeight;
     protected final int mBitmapWidth;
 
+    /**
+     * The format of this object's bitmap and texture. Bitmaps set with {@link #setBitmap(Bitmap)} must
+     * have its config.
+     *
+     * @return The pixel format
+     */
+    public GLPixelFormat getPixelFormat() {
+        return mPixelFormat;
+    }
+
     public Bitmap getBitmap() {
         return mBitmap;
     }
@@ -181,10 +789,18 @@ public class GLBitmapObject {
     }
 
 
+    /**
+     * Release this object's bitmap, recycling it or handing it back to the renderer's
+     * {@link BitmapPool} for reuse. The bitmap must not be used afterwards.
+     */
     @CallSuper
     public void releaseBitmap() {
         if (mBitmap != null) {
-            mBitmap.recycle();
+            if (mBitmapPool != null) {
+                mBitmapPool.release(mBitmap);
+            } else {
+                mBitmap.recycle();
+            }
         }
         mBitmap = null;
         mCanvas = null;
@@ -199,16 +815,19 @@ public class GLBitmapObject {
     public void clear() {
         if (mBitmap != null) {
             mBitmap.eraseColor(0x00000000);
+            if (mCanvas instanceof DirtyTrackingCanvas) {
+                ((DirtyTrackingCanvas)mCanvas).markAllDirty();
+            }
         }
     }
 
     public void allocateBitmap() {
         if (mBitmap == null || mBitmap.isRecycled() || !mBitmap.isMutable()) {
-            mBitmap = Bitmap.createBitmap(mBitmapWidth, mBitmapHeight, Bitmap.Config.ARGB_8888);
+            mBitmap = createBitmap();
         }
 
         if (mCanvas == null) {
-            mCanvas = new Canvas(mBitmap);
+            mCanvas = createCanvas(mBitmap);
         } else {
             mCanvas.setBitmap(mBitmap);
         }
@@ -219,13 +838,81 @@ public class GLBitmapObject {
 
         if (bitmap != null) {
             if (mCanvas == null) {
-                mCanvas = new Canvas(mBitmap);
+                mCanvas = createCanvas(mBitmap);
             } else {
                 mCanvas.setBitmap(mBitmap);
             }
         }
     }
 
+    public boolean isDirtyTrackingEnabled() {
+        return mDirtyTrackingEnabled;
+    }
+
+    /**
+     * Set whether {@link #getCanvas()} returns a {@link DirtyTrackingCanvas}, which records the area
+     * drawn to, so {@link GLBitmapRenderer#invalidateBitmapObject(GLBitmapObject)} only uploads that
+     * area rather than the whole bitmap. Changing this replaces the canvas, so canvas state such as
+     * its matrix is lost. Default is false.
+     *
+     * @param dirtyTrackingEnabled True to track the area drawn to, false otherwise
+     */
+    public void setDirtyTrackingEnabled(boolean dirtyTrackingEnabled) {
+        if (mDirtyTrackingEnabled == dirtyTrackingEnabled) {
+            return;
+        }
+        mDirtyTrackingEnabled = dirtyTrackingEnabled;
+        if (mCanvas != null) {
+            mCanvas = createCanvas(mBitmap);
+        }
+    }
+
+    /**
+     * Read and reset the area drawn to since the last call
+     *
+     * @param out Receives the area in bitmap pixels, empty if nothing was drawn
+     * @return True if dirty tracking is enabled and out is valid, false if the area is unknown
+     */
+    boolean takeTrackedDirtyRect(Rect out) {
+        if (!(mCanvas instanceof DirtyTrackingCanvas)) {
+            return false;
+        }
+        DirtyTrackingCanvas canvas = (DirtyTrackingCanvas)mCanvas;
+        canvas.getDirtyRect(out);
+        canvas.resetDirtyRect();
+        return true;
+    }
+
+    /**
+     * A cleared bitmap of this object's size, from the pool if there is one
+     */
+    private Bitmap createBitmap() {
+        if (mBitmapPool != null) {
+            return mBitmapPool.acquire(mBitmapWidth, mBitmapHeight, mPixelFormat.getBitmapConfig());
+        }
+        Bitmap bitmap = Bitmap.createBitmap(mBitmapWidth, mBitmapHeight, mPixelFormat.getBitmapConfig());
+        bitmap.eraseColor(0x00000000);
+        return bitmap;
+    }
+
+    private Canvas createCanvas(Bitmap bitmap) {
+        return mDirtyTrackingEnabled ? new DirtyTrackingCanvas(bitmap) : new Canvas(bitmap);
+    }
+
+    /**
+     * Recreates the pixels of an object whose texture was evicted and which has no bitmap to re-upload
+     */
+    public interface TextureRegenerator {
+        /**
+         * Called on the GL thread when the object is about to be drawn, with an empty texture. Draw the
+         * content again, e.g. into a bitmap from {@link #allocateBitmap()}, and push it with
+         * {@link GLBitmapRenderer#invalidateBitmapObject(GLBitmapObject)}.
+         *
+         * @param bitmapObject The object to restore
+         */
+        void onRegenerateTexture(GLBitmapObject bitmapObject);
+    }
+
     public static class TransformState {
         private float mAngleDegrees = 0f;
         private float mTranslationX = 0f;
@@ -235,6 +922,11 @@ public class GLBitmapObject {
         private float mAnchorX = 0f;
         private float mAnchorY = 0f;
 
+        /**
+         * Whether any value changed since the owning object last computed its transform
+         */
+        boolean mChanged = true;
+
         public TransformState() {
         }
 
@@ -250,7 +942,15 @@ public class GLBitmapObject {
             set(angleDegrees, centerPositionX, centerPositionY, scaleX, scaleY, 0f, 0f);
         }
 
+        /**
+         * Set all values at once. Setting the current values isn't a change, so faces may set the
+         * same transform on every time update without the object needing to be redrawn.
+         */
         public void set(float angleDegrees, float centerPositionX, float centerPositionY, float scaleX, float scaleY, float anchorX, float anchorY) {
+            if(mAngleDegrees == angleDegrees && mTranslationX == centerPositionX && mTranslationY == centerPositionY
+                    && mScaleX == scaleX && mScaleY == scaleY && mAnchorX == anchorX && mAnchorY == anchorY) {
+                return;
+            }
             mAngleDegrees = angleDegrees;
             mTranslationX = centerPositionX;
             mTranslationY = centerPositionY;
@@ -258,6 +958,7 @@ public class GLBitmapObject {
             mScaleY = scaleY;
             mAnchorX = anchorX;
             mAnchorY = anchorY;
+            mChanged = true;
         }
 
         public float getAngleDegrees() {
@@ -265,7 +966,10 @@ public class GLBitmapObject {
         }
 
         public void setAngleDegrees(float angleDegrees) {
-            mAngleDegrees = angleDegrees;
+            if(mAngleDegrees != angleDegrees) {
+                mAngleDegrees = angleDegrees;
+                mChanged = true;
+            }
         }
 
         public float getTranslationX() {
@@ -273,7 +977,10 @@ public class GLBitmapObject {
         }
 
         public void setTranslationX(float translationX) {
-            mTranslationX = translationX;
+            if(mTranslationX != translationX) {
+                mTranslationX = translationX;
+                mChanged = true;
+            }
         }
 
         public float getTranslationY() {
@@ -281,7 +988,10 @@ public class GLBitmapObject {
         }
 
         public void setTranslationY(float translationY) {
-            mTranslationY = translationY;
+            if(mTranslationY != translationY) {
+                mTranslationY = translationY;
+                mChanged = true;
+            }
         }
 
         public float getScaleX() {
@@ -289,7 +999,10 @@ public class GLBitmapObject {
         }
 
         public void setScaleX(float scaleX) {
-            mScaleX = scaleX;
+            if(mScaleX != scaleX) {
+                mScaleX = scaleX;
+                mChanged = true;
+            }
         }
 
         public float getScaleY() {
@@ -297,7 +1010,10 @@ public class GLBitmapObject {
         }
 
         public void setScaleY(float scaleY) {
-            mScaleY = scaleY;
+            if(mScaleY != scaleY) {
+                mScaleY = scaleY;
+                mChanged = true;
+            }
         }
 
         public float getAnchorX() {
@@ -1,12 +1,25 @@
 package com.ustwo.glbitmapcanvas;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.opengl.EGL14;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.ustwo.glbitmapcanvas.programs.AmbientFrameProgram;
+import com.ustwo.glbitmapcanvas.programs.BatchGLProgram;
 import com.ustwo.glbitmapcanvas.programs.GLProgram;
+import com.ustwo.glbitmapcanvas.programs.GLProgramBinaryCache;
+import com.ustwo.glbitmapcanvas.programs.GLProgramRegistry;
 import com.ustwo.glbitmapcanvas.programs.StandardGLProgram;
 
 import java.nio.ByteBuffer;
@@ -16,7 +29,9 @@ import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Manages and handles rendering of {@link GLBitmapObject}s.
@@ -25,45 +40,135 @@ public class GLBitmapRenderer {
     private static final String TAG = GLBitmapRenderer.class.getSimpleName();
 
     /**
-     * Holds buffer positions in application memory space. Don't use local/transient variable to store.
+     * System float size
      */
-    @SuppressWarnings("FieldCanBeLocal")
-    private FloatBuffer mBufferPositions;
+    public static final int FLOAT_SIZE_BYTES = 4;
+
 
     /**
-     * Holds buffer indices in application memory space. Don't use local variables to store.
+     * System short int size
      */
-    private ShortBuffer mBufferIndices;
+    public static final int SHORT_SIZE_BYTES = 2;
 
     /**
-     * Holds buffer UV coordinates in application memory space. Don't use local variables to store.
+     * Maximum number of quads held in the batch vertex stream before it is flushed
      */
-    @SuppressWarnings("FieldCanBeLocal")
-    private FloatBuffer mBufferUVCoords;
+    public static final int MAX_BATCH_QUADS = 256;
+
+    private static final int VERTICES_PER_QUAD = 4;
+    private static final int INDICES_PER_QUAD = 6;
 
     /**
-     * System float size
+     * Floats per batched vertex: position (x, y), UV (u, v), color (r, g, b, a)
      */
-    public static final int FLOAT_SIZE_BYTES = 4;
+    private static final int BATCH_VERTEX_FLOATS = 8;
 
+    /**
+     * Byte offset of the UV coordinates in the quad vertex buffer, which holds positions followed by UVs
+     */
+    private static final int QUAD_UV_OFFSET_BYTES = 4 * 3 * 4;
 
-    private int mLastTextureRef = 0;
+    /**
+     * EGL_BUFFER_AGE_EXT of EGL_EXT_buffer_age, not defined in {@link EGL14}
+     */
+    private static final int EGL_BUFFER_AGE_EXT = 0x313D;
 
     /**
-     * System short int size
+     * Texture memory budget meaning textures are never evicted, see {@link #setTextureMemoryBudget(long)}
      */
-    public static final int SHORT_SIZE_BYTES = 2;
+    public static final long UNLIMITED_TEXTURE_MEMORY = Long.MAX_VALUE;
+
+    /**
+     * Number of past frames whose damage is remembered, the oldest buffer age that can be redrawn partially
+     */
+    private static final int MAX_BUFFER_AGE = 4;
 
     private final float[] mVPMatrix = new float[16];
     private final float[] mMVPMatrix = new float[16];
     private final long mGLThreadId;
     private final int[] mTextures = new int[1];
 
-    private GLProgram mStandardProgram = new StandardGLProgram();
+    /**
+     * Programs linked on this renderer's GL context, shared by program objects with identical shaders
+     */
+    private final GLProgramRegistry mProgramRegistry = new GLProgramRegistry();
+    private StandardGLProgram mStandardProgram = new StandardGLProgram();
+    private final GLStateCache mStateCache = new GLStateCache();
+    private GLTextureAtlas mTextureAtlas = new GLTextureAtlas(mStateCache);
+    private BatchGLProgram mBatchProgram = new BatchGLProgram();
+
+    /**
+     * Variants of the standard and batch programs drawing mask formats, by format ordinal, created on
+     * first use. Other formats use {@link #mStandardProgram} and {@link #mBatchProgram}.
+     */
+    private final StandardGLProgram[] mMaskStandardPrograms = new StandardGLProgram[GLPixelFormat.values().length];
+    private final BatchGLProgram[] mMaskBatchPrograms = new BatchGLProgram[GLPixelFormat.values().length];
+    private StandardGLProgram mAlphaPlaneProgram = null;
+    private boolean mCompressedTextureSupported = false;
+    private GLProgram mCurrentProgram = null;
+    private int mPositionLoc = -1;
+    private int mTexCoordLoc = -1;
+    private boolean mBatchAttributesBound = false;
+
+    private boolean mBatchingEnabled = false;
+    private int mDrawCallCount = 0;
+
+    /**
+     * GPU buffer objects: the static unit quad, the static index buffer (shared by single quads and
+     * batches), and the streaming vertex buffer batches are written to.
+     */
+    private final int[] mBuffers = new int[3];
+    private int mQuadVertexBuffer;
+    private int mIndexBuffer;
+    private int mStreamVertexBuffer;
+
+    /**
+     * Staging area for batched vertices, filled from {@link #mBatchVertexData} on flush.
+     */
+    private FloatBuffer mBufferBatchVertices;
+    private final float[] mBatchVertexData = new float[MAX_BATCH_QUADS * VERTICES_PER_QUAD * BATCH_VERTEX_FLOATS];
+    private int mBatchQuadCount = 0;
+    private int mBatchTextureRef = 0;
+    private BatchGLProgram mBatchQuadProgram = null;
 
     private List<GLBitmapObject> mBitmapObjects = new ArrayList<>(3);
 
-    private final List<Runnable> mEventQueue = new ArrayList<>();
+    /**
+     * Events are queued into {@link #mPendingEvents} under {@link #mEventLock}. At each frame the
+     * lists are swapped and the drained list is run outside the lock, so producers never wait for
+     * events to run and events queued while draining run at the next frame.
+     */
+    private final Object mEventLock = new Object();
+    private ArrayList<Runnable> mPendingEvents = new ArrayList<>();
+    private ArrayList<Runnable> mDrainingEvents = new ArrayList<>();
+    private final Map<Object, Integer> mPendingEventIndices = new HashMap<>();
+    private volatile Runnable mOnEventQueuedListener = null;
+
+    private GLAsyncRasterizer mAsyncRasterizer = null;
+    private final BitmapPool mBitmapPool = new BitmapPool();
+
+    private long mTextureMemoryBudget = UNLIMITED_TEXTURE_MEMORY;
+    private final ArrayList<GLBitmapObject> mEvictionCandidates = new ArrayList<>();
+    private int mEvictionCount = 0;
+    private int mRestoreCount = 0;
+
+    /**
+     * Standby objects waiting to be swapped in, see {@link #swapTexturesAt(GLBitmapObject, GLBitmapObject, long)}
+     */
+    private final ArrayList<TextureSwap> mTextureSwaps = new ArrayList<>(2);
+
+    /**
+     * Sub-rectangle uploads: the clipped rectangle, and the bitmap the rectangle is copied into, since
+     * texSubImage2D can only upload a whole bitmap. The scratch bitmap is reconfigured rather than
+     * re-created while it is large enough.
+     */
+    private final Rect mUploadRect = new Rect();
+    private final Rect mUploadScratchRect = new Rect();
+    private Bitmap mUploadScratch = null;
+    private Canvas mUploadScratchCanvas = null;
+    private Paint mUploadCopyPaint = null;
+    private long mUploadedBytes = 0;
+    private long mSavedUploadBytes = 0;
 
     private static float[] mTextureUVCoords = new float[] {
             0.0f, 0.0f,
@@ -88,6 +193,58 @@ public class GLBitmapRenderer {
     private int mSurfaceWidth;
     private boolean mIsFinishing = false;
 
+    /**
+     * Whether objects were added, removed or re-ordered since the last frame was drawn
+     */
+    private boolean mSceneChanged = true;
+
+    private final ScreenRect mViewportBounds = new ScreenRect();
+    private final ScreenRect mSpriteBounds = new ScreenRect();
+    private boolean mRoundCullingEnabled = false;
+    private int mCulledCount = 0;
+    private long mFrameNumber = 0;
+
+    private boolean mPartialRedrawEnabled = false;
+    private boolean mBufferAgeSupported = false;
+    private boolean mFullRedraw = true;
+    private final int[] mBufferAge = new int[1];
+
+    /**
+     * Damage of the frame being drawn, damage not yet attributed to an object (e.g. destroyed objects),
+     * and the area redrawn this frame, which also covers damage of the frames the back buffer missed
+     */
+    private final ScreenRect mDamage = new ScreenRect();
+    private final ScreenRect mPendingDamage = new ScreenRect();
+    private final ScreenRect mFrameDamage = new ScreenRect();
+    private final int[] mScissorRect = new int[4];
+
+    /**
+     * Ring of the damage of recent frames, the newest at {@link #mDamageHistoryIndex}
+     */
+    private final ScreenRect[] mDamageHistory = new ScreenRect[MAX_BUFFER_AGE];
+    private int mDamageHistoryIndex = 0;
+
+    private boolean mIsAmbient = false;
+    private boolean mLowBitAmbient = false;
+    private boolean mAmbientBlendingEnabled = false;
+    private boolean mAmbientCustomProgramsEnabled = false;
+
+    /**
+     * The cached ambient frame: the texture it's rendered into through a framebuffer, whether it
+     * holds the current scene, whether it's on screen with the current offset and quantization, and
+     * the program copying it to the surface
+     */
+    private final int[] mAmbientFramebuffer = new int[1];
+    private int mAmbientTextureRef = 0;
+    private boolean mAmbientFramebufferFailed = false;
+    private boolean mAmbientFrameValid = false;
+    private boolean mAmbientFrameShown = false;
+    private AmbientFrameProgram mAmbientFrameProgram = null;
+    private int mAmbientOffsetX = 0;
+    private int mAmbientOffsetY = 0;
+    private long mLastAmbientFrameNanos = 0;
+    private int mAmbientFrameRenderCount = 0;
+
     public long getGLThreadId() {
         return mGLThreadId;
     }
@@ -107,340 +264,2194 @@ public class GLBitmapRenderer {
      * @param height The surface height
      */
     public GLBitmapRenderer(int width, int height) {
+        this(width, height, null);
+    }
+
+    /**
+     * Create renderer with given surface (usually window) size, loading programs from a cache of
+     * program binaries where possible rather than compiling them
+     * The calling thread's GL context will be associated with this object, and cannot be changed.
+     * @param width The surface width
+     * @param height The surface height
+     * @param programBinaryCache The cache, or null to always compile programs from source
+     */
+    public GLBitmapRenderer(int width, int height, GLProgramBinaryCache programBinaryCache) {
         mGLThreadId = Thread.currentThread().getId();
+        mProgramRegistry.setBinaryCache(programBinaryCache);
 
         float[] viewMatrix = new float[16];
         Matrix.setLookAtM(viewMatrix, 0, 0f, 0f, 1f, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
 
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mBufferBatchVertices = ByteBuffer.allocateDirect(mBatchVertexData.length * FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        mViewportBounds.set(0f, 0f, width, height);
+
+        float[] projectionMatrix = new float[16];
+        Matrix.orthoM(projectionMatrix, 0, 0, mSurfaceWidth, 0, mSurfaceHeight, -1, 1);
+        Matrix.multiplyMM(mVPMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
 
-        // Allocate buffers
-        mBufferUVCoords = ByteBuffer.allocateDirect(mTextureUVCoords.length * FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBufferUVCoords.put(mTextureUVCoords);
-        mBufferUVCoords.position(0);
+        for(int i = 0; i < mDamageHistory.length; i++) {
+            mDamageHistory[i] = new ScreenRect();
+        }
+        resetDamageHistory();
 
-        mBufferPositions = ByteBuffer.allocateDirect(mVertexPositions.length * FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mBufferPositions.put(mVertexPositions);
-        mBufferPositions.position(0);
+        glSetup();
+    }
 
-        mBufferIndices = ByteBuffer.allocateDirect(mVertexIndices.length * SHORT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
-        mBufferIndices.put(mVertexIndices);
-        mBufferIndices.position(0);
+    /**
+     * Create the buffers and programs owned by this renderer and set up initial GL state, on the
+     * calling thread's GL context.
+     */
+    private void glSetup() {
+        glCreateBuffers();
 
-        mStandardProgram.glCreateCompileLink();
+        mStandardProgram.glCreateCompileLink(mProgramRegistry);
+        mBatchProgram.glCreateCompileLink(mProgramRegistry);
 
         int handle = mStandardProgram.getHandle();
-        GLES20.glUseProgram(handle);
-
-        int positionLoc = GLES20.glGetAttribLocation(handle, "a_Position");
-        GLES20.glEnableVertexAttribArray(positionLoc);
-        GLES20.glVertexAttribPointer(positionLoc, 3, GLES20.GL_FLOAT, false, 0, mBufferPositions);
+        mStateCache.useProgram(handle);
 
-        int texCoordLoc = GLES20.glGetAttribLocation(handle, "a_TexCoord");
-        GLES20.glEnableVertexAttribArray(texCoordLoc);
-        GLES20.glVertexAttribPointer(texCoordLoc, 2, GLES20.GL_FLOAT, false, 0, mBufferUVCoords);
+        mPositionLoc = GLES20.glGetAttribLocation(handle, "a_Position");
+        mTexCoordLoc = GLES20.glGetAttribLocation(handle, "a_TexCoord");
+        mBatchAttributesBound = true;
+        bindQuadAttributes();
 
-        int texSampleLoc = GLES20.glGetUniformLocation(handle, "s_Texture");
-        GLES20.glUniform1i(texSampleLoc, 0);
+        mStandardProgram.getUniform("s_Texture").set1i(0);
 
+        mStateCache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glEnable(GLES20.GL_CULL_FACE);
+        mStateCache.setBlendEnabled(true);
+        mStateCache.setCullFaceEnabled(true);
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
 
-        mSurfaceWidth = width;
-        mSurfaceHeight = height;
+        mStateCache.viewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+        // Rows of 565 and single channel bitmaps aren't necessarily 4 byte aligned
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+        EGLDisplay display = EGL14.eglGetCurrentDisplay();
+        String extensions = EGL14.eglQueryString(display, EGL14.EGL_EXTENSIONS);
+        // EGL_KHR_partial_update alone isn't enough: it requires eglSetDamageRegionKHR before
+        // drawing, which the Java bindings don't expose
+        mBufferAgeSupported = extensions != null && extensions.contains("EGL_EXT_buffer_age");
+        String glExtensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        mCompressedTextureSupported = glExtensions != null && glExtensions.contains("GL_OES_compressed_ETC1_RGB8_texture");
+        mFullRedraw = true;
+    }
 
-        float[] projectionMatrix = new float[16];
-        Matrix.orthoM(projectionMatrix, 0, 0, mSurfaceWidth, 0, mSurfaceHeight, -1, 1);
-        Matrix.multiplyMM(mVPMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+    /**
+     * Upload the static quad geometry and indices once, and reserve the streaming vertex buffer.
+     */
+    private void glCreateBuffers() {
+        GLES20.glGenBuffers(mBuffers.length, mBuffers, 0);
+        mQuadVertexBuffer = mBuffers[0];
+        mIndexBuffer = mBuffers[1];
+        mStreamVertexBuffer = mBuffers[2];
+
+        FloatBuffer quadVertices = ByteBuffer.allocateDirect((mVertexPositions.length + mTextureUVCoords.length) * FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quadVertices.put(mVertexPositions);
+        quadVertices.put(mTextureUVCoords);
+        quadVertices.position(0);
+        mStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, mQuadVertexBuffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, quadVertices.capacity() * FLOAT_SIZE_BYTES, quadVertices, GLES20.GL_STATIC_DRAW);
+
+        // Every quad uses the same index pattern offset by its first vertex, so the first quad's
+        // indices double as the indices of a single object
+        ShortBuffer indices = ByteBuffer.allocateDirect(MAX_BATCH_QUADS * INDICES_PER_QUAD * SHORT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
+        for(int quad = 0; quad < MAX_BATCH_QUADS; quad++) {
+            for(short index : mVertexIndices) {
+                indices.put((short)(quad * VERTICES_PER_QUAD + index));
+            }
+        }
+        indices.position(0);
+        mStateCache.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * SHORT_SIZE_BYTES, indices, GLES20.GL_STATIC_DRAW);
 
-        GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+        mStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, mStreamVertexBuffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mBatchVertexData.length * FLOAT_SIZE_BYTES, null, GLES20.GL_STREAM_DRAW);
     }
 
     /**
-     * Queue work to be run on the GL thread at next frame.
-     * @param r The {@link Runnable} containing the work
+     * Re-create all GL resources after the GL context was lost and a new one was created: buffers,
+     * programs, object textures (re-uploaded from their {@link Bitmap}s where available) and
+     * texture atlas pages. Objects without a retained Bitmap must be invalidated again by their owner.
+     * Must be done on the thread that created this object.
      */
-    public void queue(Runnable r) {
-        if (r == null) {
-            throw new IllegalArgumentException("r must not be null");
+    public void onGlContextRecreated() {
+        checkGLThread();
+        Log.d(TAG, "onGlContextRecreated");
+
+        mProgramRegistry.onGlContextLost();
+        mStandardProgram.onGlContextLost();
+        mBatchProgram.onGlContextLost();
+        for(int i = 0; i < mMaskStandardPrograms.length; i++) {
+            // Linked again on next use
+            if(mMaskStandardPrograms[i] != null) {
+                mMaskStandardPrograms[i].onGlContextLost();
+            }
+            if(mMaskBatchPrograms[i] != null) {
+                mMaskBatchPrograms[i].onGlContextLost();
+            }
+        }
+        if(mAlphaPlaneProgram != null) {
+            mAlphaPlaneProgram.onGlContextLost();
+        }
+        if(mAmbientFrameProgram != null) {
+            mAmbientFrameProgram.onGlContextLost();
+        }
+        // Lost with the context, created again when next drawn in ambient mode
+        mAmbientFramebuffer[0] = 0;
+        mAmbientTextureRef = 0;
+        mAmbientFramebufferFailed = false;
+        mAmbientFrameValid = false;
+        mAmbientFrameShown = false;
+        mCurrentProgram = null;
+        mStateCache.invalidate();
+        glSetup();
+
+        // Forget every custom program before linking any, so a program attached to several objects
+        // is linked once
+        List<GLProgram> customPrograms = new ArrayList<>();
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            GLProgram[] programs = {bitmapObject.getGLProgram(), bitmapObject.getAmbientGLProgram()};
+            for(GLProgram program : programs) {
+                if(program != null && program.isLoaded()) {
+                    program.onGlContextLost();
+                    customPrograms.add(program);
+                }
+            }
+        }
+        for(GLProgram program : customPrograms) {
+            program.glCreateCompileLink(mProgramRegistry);
         }
 
-        Log.d(TAG, String.format("queue (%s)", Thread.currentThread().getName()));
-        synchronized(mEventQueue) {
-            mEventQueue.add(r);
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            // Evicted textures stay evicted until the object is drawn
+            if(bitmapObject.isRenderWithGL() && bitmapObject.getAtlasRegion() == null && !bitmapObject.isTextureEvicted()) {
+                bitmapObject.onTextureLost(glCreateTexture());
+                if(bitmapObject.getCompressedTexture() != null) {
+                    bitmapObject.setAlphaTextureRef(0);
+                    glUploadCompressedTexture(bitmapObject);
+                } else if(bitmapObject.getBitmap() != null) {
+                    invalidateBitmapObject(bitmapObject);
+                }
+            }
         }
+        mTextureAtlas.glRestore();
+        mSceneChanged = true;
+        resetDamageHistory();
+        // Texture references changed, so the grouping within equal orders may have
+        invalidateSortOrder();
     }
 
     /**
-     * Create a new {@link GLBitmapObject} of specified size.
-     * Order will be automatically set to current count of {@link GLBitmapObject}s being managed
-     * @param width The object's width
-     * @param height The object's height
-     * @return The created object
+     * Whether objects using the standard program are batched. See {@link #setBatchingEnabled(boolean)}.
+     * @return True if batching is enabled, false otherwise
      */
-    public GLBitmapObject createBitmapObject(int width, int height) {
-        return createBitmapObject(width, height, null);
+    public boolean isBatchingEnabled() {
+        return mBatchingEnabled;
     }
 
     /**
-     * Create a new {@link GLBitmapObject} of specified size, with specified order
-     * @param width The object's width
-     * @param height The object's height
-     * @param order The order. Higher order means this object will be drawn after previous object.
-     * @return The created object
+     * Enable or disable batching. When enabled, consecutive {@link GLBitmapObject}s that use the
+     * standard program and share a texture are transformed on the CPU into a shared vertex stream
+     * and drawn with a single draw call. Objects with a custom {@link GLProgram} are always drawn
+     * individually. Default is false.
+     * @param batchingEnabled True to enable batching, false otherwise
      */
-    public GLBitmapObject createBitmapObject(int width, int height, Integer order) {
-        return createBitmapObject(width, height, order, true, true);
+    public void setBatchingEnabled(boolean batchingEnabled) {
+        mBatchingEnabled = batchingEnabled;
     }
 
     /**
-     * Create a new {@link GLBitmapObject} of specified size, optionally allocating a {@link Bitmap}.
-     * @param width The object's width
-     * @param height The object's height
-     * @param allocateBitmap Whether a {@link Bitmap} should be automatically allocated for this object.
-     * @return The created object
+     * Whether frames are redrawn partially. See {@link #setPartialRedrawEnabled(boolean)}.
+     * @return True if partial redraw is enabled, false otherwise
      */
-    public GLBitmapObject createBitmapObject(int width, int height, boolean allocateBitmap) {
-        return createBitmapObject(width, height, null, allocateBitmap, true);
+    public boolean isPartialRedrawEnabled() {
+        return mPartialRedrawEnabled;
     }
 
     /**
-     * Create a new {@link GLBitmapObject} of specified size, optionally allocating a {@link Bitmap}.
-     * @param width The object's width
-     * @param height The object's height
-     * @param allocateBitmap Whether a {@link Bitmap} should be automatically allocated for this object.
-     * @param renderWithGL Whether this object should be rendered with GL. If this is false, no GL
-     *                     instructions will be made by this object.
-     * @return The created object
+     * Enable or disable partial redraw. When enabled, each frame only clears and draws the area
+     * covered by objects that changed since the last frame, using a scissor rectangle, and skips
+     * objects outside of it. This relies on the surface reporting the age of its back buffer
+     * (EGL_EXT_buffer_age); otherwise every frame is redrawn fully. Surfaces only offering
+     * EGL_KHR_partial_update aren't supported, as its eglSetDamageRegionKHR isn't available to Java.
+     * Objects are assumed to draw within their transformed quad, which custom
+     * {@link GLProgram}s displacing vertices must not violate. Default is false.
+     * @param partialRedrawEnabled True to enable partial redraw, false otherwise
      */
-    public GLBitmapObject createBitmapObject(int width, int height, Integer order, boolean allocateBitmap, boolean renderWithGL) {
-        if(renderWithGL) {
-            checkGLThread();
-        }
-
-        if(order == null) {
-            order = mBitmapObjects.size();
+    public void setPartialRedrawEnabled(boolean partialRedrawEnabled) {
+        if(partialRedrawEnabled != mPartialRedrawEnabled) {
+            mPartialRedrawEnabled = partialRedrawEnabled;
+            resetDamageHistory();
         }
+    }
 
-        if(renderWithGL) {
-            // Get reference to texture
-            GLES20.glGenTextures(1, mTextures, 0);
+    /**
+     * Whether objects outside the circle inscribed in the surface are culled.
+     * See {@link #setRoundCullingEnabled(boolean)}.
+     * @return True if round culling is enabled, false otherwise
+     */
+    public boolean isRoundCullingEnabled() {
+        return mRoundCullingEnabled;
+    }
 
-            // Select & bind texture
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+    /**
+     * Enable or disable culling of objects lying entirely outside the circle inscribed in the surface,
+     * i.e. in the invisible corners of a round screen. Objects outside the surface are always culled.
+     * {@link GLWatchFace.GLEngine} enables this on round devices. Default is false.
+     * @param roundCullingEnabled True to enable round culling, false otherwise
+     */
+    public void setRoundCullingEnabled(boolean roundCullingEnabled) {
+        mRoundCullingEnabled = roundCullingEnabled;
+    }
 
-            Log.d(TAG, String.format("createBitmapObject: %d (%d x %d)", mTextures[0], width, height));
+    /**
+     * Whether the scene is drawn in ambient mode. See {@link #setAmbient(boolean)}.
+     * @return True if in ambient mode, false otherwise
+     */
+    public boolean isAmbient() {
+        return mIsAmbient;
+    }
 
-            // Change filters here if needed
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                    GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                    GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    /**
+     * Enter or leave ambient mode. In ambient mode the scene is rendered into a texture, and frames
+     * show that texture until the scene changes, e.g. when the time is updated each minute, so most
+     * ambient frames cost a single opaque draw. Objects are drawn per their ambient visibility and
+     * ambient programs (see {@link GLBitmapObject#setAmbientVisibility(int)} and
+     * {@link GLBitmapObject#setAmbientGLProgram(GLProgram)}), animating programs are frozen and, by
+     * default, blending and custom programs are disabled. {@link GLWatchFace.GLEngine} sets this as
+     * the watch enters and leaves ambient mode.
+     * @param ambient True to draw in ambient mode, false to draw interactively
+     */
+    public void setAmbient(boolean ambient) {
+        if(ambient != mIsAmbient) {
+            mIsAmbient = ambient;
+            mAmbientFrameValid = false;
+            mAmbientFrameShown = false;
+            mSceneChanged = true;
+            resetDamageHistory();
         }
+    }
 
-        GLBitmapObject bitmapObject = new GLBitmapObject(mTextures[0], width, height, mSurfaceWidth, mSurfaceHeight, order, allocateBitmap);
-        bitmapObject.setRenderWithGL(renderWithGL);
-
-        mBitmapObjects.add(bitmapObject);
-        invalidateSortOrder();
-        return bitmapObject;
+    /**
+     * Whether ambient frames are quantized for low-bit displays. See {@link #setLowBitAmbient(boolean)}.
+     * @return True if ambient frames are quantized, false otherwise
+     */
+    public boolean isLowBitAmbient() {
+        return mLowBitAmbient;
     }
 
-    private void checkGLThread() {
-        if(!isThisGLThread()) {
-            throw new IllegalThreadStateException(String.format("Method must be called from GL thread (ID %d)", mGLThreadId));
+    /**
+     * Quantize each color channel of ambient frames to on or off, for displays showing only 8 colors
+     * in ambient mode. {@link GLWatchFace.GLEngine} sets this from the device's properties.
+     * Default is false.
+     * @param lowBitAmbient True to quantize ambient frames, false otherwise
+     */
+    public void setLowBitAmbient(boolean lowBitAmbient) {
+        if(lowBitAmbient != mLowBitAmbient) {
+            mLowBitAmbient = lowBitAmbient;
+            mAmbientFrameShown = false;
         }
     }
 
+    /**
+     * Whether objects are blended when rendering the ambient frame. See
+     * {@link #setAmbientBlendingEnabled(boolean)}.
+     * @return True if blending is enabled in ambient mode, false otherwise
+     */
+    public boolean isAmbientBlendingEnabled() {
+        return mAmbientBlendingEnabled;
+    }
 
     /**
-     * Re-sorts the {@link GLBitmapObject}s. Can be called in case the order changes somehow?
-     * Must be done on the thread that created this object to ensure the GL context is the same.
+     * Enable or disable blending in ambient mode. When disabled, each object's pixels replace those
+     * beneath it, including transparent ones, so ambient scenes should be made of opaque or
+     * non-overlapping objects. Default is false.
+     * @param ambientBlendingEnabled True to blend in ambient mode, false otherwise
      */
-    public void invalidateSortOrder() {
-        checkGLThread();
-        Collections.sort(mBitmapObjects, mBitmapObjectComparator);
+    public void setAmbientBlendingEnabled(boolean ambientBlendingEnabled) {
+        if(ambientBlendingEnabled != mAmbientBlendingEnabled) {
+            mAmbientBlendingEnabled = ambientBlendingEnabled;
+            mAmbientFrameValid = false;
+        }
     }
 
-    private Comparator<GLBitmapObject> mBitmapObjectComparator = new GLBitmapObjectComparator();
+    /**
+     * Whether objects with a custom program and no ambient program are drawn in ambient mode. See
+     * {@link #setAmbientCustomProgramsEnabled(boolean)}.
+     * @return True if such objects are drawn, false if they're hidden
+     */
+    public boolean isAmbientCustomProgramsEnabled() {
+        return mAmbientCustomProgramsEnabled;
+    }
 
     /**
-     * Frees all resources, deletes all textures. Should be called when GL context is shutting down
+     * Draw objects with a custom program in ambient mode even if they have no ambient program, see
+     * {@link GLBitmapObject#setAmbientGLProgram(GLProgram)}. When disabled, such objects are hidden
+     * in ambient mode, as their shaders are usually made for interactive mode. Default is false.
+     * @param ambientCustomProgramsEnabled True to draw such objects with their program, false to hide them
      */
-    public void onDestroy() {
-        checkGLThread();
-        Log.d(TAG, String.format("onDestroy (%s)", Thread.currentThread().getName()));
-        for (GLBitmapObject bitmapObject : mBitmapObjects) {
-            if(bitmapObject.isRenderWithGL()) {
-                GLES20.glDeleteTextures(1, new int[]{bitmapObject.getTextureRef()}, 0);
-            }
-            bitmapObject.onDestroy();
+    public void setAmbientCustomProgramsEnabled(boolean ambientCustomProgramsEnabled) {
+        if(ambientCustomProgramsEnabled != mAmbientCustomProgramsEnabled) {
+            mAmbientCustomProgramsEnabled = ambientCustomProgramsEnabled;
+            mAmbientFrameValid = false;
         }
-        mBitmapObjects.clear();
-        mIsFinishing = true;
     }
 
     /**
-     * The height of the surface this renderer was configured with
-     * @return The height of the surface, in pixels
+     * Shift the ambient frame on screen, without rendering it again, so pixels of displays prone to
+     * burn-in aren't lit constantly. {@link GLWatchFace.GLEngine} moves the frame every minute on
+     * such devices. Default is no offset.
+     * @param x The horizontal offset, in pixels
+     * @param y The vertical offset, in pixels, up
      */
-    public int getSurfaceHeight() {
-        return mSurfaceHeight;
+    public void setAmbientOffset(int x, int y) {
+        if(x != mAmbientOffsetX || y != mAmbientOffsetY) {
+            mAmbientOffsetX = x;
+            mAmbientOffsetY = y;
+            mAmbientFrameShown = false;
+        }
     }
 
     /**
-     * The width of the surface this renderer was configured with
-     * @return The width of the surface, in pixels
+     * The time the last ambient frame took to render, from issuing its draw calls until the GPU
+     * finished them
+     * @return The render time in nanoseconds, or 0 if no ambient frame was rendered yet
      */
-    public int getSurfaceWidth() {
-        return mSurfaceWidth;
+    public long getLastAmbientFrameNanos() {
+        return mLastAmbientFrameNanos;
     }
 
-    private GLBitmapObject getBitmapObject(int index) {
-        if(index >= 0 && index < mBitmapObjects.size()) {
-            return mBitmapObjects.get(index);
-        }
-        return null;
+    /**
+     * The number of times the ambient frame was rendered, as opposed to shown again from its cache
+     * @return The ambient frame render count
+     */
+    public int getAmbientFrameRenderCount() {
+        return mAmbientFrameRenderCount;
     }
 
     /**
-     * Instruct GLES to immediately copy the pixels in the {@link Bitmap} owned by this object
-     * to the associated GL texture.
-     * Must be done on the thread that created this object to ensure the GL context is the same.
-     * @param bitmapObject The object containing the pixels and the texture reference.
+     * The number of visible objects not drawn in the last frame because they were outside the surface,
+     * or outside the inscribed circle when round culling is enabled
+     * @return The culled object count
      */
-    public void invalidateBitmapObject(GLBitmapObject bitmapObject) {
-        invalidateBitmapObject(bitmapObject, bitmapObject.getBitmap());
+    public int getCulledObjectCount() {
+        return mCulledCount;
     }
 
     /**
-     * Instruct GLES to immediately copy the pixels in the specified {@link Bitmap}
-     * to the associated GL texture.
-     * Must be done on the thread that created this object to ensure the GL context is the same.
-     * @param bitmapObject The object containing the pixels and the texture reference.
-     * @param newBitmap The bitmap containing pixels to copy
+     * The cache through which all GL state changes of this renderer are made. Its counters are reset
+     * at the start of each frame, so after {@link #draw()} they report the calls issued and skipped
+     * while drawing it.
+     * @return The state cache
      */
-    public void invalidateBitmapObject(GLBitmapObject bitmapObject, Bitmap newBitmap) {
-        checkGLThread();
-        if (bitmapObject != null && bitmapObject.isRenderWithGL() && newBitmap != null) {
+    public GLStateCache getStateCache() {
+        return mStateCache;
+    }
 
-            if(bitmapObject.didPushTexture() &&
-                    (newBitmap.getWidth() > bitmapObject.getBitmapWidth() || newBitmap.getHeight() > bitmapObject.getBitmapHeight())) {
-                throw new IllegalArgumentException(String.format("The new bitmap must have the same or smaller dimensions, and same configuration as the original one used during creation. Old: %d x %d New: %d x %d", bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight(), newBitmap.getWidth(), newBitmap.getHeight()));
-            }
+    /**
+     * The number of draw calls issued while drawing the last frame
+     * @return The draw call count
+     */
+    public int getDrawCallCount() {
+        return mDrawCallCount;
+    }
 
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, bitmapObject.getTextureRef());
-            if(!bitmapObject.didPushTexture()) {
-                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, newBitmap, 0);
-                bitmapObject.onTexturePushed();
-            }
-            else {
-                GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, newBitmap);
-            }
-        }
-        else {
-            Log.w(TAG, "Trying to push null bitmap to vram");
-        }
+    /**
+     * Queue work to be run on the GL thread at next frame.
+     * May be called from any thread.
+     * @param r The {@link Runnable} containing the work
+     */
+    public void queue(Runnable r) {
+        queue(null, r);
     }
 
     /**
-     * Clean up the specified {@link GLBitmapObject}.
-     * This does not need to be called if {@link #onDestroy()} is called, as it destroys all objects managed.
-     * Must be done on the thread that created this object to ensure the GL context is the same.
-     * @param bitmapObject The object to destroy.
+     * Queue work to be run on the GL thread at next frame, replacing work queued with an equal key that
+     * hasn't run yet, so repeated requests only run once per frame. The replacement keeps the position
+     * of the work it replaces.
+     * May be called from any thread.
+     * @param key The key identifying the work, or null to always queue it
+     * @param r The {@link Runnable} containing the work
      */
-    public void destroyBitmapObject(GLBitmapObject bitmapObject) {
-        checkGLThread();
-        if (bitmapObject != null && mBitmapObjects.contains(bitmapObject)) {
-            Log.d(TAG, String.format("destroyBitmapObject: %d (%s)", bitmapObject.getTextureRef(), Thread.currentThread().getName()));
-            if(bitmapObject.isRenderWithGL()) {
-                GLES20.glDeleteTextures(1, new int[]{bitmapObject.getTextureRef()}, 0);
-            }
-            bitmapObject.onDestroy();
-            mBitmapObjects.remove(bitmapObject);
+    public void queue(Object key, Runnable r) {
+        if (r == null) {
+            throw new IllegalArgumentException("r must not be null");
         }
-    }
 
-    private void executeQueuedEvents() {
-        synchronized (mEventQueue) {
-            if(mEventQueue.size() > 0) {
-                for (Runnable event : mEventQueue) {
-                    event.run();
+        boolean wasEmpty;
+        synchronized(mEventLock) {
+            wasEmpty = mPendingEvents.isEmpty();
+            if(key != null) {
+                Integer index = mPendingEventIndices.get(key);
+                if(index != null) {
+                    mPendingEvents.set(index, r);
+                    return;
                 }
-                mEventQueue.clear();
+                mPendingEventIndices.put(key, mPendingEvents.size());
             }
+            mPendingEvents.add(r);
+        }
+
+        Runnable listener = mOnEventQueuedListener;
+        if(wasEmpty && listener != null) {
+            listener.run();
         }
     }
 
     /**
-     * Draws all managed {@link GLBitmapObject}s
-     * This method uses the calling thread's GL context
+     * Set a listener notified when work is queued while no queued work was waiting, e.g. to request
+     * a frame so the work runs soon. Called on the thread that queued the work.
+     * {@link GLWatchFace.GLEngine} sets this to invalidate the watch face.
+     * @param listener The listener, or null
      */
-    public void draw() {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        executeQueuedEvents();
-        if(isFinishing()) {
-            return;
-        }
+    public void setOnEventQueuedListener(Runnable listener) {
+        mOnEventQueuedListener = listener;
+    }
+
+    /**
+     * The rasterizer drawing object content in the background for this renderer, created on first use.
+     * Must be done on the thread that created this object.
+     * @return The rasterizer
+     */
+    public GLAsyncRasterizer getAsyncRasterizer() {
+        checkGLThread();
+        if(mAsyncRasterizer == null) {
+            mAsyncRasterizer = new GLAsyncRasterizer(this);
+        }
+        return mAsyncRasterizer;
+    }
+
+    /**
+     * The pool the bitmaps of objects created by this renderer are allocated from, and returned to
+     * when the objects are destroyed, e.g. to change its budget or read its hit rate
+     * @return The bitmap pool
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * The registry of programs linked on this renderer's GL context. Custom programs attached to
+     * objects of this renderer are linked through it, so program objects of the same class and
+     * shaders share one GL program. Link other programs through it with
+     * {@link GLProgram#glCreateCompileLink(GLProgramRegistry)} to share them too.
+     * @return The program registry
+     */
+    public GLProgramRegistry getProgramRegistry() {
+        return mProgramRegistry;
+    }
+
+    /**
+     * The texture memory budget, see {@link #setTextureMemoryBudget(long)}
+     * @return The budget in bytes
+     */
+    public long getTextureMemoryBudget() {
+        return mTextureMemoryBudget;
+    }
+
+    /**
+     * Set the GPU memory the textures of objects may hold. When exceeded after a frame, the textures of
+     * the objects drawn least recently are deleted until the budget is met, and restored the next time
+     * their object is drawn or invalidated, from its {@link Bitmap} or its
+     * {@link GLBitmapObject.TextureRegenerator}. Objects drawn in the last frame, objects in the
+     * texture atlas and objects that can't be restored are never evicted.
+     * Default is {@link #UNLIMITED_TEXTURE_MEMORY}.
+     * Must be done on the thread that created this object.
+     * @param budgetBytes The budget in bytes
+     */
+    public void setTextureMemoryBudget(long budgetBytes) {
+        checkGLThread();
+        if(budgetBytes < 0) {
+            throw new IllegalArgumentException(String.format("budgetBytes must not be negative, was %d", budgetBytes));
+        }
+        mTextureMemoryBudget = budgetBytes;
+        glEvictTextures(budgetBytes);
+    }
+
+    /**
+     * Release memory in response to {@link ComponentCallbacks2#onTrimMemory(int)}: the bitmap pool is
+     * trimmed, and when memory runs low, the textures of all objects not drawn in the last frame are
+     * evicted. {@link GLWatchFace} forwards its memory callbacks here.
+     * Must be done on the thread that created this object, with its GL context current.
+     * @param level The trim level
+     */
+    public void onTrimMemory(int level) {
+        checkGLThread();
+        Log.d(TAG, String.format("onTrimMemory: %d", level));
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mBitmapPool.clear();
+            glEvictTextures(0);
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            mBitmapPool.trimToSize(mBitmapPool.getMaxBytes() / 2);
+        }
+    }
+
+    /**
+     * The GPU memory held by the textures of all objects and the texture atlas
+     * @return The resident texture size in bytes
+     */
+    public long getResidentTextureBytes() {
+        long bytes = mTextureAtlas.getTotalPixels() * 4;
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            bytes += bitmapObject.getTextureBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * The number of textures evicted to meet the texture memory budget or trim memory
+     * @return The eviction count
+     */
+    public int getTextureEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * The number of evicted textures restored
+     * @return The restore count
+     */
+    public int getTextureRestoreCount() {
+        return mRestoreCount;
+    }
+
+    /**
+     * Describe the memory held by each object and in total, e.g. for logging
+     * @return The report, one line per object followed by the totals
+     */
+    public String getMemoryReport() {
+        StringBuilder report = new StringBuilder();
+        long bitmapBytes = 0;
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            Bitmap bitmap = bitmapObject.getBitmap();
+            long objectBitmapBytes = (bitmap != null && !bitmap.isRecycled()) ? bitmap.getAllocationByteCount() : 0;
+            bitmapBytes += objectBitmapBytes;
+            report.append(String.format("%d x %d, order %d: texture %d (%d bytes%s%s), bitmap %d bytes, last used at frame %d\n",
+                    bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight(), bitmapObject.getOrder(),
+                    bitmapObject.getTextureRef(), bitmapObject.getTextureBytes(),
+                    bitmapObject.getAtlasRegion() != null ? ", atlas" : "",
+                    bitmapObject.isTextureEvicted() ? ", evicted" : "",
+                    objectBitmapBytes, bitmapObject.getLastUsedFrame()));
+        }
+        report.append(String.format("Total: textures %d bytes (atlas %d bytes, budget %s), bitmaps %d bytes, pooled bitmaps %d bytes",
+                getResidentTextureBytes(), mTextureAtlas.getTotalPixels() * 4,
+                mTextureMemoryBudget == UNLIMITED_TEXTURE_MEMORY ? "unlimited" : String.valueOf(mTextureMemoryBudget),
+                bitmapBytes, mBitmapPool.getResidentBytes()));
+        return report.toString();
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size.
+     * Order will be automatically set to current count of {@link GLBitmapObject}s being managed
+     * @param width The object's width
+     * @param height The object's height
+     * @return The created object
+     */
+    public GLBitmapObject createBitmapObject(int width, int height) {
+        return createBitmapObject(width, height, null);
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size, with specified order
+     * @param width The object's width
+     * @param height The object's height
+     * @param order The order. Higher order means this object will be drawn after previous object.
+     * @return The created object
+     */
+    public GLBitmapObject createBitmapObject(int width, int height, Integer order) {
+        return createBitmapObject(width, height, order, true, true);
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size, optionally allocating a {@link Bitmap}.
+     * @param width The object's width
+     * @param height The object's height
+     * @param allocateBitmap Whether a {@link Bitmap} should be automatically allocated for this object.
+     * @return The created object
+     */
+    public GLBitmapObject createBitmapObject(int width, int height, boolean allocateBitmap) {
+        return createBitmapObject(width, height, null, allocateBitmap, true);
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size, optionally allocating a {@link Bitmap}.
+     * @param width The object's width
+     * @param height The object's height
+     * @param allocateBitmap Whether a {@link Bitmap} should be automatically allocated for this object.
+     * @param renderWithGL Whether this object should be rendered with GL. If this is false, no GL
+     *                     instructions will be made by this object.
+     * @return The created object
+     */
+    public GLBitmapObject createBitmapObject(int width, int height, Integer order, boolean allocateBitmap, boolean renderWithGL) {
+        return createBitmapObject(width, height, order, allocateBitmap, renderWithGL, GLPixelFormat.RGBA_8888);
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size and pixel format, optionally allocating a {@link Bitmap}.
+     * Use e.g. {@link GLPixelFormat#ALPHA_8} for text drawn in the object's color, or
+     * {@link GLPixelFormat#RGB_565} for an opaque layer.
+     * @param width The object's width
+     * @param height The object's height
+     * @param allocateBitmap Whether a {@link Bitmap} should be automatically allocated for this object.
+     * @param renderWithGL Whether this object should be rendered with GL. If this is false, no GL
+     *                     instructions will be made by this object.
+     * @param pixelFormat The format of the object's bitmap and texture
+     * @return The created object
+     */
+    public GLBitmapObject createBitmapObject(int width, int height, Integer order, boolean allocateBitmap, boolean renderWithGL, GLPixelFormat pixelFormat) {
+        if(renderWithGL) {
+            checkGLThread();
+        }
+
+        if(order == null) {
+            order = getNextOrder();
+        }
+
+        int textureRef = 0;
+        if(renderWithGL) {
+            textureRef = glCreateTexture();
+            Log.d(TAG, String.format("createBitmapObject: %d (%d x %d, %s)", textureRef, width, height, pixelFormat));
+        }
+
+        GLBitmapObject bitmapObject = new GLBitmapObject(textureRef, width, height, mSurfaceWidth, mSurfaceHeight, order, allocateBitmap, pixelFormat, mBitmapPool);
+        bitmapObject.setRenderWithGL(renderWithGL);
+        bitmapObject.setProgramRegistry(mProgramRegistry);
+
+        insertSorted(bitmapObject);
+        mSceneChanged = true;
+        return bitmapObject;
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size, placed in the renderer's
+     * {@link GLTextureAtlas} so it shares a texture with other small objects and can be batched.
+     * Atlas objects always allocate a {@link Bitmap}, which they should retain, as it is used to
+     * re-upload their pixels when the atlas is repacked. They should be drawn with the standard
+     * program. If the object is too large for the atlas or the atlas is full, the object gets a
+     * texture of its own.
+     * @param width The object's width
+     * @param height The object's height
+     * @return The created object
+     */
+    public GLBitmapObject createAtlasBitmapObject(int width, int height) {
+        return createAtlasBitmapObject(width, height, null);
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} of specified size and order, placed in the renderer's
+     * {@link GLTextureAtlas}. See {@link #createAtlasBitmapObject(int, int)}.
+     * @param width The object's width
+     * @param height The object's height
+     * @param order The order. Higher order means this object will be drawn after previous object.
+     * @return The created object
+     */
+    public GLBitmapObject createAtlasBitmapObject(int width, int height, Integer order) {
+        checkGLThread();
+
+        GLTextureAtlas.Region region = mTextureAtlas.allocate(width, height);
+        if(region == null) {
+            Log.d(TAG, String.format("createAtlasBitmapObject: no room in atlas (%d x %d)", width, height));
+            return createBitmapObject(width, height, order);
+        }
+
+        if(order == null) {
+            order = getNextOrder();
+        }
+
+        GLBitmapObject bitmapObject = new GLBitmapObject(region.getTextureRef(), width, height, mSurfaceWidth, mSurfaceHeight, order, true, GLPixelFormat.RGBA_8888, mBitmapPool);
+        mTextureAtlas.attach(bitmapObject, region);
+        bitmapObject.setProgramRegistry(mProgramRegistry);
+
+        insertSorted(bitmapObject);
+        mSceneChanged = true;
+        return bitmapObject;
+    }
+
+    /**
+     * Whether the GL context supports ETC1 textures. Without it, compressed objects are decoded and
+     * uploaded uncompressed.
+     * @return True if ETC1 textures are supported, false otherwise
+     */
+    public boolean isCompressedTextureSupported() {
+        return mCompressedTextureSupported;
+    }
+
+    /**
+     * Create a new {@link GLBitmapObject} drawing ETC1 compressed pixels, e.g. static dial art loaded
+     * with {@link GLCompressedTextureLoader}. The object has no {@link Bitmap} and its texture is
+     * uploaded right away, at a quarter of the memory of an RGB565 or an eighth of an ARGB_8888 texture
+     * (plus as much again for an alpha plane). The compressed data is kept to restore the texture after
+     * eviction or context loss. Objects with an alpha plane are drawn with a program sampling both
+     * textures and aren't batched.
+     * If the GL context doesn't support ETC1, the pixels are decoded into a bitmap instead.
+     * @param texture The compressed pixels
+     * @param order The order, or null to draw the object after all existing objects
+     * @return The created object, of the texture's image size
+     */
+    public GLBitmapObject createCompressedBitmapObject(GLCompressedTexture texture, Integer order) {
+        checkGLThread();
+
+        if(!mCompressedTextureSupported) {
+            Log.w(TAG, String.format("createCompressedBitmapObject: ETC1 not supported, decoding %d x %d texture", texture.getWidth(), texture.getHeight()));
+            GLBitmapObject bitmapObject = createBitmapObject(texture.getWidth(), texture.getHeight(), order, true, true);
+            bitmapObject.getBitmap().setPixels(ETC1Codec.decode(texture), 0, texture.getWidth(), 0, 0, texture.getWidth(), texture.getHeight());
+            invalidateBitmapObject(bitmapObject, bitmapObject.getBitmap());
+            return bitmapObject;
+        }
+
+        GLBitmapObject bitmapObject = createBitmapObject(texture.getWidth(), texture.getHeight(), order, false, true);
+        bitmapObject.setCompressedTexture(texture);
+        glUploadCompressedTexture(bitmapObject);
+        return bitmapObject;
+    }
+
+    /**
+     * Upload an object's compressed texture, and its alpha plane into a texture of its own
+     */
+    private void glUploadCompressedTexture(GLBitmapObject bitmapObject) {
+        GLCompressedTexture texture = bitmapObject.getCompressedTexture();
+        bindTexture(bitmapObject.getTextureRef());
+        glCompressedTexImage2D(texture);
+
+        GLCompressedTexture alphaPlane = texture.getAlphaPlane();
+        if(alphaPlane != null) {
+            if(bitmapObject.getAlphaTextureRef() == 0) {
+                bitmapObject.setAlphaTextureRef(glCreateTexture());
+            }
+            bindTexture(bitmapObject.getAlphaTextureRef());
+            glCompressedTexImage2D(alphaPlane);
+        }
+
+        long bytes = texture.getByteCount();
+        bitmapObject.onTexturePushed();
+        bitmapObject.setTextureBytes(bytes);
+        bitmapObject.setLastUsedFrame(mFrameNumber);
+        mUploadedBytes += bytes;
+    }
+
+    private static void glCompressedTexImage2D(GLCompressedTexture texture) {
+        ByteBuffer data = texture.getData().duplicate();
+        data.position(0);
+        GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLCompressedTexture.GL_ETC1_RGB8_OES,
+                texture.getEncodedWidth(), texture.getEncodedHeight(), 0, data.remaining(), data);
+    }
+
+    /**
+     * Delete an object's own textures
+     */
+    private void glDeleteTextures(GLBitmapObject bitmapObject) {
+        mStateCache.deleteTexture(bitmapObject.getTextureRef());
+        if(bitmapObject.getAlphaTextureRef() != 0) {
+            mStateCache.deleteTexture(bitmapObject.getAlphaTextureRef());
+            bitmapObject.setAlphaTextureRef(0);
+        }
+    }
+
+    /**
+     * Create a new, empty {@link GLGroup}, to which objects created by this renderer can be added.
+     * @return The created group
+     */
+    public GLGroup createGroup() {
+        return new GLGroup(mSurfaceHeight);
+    }
+
+    /**
+     * Create a new {@link GLSpriteBatch} with a sprite sheet of specified size, drawn after all existing
+     * objects. Draw the sprite sheet into the batch's canvas and push it with
+     * {@link #invalidateBitmapObject(GLBitmapObject)}, then add sprites showing parts of it.
+     * @param width The sprite sheet's width
+     * @param height The sprite sheet's height
+     * @param capacity The maximum number of sprites
+     * @return The created sprite batch
+     */
+    public GLSpriteBatch createSpriteBatch(int width, int height, int capacity) {
+        return createSpriteBatch(width, height, capacity, null);
+    }
+
+    /**
+     * Create a new {@link GLSpriteBatch} with a sprite sheet of specified size, with specified order.
+     * See {@link #createSpriteBatch(int, int, int)}.
+     * @param width The sprite sheet's width
+     * @param height The sprite sheet's height
+     * @param capacity The maximum number of sprites
+     * @param order The order. Higher order means this batch will be drawn after previous objects.
+     * @return The created sprite batch
+     */
+    public GLSpriteBatch createSpriteBatch(int width, int height, int capacity, Integer order) {
+        return createSpriteBatch(width, height, capacity, order, GLPixelFormat.RGBA_8888);
+    }
+
+    /**
+     * Create a new {@link GLSpriteBatch} with a sprite sheet of specified size and pixel format, e.g.
+     * {@link GLPixelFormat#ALPHA_8} for glyphs drawn in each sprite's color.
+     * See {@link #createSpriteBatch(int, int, int)}.
+     * @param width The sprite sheet's width
+     * @param height The sprite sheet's height
+     * @param capacity The maximum number of sprites
+     * @param order The order, or null to draw the batch after all existing objects
+     * @param pixelFormat The format of the sprite sheet's bitmap and texture
+     * @return The created sprite batch
+     */
+    public GLSpriteBatch createSpriteBatch(int width, int height, int capacity, Integer order, GLPixelFormat pixelFormat) {
+        checkGLThread();
+
+        if(order == null) {
+            order = getNextOrder();
+        }
+
+        int textureRef = glCreateTexture();
+        Log.d(TAG, String.format("createSpriteBatch: %d (%d x %d, %d sprites)", textureRef, width, height, capacity));
+
+        GLSpriteBatch spriteBatch = new GLSpriteBatch(textureRef, width, height, mSurfaceWidth, mSurfaceHeight, order, capacity, pixelFormat, mBitmapPool);
+
+        insertSorted(spriteBatch);
+        mSceneChanged = true;
+        return spriteBatch;
+    }
+
+    /**
+     * Create a new {@link GLGlyphAtlas}, rasterizing the glyphs of a character set once, drawn after
+     * all existing objects. Strings drawn from it with {@link GLGlyphAtlas#createText()} change without
+     * rasterizing or uploading anything.
+     * @param paint The paint the glyphs are drawn with: typeface, text size and style. Its color and
+     *              alignment are ignored, set them on the texts.
+     * @param characters The characters that can be drawn, e.g. "0123456789:"
+     * @param capacity The maximum number of glyphs shown at once, across all texts of the atlas
+     * @return The created atlas
+     */
+    public GLGlyphAtlas createGlyphAtlas(Paint paint, String characters, int capacity) {
+        return createGlyphAtlas(paint, characters, capacity, null);
+    }
+
+    /**
+     * Create a new {@link GLGlyphAtlas}, with specified order. See {@link #createGlyphAtlas(Paint, String, int)}.
+     * @param paint The paint the glyphs are drawn with
+     * @param characters The characters that can be drawn
+     * @param capacity The maximum number of glyphs shown at once, across all texts of the atlas
+     * @param order The order of the atlas' sprite batch, or null to draw it after all existing objects
+     * @return The created atlas
+     */
+    public GLGlyphAtlas createGlyphAtlas(Paint paint, String characters, int capacity, Integer order) {
+        checkGLThread();
+        return GLGlyphAtlas.create(this, paint, characters, capacity, order);
+    }
+
+    /**
+     * The atlas used by {@link #createAtlasBitmapObject(int, int)}, e.g. to read its occupancy
+     * @return The texture atlas
+     */
+    public GLTextureAtlas getTextureAtlas() {
+        return mTextureAtlas;
+    }
+
+    /**
+     * The order drawing a new object after all existing objects. The object count isn't enough once
+     * objects were destroyed, and ties are broken by program and texture, not creation.
+     */
+    private int getNextOrder() {
+        if(mBitmapObjects.isEmpty()) {
+            return 0;
+        }
+        int maxOrder = Integer.MIN_VALUE;
+        // Orders changed since the last frame aren't sorted yet, so the last object isn't necessarily the maximum
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            maxOrder = Math.max(maxOrder, bitmapObject.getOrder());
+        }
+        return (maxOrder == Integer.MAX_VALUE) ? maxOrder : maxOrder + 1;
+    }
+
+    /**
+     * Generate and bind a texture, configured for drawing bitmap objects.
+     */
+    private int glCreateTexture() {
+        // Get reference to texture
+        GLES20.glGenTextures(1, mTextures, 0);
+
+        // Select & bind texture
+        mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+        mStateCache.bindTexture(mTextures[0]);
+
+        // Change filters here if needed
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return mTextures[0];
+    }
+
+    private void checkGLThread() {
+        if(!isThisGLThread()) {
+            throw new IllegalThreadStateException(String.format("Method must be called from GL thread (ID %d)", mGLThreadId));
+        }
+    }
+
+
+    /**
+     * Re-computes the sort keys of all {@link GLBitmapObject}s and re-sorts them. Changes made through
+     * {@link GLBitmapObject#setOrder(int)} are picked up at the next frame without calling this.
+     * Must be done on the thread that created this object to ensure the GL context is the same.
+     */
+    public void invalidateSortOrder() {
+        checkGLThread();
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            bitmapObject.invalidateSortKey();
+        }
+        Collections.sort(mBitmapObjects, mBitmapObjectComparator);
+        mSceneChanged = true;
+        // Overlapping objects may have changed drawing order anywhere
+        mFullRedraw = true;
+    }
+
+    private Comparator<GLBitmapObject> mBitmapObjectComparator = new GLBitmapObjectComparator();
+    private final Comparator<GLBitmapObject> mLeastRecentlyUsedComparator = new Comparator<GLBitmapObject>() {
+        @Override
+        public int compare(GLBitmapObject lhs, GLBitmapObject rhs) {
+            return Long.compare(lhs.getLastUsedFrame(), rhs.getLastUsedFrame());
+        }
+    };
+
+    /**
+     * Insert an object after all objects with a lower or equal sort key
+     */
+    private void insertSorted(GLBitmapObject bitmapObject) {
+        long key = bitmapObject.getSortKey();
+        int low = 0;
+        int high = mBitmapObjects.size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(mBitmapObjects.get(mid).getSortKey() <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        mBitmapObjects.add(low, bitmapObject);
+    }
+
+    /**
+     * Re-sort the objects if any sort key changed since the last frame and they are no longer in order.
+     * Every key change also marks its object dirty, so the damaged area covers any change in overlap.
+     */
+    private void updateSortOrder() {
+        boolean keyChanged = false;
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(!bitmapObject.isSortKeyValid()) {
+                keyChanged = true;
+                // Keys changed while drawing, e.g. by restoring an evicted texture, had their dirty
+                // flags cleared when the frame was marked drawn
+                bitmapObject.invalidate(GLBitmapObject.DIRTY_ORDER);
+            }
+        }
+        if(!keyChanged) {
+            return;
+        }
+
+        long previousKey = Long.MIN_VALUE;
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            long key = bitmapObject.getSortKey();
+            if(key < previousKey) {
+                // Mostly sorted lists are merged in close to linear time
+                Collections.sort(mBitmapObjects, mBitmapObjectComparator);
+                return;
+            }
+            previousKey = key;
+        }
+    }
+
+    /**
+     * Frees all resources, deletes all textures. Should be called when GL context is shutting down
+     */
+    public void onDestroy() {
+        checkGLThread();
+        Log.d(TAG, String.format("onDestroy (%s)", Thread.currentThread().getName()));
+        if(mAsyncRasterizer != null) {
+            mAsyncRasterizer.shutdown();
+            mAsyncRasterizer = null;
+        }
+        for (GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(bitmapObject.isRenderWithGL() && bitmapObject.getAtlasRegion() == null) {
+                glDeleteTextures(bitmapObject);
+            }
+            glDeleteProgram(bitmapObject.getGLProgram());
+            glDeleteProgram(bitmapObject.getAmbientGLProgram());
+            bitmapObject.onDestroy();
+        }
+        mBitmapObjects.clear();
+        glDeleteProgram(mStandardProgram);
+        glDeleteProgram(mBatchProgram);
+        for(int i = 0; i < mMaskStandardPrograms.length; i++) {
+            glDeleteProgram(mMaskStandardPrograms[i]);
+            glDeleteProgram(mMaskBatchPrograms[i]);
+        }
+        glDeleteProgram(mAlphaPlaneProgram);
+        glDeleteProgram(mAmbientFrameProgram);
+        glDeleteAmbientFramebuffer();
+        mCurrentProgram = null;
+        Log.d(TAG, String.format("onDestroy: %d programs compiled in %d ms, %d shared", mProgramRegistry.getCompileCount(), mProgramRegistry.getTotalCompileTimeMillis(), mProgramRegistry.getShareCount()));
+        mTextureSwaps.clear();
+        mBitmapPool.clear();
+        if(mUploadScratch != null) {
+            mUploadScratch.recycle();
+            mUploadScratch = null;
+            mUploadScratchCanvas = null;
+        }
+        mTextureAtlas.glDelete();
+        mStateCache.deleteBuffers(mBuffers.length, mBuffers);
+        mIsFinishing = true;
+    }
+
+    /**
+     * The height of the surface this renderer was configured with
+     * @return The height of the surface, in pixels
+     */
+    public int getSurfaceHeight() {
+        return mSurfaceHeight;
+    }
+
+    /**
+     * The width of the surface this renderer was configured with
+     * @return The width of the surface, in pixels
+     */
+    public int getSurfaceWidth() {
+        return mSurfaceWidth;
+    }
+
+    private GLBitmapObject getBitmapObject(int index) {
+        if(index >= 0 && index < mBitmapObjects.size()) {
+            return mBitmapObjects.get(index);
+        }
+        return null;
+    }
+
+    /**
+     * Instruct GLES to immediately copy the pixels in the {@link Bitmap} owned by this object
+     * to the associated GL texture. If the object tracks the area drawn to (see
+     * {@link GLBitmapObject#setDirtyTrackingEnabled(boolean)}), only that area is copied.
+     * Must be done on the thread that created this object to ensure the GL context is the same.
+     * @param bitmapObject The object containing the pixels and the texture reference.
+     */
+    public void invalidateBitmapObject(GLBitmapObject bitmapObject) {
+        checkGLThread();
+        if(bitmapObject != null && bitmapObject.takeTrackedDirtyRect(mUploadRect) && bitmapObject.didPushTexture()) {
+            if(!mUploadRect.isEmpty()) {
+                invalidateBitmapObject(bitmapObject, mUploadRect);
+            }
+            return;
+        }
+        invalidateBitmapObject(bitmapObject, bitmapObject != null ? bitmapObject.getBitmap() : null);
+    }
+
+    /**
+     * Instruct GLES to immediately copy part of the pixels in the {@link Bitmap} owned by this object
+     * to the associated GL texture. The whole bitmap is copied if the texture wasn't pushed yet.
+     * Must be done on the thread that created this object to ensure the GL context is the same.
+     * @param bitmapObject The object containing the pixels and the texture reference.
+     * @param dirty The area to copy, in bitmap pixels
+     */
+    public void invalidateBitmapObject(GLBitmapObject bitmapObject, Rect dirty) {
+        checkGLThread();
+        Bitmap bitmap = (bitmapObject != null) ? bitmapObject.getBitmap() : null;
+        if(bitmap == null || !bitmapObject.isRenderWithGL()) {
+            Log.w(TAG, "Trying to push null bitmap to vram");
+            return;
+        }
+
+        Rect rect = mUploadRect;
+        rect.set(dirty);
+        if(!rect.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())) {
+            return;
+        }
+        if(!bitmapObject.didPushTexture() || (rect.width() == bitmap.getWidth() && rect.height() == bitmap.getHeight())) {
+            invalidateBitmapObject(bitmapObject, bitmap);
+            return;
+        }
+
+        int x = rect.left;
+        int y = rect.top;
+        Bitmap region = copyToUploadScratch(bitmap, rect);
+        if(bitmapObject.getAtlasRegion() != null) {
+            mTextureAtlas.glUpload(bitmapObject, region, x, y);
+        } else {
+            mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+            mStateCache.bindTexture(bitmapObject.getTextureRef());
+            glTexSubImage2D(bitmapObject.getPixelFormat(), x, y, region);
+        }
+        bitmapObject.invalidate(GLBitmapObject.DIRTY_TEXTURE);
+        bitmapObject.setLastUsedFrame(mFrameNumber);
+
+        long bytes = getUploadByteCount(bitmap, region.getWidth(), region.getHeight());
+        mUploadedBytes += bytes;
+        mSavedUploadBytes += getUploadByteCount(bitmap, bitmap.getWidth(), bitmap.getHeight()) - bytes;
+    }
+
+    /**
+     * Instruct GLES to immediately copy the pixels in the specified {@link Bitmap}
+     * to the associated GL texture.
+     * Must be done on the thread that created this object to ensure the GL context is the same.
+     * @param bitmapObject The object containing the pixels and the texture reference.
+     * @param newBitmap The bitmap containing pixels to copy
+     */
+    public void invalidateBitmapObject(GLBitmapObject bitmapObject, Bitmap newBitmap) {
+        checkGLThread();
+        if (bitmapObject != null && bitmapObject.isRenderWithGL() && newBitmap != null) {
+
+            if(bitmapObject.didPushTexture() &&
+                    (newBitmap.getWidth() > bitmapObject.getBitmapWidth() || newBitmap.getHeight() > bitmapObject.getBitmapHeight())) {
+                throw new IllegalArgumentException(String.format("The new bitmap must have the same or smaller dimensions, and same configuration as the original one used during creation. Old: %d x %d New: %d x %d", bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight(), newBitmap.getWidth(), newBitmap.getHeight()));
+            }
+            GLPixelFormat pixelFormat = bitmapObject.getPixelFormat();
+            if(newBitmap.getConfig() != pixelFormat.getBitmapConfig()) {
+                throw new IllegalArgumentException(String.format("The bitmap config must match the object's pixel format. Format: %s Config: %s", pixelFormat, newBitmap.getConfig()));
+            }
+
+            long bytes = getUploadByteCount(newBitmap, newBitmap.getWidth(), newBitmap.getHeight());
+            mUploadedBytes += bytes;
+            bitmapObject.setLastUsedFrame(mFrameNumber);
+
+            if(bitmapObject.getAtlasRegion() != null) {
+                // Atlas pages are allocated up front, only the object's region is replaced
+                mTextureAtlas.glUpload(bitmapObject, newBitmap);
+                bitmapObject.onTexturePushed();
+                return;
+            }
+
+            if(bitmapObject.isTextureEvicted()) {
+                // Pushing new pixels restores the texture right away
+                bitmapObject.onTextureLost(glCreateTexture());
+                mRestoreCount++;
+            }
+
+            mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+            mStateCache.bindTexture(bitmapObject.getTextureRef());
+            if(!bitmapObject.didPushTexture()) {
+                glTexImage2D(pixelFormat, newBitmap);
+                bitmapObject.onTexturePushed();
+                bitmapObject.setTextureBytes(bytes);
+            }
+            else {
+                glTexSubImage2D(pixelFormat, 0, 0, newBitmap);
+                bitmapObject.invalidate(GLBitmapObject.DIRTY_TEXTURE);
+            }
+        }
+        else {
+            Log.w(TAG, "Trying to push null bitmap to vram");
+        }
+    }
+
+    /**
+     * Allocate the bound texture and fill it with a bitmap. GLUtils infers the format from the
+     * bitmap's config, which for single channel bitmaps is GL_ALPHA, so luminance is passed explicitly.
+     */
+    private static void glTexImage2D(GLPixelFormat pixelFormat, Bitmap bitmap) {
+        if(pixelFormat == GLPixelFormat.LUMINANCE_8) {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, pixelFormat.getGLFormat(), bitmap, 0);
+        } else {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        }
+    }
+
+    private static void glTexSubImage2D(GLPixelFormat pixelFormat, int x, int y, Bitmap bitmap) {
+        if(pixelFormat == GLPixelFormat.LUMINANCE_8) {
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, bitmap, pixelFormat.getGLFormat(), pixelFormat.getGLType());
+        } else {
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, bitmap);
+        }
+    }
+
+    /**
+     * The number of bytes of pixel data copied to textures since the renderer was created or
+     * {@link #resetUploadStats()} was called
+     * @return The uploaded byte count
+     */
+    public long getUploadedBytes() {
+        return mUploadedBytes;
+    }
+
+    /**
+     * The number of bytes of pixel data not copied to textures thanks to sub-rectangle uploads, since
+     * the renderer was created or {@link #resetUploadStats()} was called
+     * @return The saved byte count
+     */
+    public long getSavedUploadBytes() {
+        return mSavedUploadBytes;
+    }
+
+    public void resetUploadStats() {
+        mUploadedBytes = 0;
+        mSavedUploadBytes = 0;
+    }
+
+    /**
+     * Copy part of a bitmap into the scratch bitmap, sized and configured to match it
+     * @return The scratch bitmap
+     */
+    private Bitmap copyToUploadScratch(Bitmap source, Rect rect) {
+        int width = rect.width();
+        int height = rect.height();
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        if(mUploadScratch != null && mUploadScratch.getAllocationByteCount() >= getUploadByteCount(source, width, height)) {
+            mUploadScratch.reconfigure(width, height, config);
+            // The canvas must pick up the new dimensions
+            mUploadScratchCanvas.setBitmap(mUploadScratch);
+        } else {
+            if(mUploadScratch != null) {
+                mUploadScratch.recycle();
+            }
+            mUploadScratch = Bitmap.createBitmap(width, height, config);
+            mUploadScratchCanvas = new Canvas(mUploadScratch);
+        }
+        if(mUploadCopyPaint == null) {
+            mUploadCopyPaint = new Paint();
+            mUploadCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+
+        mUploadScratchRect.set(0, 0, width, height);
+        mUploadScratchCanvas.drawBitmap(source, rect, mUploadScratchRect, mUploadCopyPaint);
+        return mUploadScratch;
+    }
+
+    private static long getUploadByteCount(Bitmap bitmap, int width, int height) {
+        Bitmap.Config config = bitmap.getConfig();
+        int bytesPerPixel;
+        if(config == Bitmap.Config.ALPHA_8) {
+            bytesPerPixel = 1;
+        } else if(config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            bytesPerPixel = 2;
+        } else {
+            bytesPerPixel = 4;
+        }
+        return (long)width * height * bytesPerPixel;
+    }
+
+    /**
+     * Clean up the specified {@link GLBitmapObject}.
+     * This does not need to be called if {@link #onDestroy()} is called, as it destroys all objects managed.
+     * Must be done on the thread that created this object to ensure the GL context is the same.
+     * @param bitmapObject The object to destroy.
+     */
+    public void destroyBitmapObject(GLBitmapObject bitmapObject) {
+        checkGLThread();
+        int index = (bitmapObject != null) ? mBitmapObjects.indexOf(bitmapObject) : -1;
+        if (index >= 0) {
+            Log.d(TAG, String.format("destroyBitmapObject: %d (%s)", bitmapObject.getTextureRef(), Thread.currentThread().getName()));
+            // Removing keeps the remaining objects sorted
+            mBitmapObjects.remove(index);
+            if(bitmapObject.getParent() != null) {
+                bitmapObject.getParent().remove(bitmapObject);
+            }
+            if(mAsyncRasterizer != null) {
+                mAsyncRasterizer.forget(bitmapObject);
+            }
+            for(int i = mTextureSwaps.size() - 1; i >= 0; i--) {
+                TextureSwap swap = mTextureSwaps.get(i);
+                if(swap.mTarget == bitmapObject || swap.mStandby == bitmapObject) {
+                    mTextureSwaps.remove(i);
+                }
+            }
+            mSceneChanged = true;
+            mPendingDamage.union(bitmapObject.getDrawnBounds());
+            if(bitmapObject.getAtlasRegion() != null) {
+                mTextureAtlas.release(bitmapObject);
+            } else if(bitmapObject.isRenderWithGL()) {
+                glDeleteTextures(bitmapObject);
+            }
+            GLProgram program = bitmapObject.getGLProgram();
+            if(program != null && !isProgramAttached(program)) {
+                glDeleteProgram(program);
+            }
+            GLProgram ambientProgram = bitmapObject.getAmbientGLProgram();
+            if(ambientProgram != null && !isProgramAttached(ambientProgram)) {
+                glDeleteProgram(ambientProgram);
+            }
+            bitmapObject.onDestroy();
+        }
+    }
+
+    /**
+     * Whether any object of this renderer is drawn with a program, in either mode
+     */
+    private boolean isProgramAttached(GLProgram program) {
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(bitmapObject.getGLProgram() == program || bitmapObject.getAmbientGLProgram() == program) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete a program if it's linked, dropping its reference in the program registry
+     */
+    private void glDeleteProgram(GLProgram program) {
+        if(program != null && program.isLoaded()) {
+            if(mCurrentProgram == program) {
+                mCurrentProgram = null;
+            }
+            program.glDelete();
+        }
+    }
+
+    /**
+     * Show a standby object's content in a target object from the first frame drawn at or after a
+     * given time, by exchanging their textures and bitmaps, so nothing is drawn or uploaded in that
+     * frame. Pre-render the upcoming state into the hidden standby object ahead of time, e.g. with
+     * {@link GLAsyncRasterizer} from
+     * {@link GLWatchFace.GLEngine#onUpcomingTimeBoundary(int, java.util.GregorianCalendar)}. If the
+     * standby's background drawing hasn't been uploaded by then, the swap waits for it.
+     * After the swap, the standby object holds the previous content, ready to be drawn into for the
+     * next swap. A later call for the same target replaces an earlier one.
+     * Must be done on the thread that created this object.
+     * @param target The object shown
+     * @param standby The object holding the upcoming content, of the same size and pixel format. It
+     *                should be invisible, as its own transform, color and order are never swapped.
+     * @param timeMillis The wall clock time to swap at, as {@link System#currentTimeMillis()}
+     */
+    public void swapTexturesAt(GLBitmapObject target, GLBitmapObject standby, long timeMillis) {
+        checkGLThread();
+        if(target == null || standby == null || target == standby) {
+            throw new IllegalArgumentException("target and standby must be two different objects");
+        }
+        if(target.getBitmapWidth() != standby.getBitmapWidth() || target.getBitmapHeight() != standby.getBitmapHeight() ||
+                target.getPixelFormat() != standby.getPixelFormat()) {
+            throw new IllegalArgumentException(String.format("Standby must match target. Target: %d x %d %s Standby: %d x %d %s",
+                    target.getBitmapWidth(), target.getBitmapHeight(), target.getPixelFormat(),
+                    standby.getBitmapWidth(), standby.getBitmapHeight(), standby.getPixelFormat()));
+        }
+        if(target.getAtlasRegion() != null || standby.getAtlasRegion() != null ||
+                target.getCompressedTexture() != null || standby.getCompressedTexture() != null ||
+                !target.isRenderWithGL() || !standby.isRenderWithGL()) {
+            throw new IllegalArgumentException("Only objects with textures of their own uploaded from bitmaps can be swapped");
+        }
+
+        cancelTextureSwap(target);
+        mTextureSwaps.add(new TextureSwap(target, standby, timeMillis));
+    }
+
+    /**
+     * Cancel a swap scheduled with {@link #swapTexturesAt(GLBitmapObject, GLBitmapObject, long)}
+     * @param target The target object of the swap
+     */
+    public void cancelTextureSwap(GLBitmapObject target) {
+        checkGLThread();
+        for(int i = mTextureSwaps.size() - 1; i >= 0; i--) {
+            if(mTextureSwaps.get(i).mTarget == target) {
+                mTextureSwaps.remove(i);
+            }
+        }
+    }
+
+    private boolean isTextureSwapDue(TextureSwap swap, long now) {
+        return now >= swap.mTimeMillis && (mAsyncRasterizer == null || !mAsyncRasterizer.isPending(swap.mStandby));
+    }
+
+    /**
+     * Swap in the standby objects whose time has come, before the frame is drawn
+     */
+    private void applyDueTextureSwaps() {
+        if(mTextureSwaps.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for(int i = mTextureSwaps.size() - 1; i >= 0; i--) {
+            TextureSwap swap = mTextureSwaps.get(i);
+            if(isTextureSwapDue(swap, now)) {
+                mTextureSwaps.remove(i);
+                swap.mTarget.swapTextureWith(swap.mStandby);
+                swap.mTarget.setLastUsedFrame(mFrameNumber);
+                Log.v(TAG, String.format("applyDueTextureSwaps: %d ms after %d", now - swap.mTimeMillis, swap.mTimeMillis));
+            }
+        }
+    }
+
+    /**
+     * Whether drawing a frame now would produce a different image than the last frame drawn: objects
+     * were added, removed or re-ordered, an object changed (see {@link GLBitmapObject#isDirty()}), a
+     * visible object uses an animating program (see {@link GLProgram#isAnimating()}), or queued
+     * events are waiting to run.
+     * Watch faces can skip requesting a frame when this is false.
+     * Must be done on the thread that created this object.
+     * @return True if the next frame should be drawn, false if it would be identical to the last one
+     */
+    public boolean needsRedraw() {
+        checkGLThread();
+        if(mSceneChanged) {
+            return true;
+        }
+
+        synchronized (mEventLock) {
+            if(!mPendingEvents.isEmpty()) {
+                return true;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < mTextureSwaps.size(); i++) {
+            if(isTextureSwapDue(mTextureSwaps.get(i), now)) {
+                return true;
+            }
+        }
+
+        if(mIsAmbient) {
+            // Animations are frozen, the cached frame is shown until the scene changes
+            return !mAmbientFrameShown || isAmbientFrameStale();
+        }
+
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(!bitmapObject.isRenderWithGL()) {
+                continue;
+            }
+            if(bitmapObject.isDirty()) {
+                return true;
+            }
+            GLProgram program = bitmapObject.getGLProgram();
+            if(isDrawn(bitmapObject) && program != null && program.isAnimating()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the cached ambient frame doesn't show the current scene. Changes to objects not drawn in
+     * ambient mode are ignored, unless they were just shown or hidden.
+     */
+    private boolean isAmbientFrameStale() {
+        if(!mAmbientFrameValid || mSceneChanged) {
+            return true;
+        }
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(bitmapObject.isRenderWithGL() && bitmapObject.isDirty()
+                    && (isDrawn(bitmapObject) || (bitmapObject.getDirtyFlags() & GLBitmapObject.DIRTY_VISIBILITY) != 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether an object is drawn in the current mode: it must be visible, and in ambient mode be shown
+     * in ambient mode and have a program allowed there
+     */
+    private boolean isDrawn(GLBitmapObject bitmapObject) {
+        if(!bitmapObject.isRenderWithGL() || !bitmapObject.isVisibleInScene()) {
+            return false;
+        }
+        int ambientVisibility = bitmapObject.getAmbientVisibility();
+        if(!mIsAmbient) {
+            return ambientVisibility != GLBitmapObject.AMBIENT_ONLY;
+        }
+        if(ambientVisibility == GLBitmapObject.AMBIENT_HIDDEN) {
+            return false;
+        }
+        return bitmapObject.getGLProgram() == null || bitmapObject.getAmbientGLProgram() != null
+                || mAmbientCustomProgramsEnabled;
+    }
+
+    /**
+     * The custom program an object is drawn with in the current mode
+     * @return The program, or null to draw with the standard program
+     */
+    private GLProgram getDrawnProgram(GLBitmapObject bitmapObject) {
+        if(mIsAmbient && bitmapObject.getAmbientGLProgram() != null) {
+            return bitmapObject.getAmbientGLProgram();
+        }
+        return bitmapObject.getGLProgram();
+    }
+
+    /**
+     * Mark the current state of the scene as drawn
+     */
+    private void markDrawn() {
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            bitmapObject.clearDirty();
+        }
+        mSceneChanged = false;
+    }
+
+    private void executeQueuedEvents() {
+        ArrayList<Runnable> events;
+        synchronized (mEventLock) {
+            if(mPendingEvents.isEmpty()) {
+                return;
+            }
+            events = mPendingEvents;
+            mPendingEvents = mDrainingEvents;
+            mDrainingEvents = events;
+            mPendingEventIndices.clear();
+        }
+
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                events.get(i).run();
+            }
+        } finally {
+            events.clear();
+        }
+    }
+
+    /**
+     * Draws all managed {@link GLBitmapObject}s
+     * This method uses the calling thread's GL context
+     */
+    public void draw() {
+        mDrawCallCount = 0;
+        mCulledCount = 0;
+        mFrameNumber++;
+        mStateCache.resetCounters();
+        executeQueuedEvents();
+        applyDueTextureSwaps();
+        if(isFinishing()) {
+            mStateCache.setScissorTestEnabled(false);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            return;
+        }
+
+        updateSortOrder();
+        if(mIsAmbient) {
+            glDrawAmbient();
+            return;
+        }
+        if(mAmbientFramebuffer[0] != 0) {
+            // Not needed until the next ambient mode, which renders the frame again anyway
+            glDeleteAmbientFramebuffer();
+        }
+
+        boolean partial = computeFrameDamage();
+        if(partial && mFrameDamage.isEmpty()) {
+            // The back buffer already holds this frame
+            markDrawn();
+            return;
+        }
+
+        mStateCache.setScissorTestEnabled(partial);
+        if(partial) {
+            mStateCache.scissor(mScissorRect[0], mScissorRect[1], mScissorRect[2], mScissorRect[3]);
+        }
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
         if(mBitmapObjects.size() == 0) {
             // Nothing to draw
+            markDrawn();
             return;
         }
 
-        float[] color;
-        GLProgram currentProgram = null;
+        glDrawObjects(partial);
+        markDrawn();
+        glEvictTextures(mTextureMemoryBudget);
+    }
+
+    /**
+     * Draw the objects of the current mode into the bound framebuffer
+     * @param partial Whether only objects intersecting {@link #mFrameDamage} are drawn
+     */
+    private void glDrawObjects(boolean partial) {
+        mCurrentProgram = null;
 
         for(GLBitmapObject bitmapObject : mBitmapObjects) {
-            if(!bitmapObject.isVisible()) {
+            if(!isDrawn(bitmapObject)) {
                 continue;
             }
 
-            if(!bitmapObject.isRenderWithGL()) {
+            if(isCulled(bitmapObject)) {
+                mCulledCount++;
+                continue;
+            }
+            // On screen, even if not redrawn this frame
+            bitmapObject.setLastUsedFrame(mFrameNumber);
+
+            if(partial && !mFrameDamage.intersects(bitmapObject.getBounds())) {
+                continue;
+            }
+
+            if(bitmapObject.isTextureEvicted()) {
+                glRestoreTexture(bitmapObject);
+            }
+
+            if(bitmapObject instanceof GLSpriteBatch) {
+                appendSpritesToBatch((GLSpriteBatch)bitmapObject, partial);
+                continue;
+            }
+
+            GLProgram customProgram = getDrawnProgram(bitmapObject);
+            int alphaTextureRef = bitmapObject.getAlphaTextureRef();
+            if(mBatchingEnabled && customProgram == null && alphaTextureRef == 0) {
+                appendToBatch(bitmapObject);
                 continue;
             }
 
-            GLProgram newProgram = (bitmapObject.getGLProgram() == null) ? mStandardProgram : bitmapObject.getGLProgram();
+            flushBatch();
+            StandardGLProgram standardProgram = null;
+            if(customProgram == null) {
+                standardProgram = (alphaTextureRef != 0) ? glGetAlphaPlaneProgram() : glGetStandardProgram(bitmapObject.getPixelFormat());
+            }
+            useProgram(customProgram != null ? customProgram : standardProgram);
+            bindQuadAttributes();
+
+            foldAffineTransform(bitmapObject.getAffineTransform(), mMVPMatrix);
+
+            if(alphaTextureRef != 0) {
+                mStateCache.activeTexture(GLES20.GL_TEXTURE0 + StandardGLProgram.ALPHA_TEXTURE_UNIT);
+                mStateCache.bindTexture(alphaTextureRef);
+            }
+            bindTexture(bitmapObject.getTextureRef());
+
+            if(standardProgram != null) {
+                standardProgram.glSetUVRect(bitmapObject.getUVRect());
+            }
+            mCurrentProgram.glOnDraw(mMVPMatrix, bitmapObject.getWorldColor());
+
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, mVertexIndices.length,
+                    GLES20.GL_UNSIGNED_SHORT, 0);
+            mDrawCallCount++;
+        }
+
+        flushBatch();
+    }
+
+    /**
+     * Draw an ambient frame: render the scene into the cached frame if it changed, then copy the
+     * cached frame to the surface, opaque and shifted by the ambient offset
+     */
+    private void glDrawAmbient() {
+        mStateCache.setScissorTestEnabled(false);
+        if(isAmbientFrameStale()) {
+            if(!glBindAmbientFramebuffer()) {
+                // Drawn as is, without caching, quantization or offset
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+                mStateCache.setBlendEnabled(mAmbientBlendingEnabled);
+                glDrawObjects(false);
+                mStateCache.setBlendEnabled(true);
+                markDrawn();
+                return;
+            }
+            long startNanos = System.nanoTime();
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            mStateCache.setBlendEnabled(mAmbientBlendingEnabled);
+            glDrawObjects(false);
+            // Waiting for the GPU, so the time measured covers rendering the frame and not only
+            // issuing its commands
+            GLES20.glFinish();
+            mLastAmbientFrameNanos = System.nanoTime() - startNanos;
+            mAmbientFrameRenderCount++;
+            mAmbientFrameValid = true;
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            Log.v(TAG, String.format("Ambient frame rendered in %.2f ms with %d draw calls", mLastAmbientFrameNanos / 1000000.0, mDrawCallCount));
+        }
+        markDrawn();
+
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mStateCache.setBlendEnabled(false);
+        AmbientFrameProgram program = glGetAmbientFrameProgram();
+        useProgram(program);
+        bindQuadAttributes();
+        bindTexture(mAmbientTextureRef);
+        program.glOnDraw(mVPMatrix, null);
+        program.glSetOffset(mAmbientOffsetX * 2f / mSurfaceWidth, mAmbientOffsetY * 2f / mSurfaceHeight);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mVertexIndices.length,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        mDrawCallCount++;
+        mStateCache.setBlendEnabled(true);
+        mAmbientFrameShown = true;
+
+        // Objects not drawn since the frame was cached may be evicted
+        glEvictTextures(mTextureMemoryBudget);
+    }
+
+    /**
+     * Bind the framebuffer rendering into the cached ambient frame, creating it on first use
+     * @return True if bound, false if the framebuffer can't be created, in which case the default
+     * framebuffer stays bound
+     */
+    private boolean glBindAmbientFramebuffer() {
+        if(mAmbientFramebuffer[0] != 0) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mAmbientFramebuffer[0]);
+            return true;
+        }
+        if(mAmbientFramebufferFailed) {
+            return false;
+        }
+        mAmbientTextureRef = glCreateTexture();
+        // Shown pixel for pixel, offset by whole pixels
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mSurfaceWidth, mSurfaceHeight, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glGenFramebuffers(1, mAmbientFramebuffer, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mAmbientFramebuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mAmbientTextureRef, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if(status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.w(TAG, String.format("Ambient framebuffer incomplete (0x%x), ambient frames aren't cached", status));
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            glDeleteAmbientFramebuffer();
+            mAmbientFramebufferFailed = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void glDeleteAmbientFramebuffer() {
+        if(mAmbientFramebuffer[0] != 0) {
+            GLES20.glDeleteFramebuffers(1, mAmbientFramebuffer, 0);
+            mAmbientFramebuffer[0] = 0;
+        }
+        if(mAmbientTextureRef != 0) {
+            mStateCache.deleteTexture(mAmbientTextureRef);
+            mAmbientTextureRef = 0;
+        }
+        mAmbientFrameValid = false;
+    }
+
+    /**
+     * Delete the textures of the objects used least recently until the resident texture memory is
+     * within the budget. Objects used in the last frame are kept.
+     */
+    private void glEvictTextures(long budgetBytes) {
+        if(budgetBytes == UNLIMITED_TEXTURE_MEMORY) {
+            return;
+        }
+        long residentBytes = getResidentTextureBytes();
+        if(residentBytes <= budgetBytes) {
+            return;
+        }
 
-            if(currentProgram == null || currentProgram != newProgram) {
-                GLES20.glUseProgram(newProgram.getHandle());
-                currentProgram = newProgram;
+        mEvictionCandidates.clear();
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(bitmapObject.getTextureBytes() > 0 && bitmapObject.getAtlasRegion() == null &&
+                    bitmapObject.getLastUsedFrame() < mFrameNumber && bitmapObject.canRestoreTexture()) {
+                mEvictionCandidates.add(bitmapObject);
             }
+        }
+        Collections.sort(mEvictionCandidates, mLeastRecentlyUsedComparator);
+
+        for(int i = 0; i < mEvictionCandidates.size() && residentBytes > budgetBytes; i++) {
+            GLBitmapObject bitmapObject = mEvictionCandidates.get(i);
+            residentBytes -= bitmapObject.getTextureBytes();
+            glDeleteTextures(bitmapObject);
+            bitmapObject.onTextureEvicted();
+            mEvictionCount++;
+        }
+        mEvictionCandidates.clear();
+    }
+
+    /**
+     * Give an evicted object a new texture and push its pixels again, before it is drawn
+     */
+    private void glRestoreTexture(GLBitmapObject bitmapObject) {
+        bitmapObject.onTextureLost(glCreateTexture());
+        mRestoreCount++;
+        if(bitmapObject.getCompressedTexture() != null) {
+            glUploadCompressedTexture(bitmapObject);
+        } else if(bitmapObject.getBitmap() != null) {
+            invalidateBitmapObject(bitmapObject, bitmapObject.getBitmap());
+        } else if(bitmapObject.getTextureRegenerator() != null) {
+            bitmapObject.getTextureRegenerator().onRegenerateTexture(bitmapObject);
+        } else {
+            Log.w(TAG, String.format("Can't restore evicted texture of %d x %d object", bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight()));
+        }
+    }
+
+    /**
+     * Whether an object, or a group it belongs to, lies entirely outside the surface, or outside its
+     * inscribed circle
+     */
+    private boolean isCulled(GLBitmapObject bitmapObject) {
+        GLGroup parent = bitmapObject.getParent();
+        if(parent != null && isCulled(parent)) {
+            return true;
+        }
+        return isCulled(bitmapObject.getBounds());
+    }
+
+    /**
+     * Whether a group's whole subtree is culled, decided once per frame
+     */
+    private boolean isCulled(GLGroup group) {
+        if(group.mCullFrame != mFrameNumber) {
+            group.mCullFrame = mFrameNumber;
+            GLGroup parent = group.getParent();
+            group.mCulled = (parent != null && isCulled(parent)) || isCulled(group.getSubtreeBounds(mFrameNumber));
+        }
+        return group.mCulled;
+    }
 
-            Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, bitmapObject.getModelMatrix(), 0);
+    private boolean isCulled(ScreenRect bounds) {
+        if(!mViewportBounds.intersects(bounds)) {
+            return true;
+        }
+        if(mRoundCullingEnabled) {
+            float radius = Math.min(mSurfaceWidth, mSurfaceHeight) * 0.5f;
+            return !bounds.intersectsCircle(mSurfaceWidth * 0.5f, mSurfaceHeight * 0.5f, radius);
+        }
+        return false;
+    }
 
-            int textureRef = bitmapObject.getTextureRef();
+    /**
+     * Work out the area to redraw this frame: the union of the old and new bounds of changed objects,
+     * plus the damage of the frames drawn since the back buffer was last drawn to.
+     * @return True if only {@link #mFrameDamage} needs redrawing, with its scissor rectangle in
+     * {@link #mScissorRect}, false if the whole surface must be redrawn
+     */
+    private boolean computeFrameDamage() {
+        if(!mPartialRedrawEnabled) {
+            return false;
+        }
 
-            if(textureRef != mLastTextureRef) {
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureRef);
+        mDamage.set(mPendingDamage);
+        mPendingDamage.setEmpty();
+        for(GLBitmapObject bitmapObject : mBitmapObjects) {
+            if(!bitmapObject.isRenderWithGL()) {
+                continue;
+            }
+            GLProgram program = bitmapObject.getGLProgram();
+            boolean visible = isDrawn(bitmapObject);
+            boolean animating = visible && program != null && program.isAnimating();
+            if(bitmapObject.isDirty() || animating) {
+                mDamage.union(bitmapObject.getDrawnBounds());
+                if(visible) {
+                    mDamage.union(bitmapObject.getBounds());
+                }
             }
+        }
+
+        int age = mFullRedraw ? 0 : glQueryBufferAge();
+        boolean partial = age > 0 && age <= MAX_BUFFER_AGE;
+        if(!partial) {
+            mDamage.set(0f, 0f, mSurfaceWidth, mSurfaceHeight);
+        }
+
+        // A back buffer of age N misses the damage of the last N - 1 frames
+        mFrameDamage.set(mDamage);
+        for(int i = 0; partial && i < age - 1; i++) {
+            mFrameDamage.union(mDamageHistory[(mDamageHistoryIndex - i + MAX_BUFFER_AGE) % MAX_BUFFER_AGE]);
+        }
+        mDamageHistoryIndex = (mDamageHistoryIndex + 1) % MAX_BUFFER_AGE;
+        mDamageHistory[mDamageHistoryIndex].set(mDamage);
+        mFullRedraw = false;
+
+        if(!partial) {
+            return false;
+        }
+        if(!mFrameDamage.roundOut(mSurfaceWidth, mSurfaceHeight, mScissorRect)) {
+            mFrameDamage.setEmpty();
+            return true;
+        }
+        // Cull against the pixels actually cleared, not the unrounded damage
+        mFrameDamage.set(mScissorRect[0], mScissorRect[1],
+                mScissorRect[0] + mScissorRect[2], mScissorRect[1] + mScissorRect[3]);
+        return mScissorRect[2] < mSurfaceWidth || mScissorRect[3] < mSurfaceHeight;
+    }
+
+    /**
+     * @return The age of the current surface's back buffer in frames, or 0 if its contents are undefined
+     */
+    private int glQueryBufferAge() {
+        if(!mBufferAgeSupported) {
+            return 0;
+        }
+        EGLDisplay display = EGL14.eglGetCurrentDisplay();
+        EGLSurface surface = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW);
+        if(!EGL14.eglQuerySurface(display, surface, EGL_BUFFER_AGE_EXT, mBufferAge, 0)) {
+            return 0;
+        }
+        return mBufferAge[0];
+    }
+
+    /**
+     * Forget the damage of past frames, so the next frame is redrawn fully
+     */
+    private void resetDamageHistory() {
+        for(ScreenRect damage : mDamageHistory) {
+            damage.set(0f, 0f, mSurfaceWidth, mSurfaceHeight);
+        }
+        mPendingDamage.setEmpty();
+        mFullRedraw = true;
+    }
+
+    /**
+     * Compute view-projection * model for a model matrix given as a 2D affine transform (see
+     * {@link GLBitmapObject#getAffineTransform()}). Such a model matrix only has columns
+     * (a, b, 0, 0), (c, d, 0, 0), 0 and (tx, ty, 0, 1), so each result column is a combination of at
+     * most three view-projection columns rather than a full 4x4 multiply.
+     */
+    private void foldAffineTransform(float[] affine, float[] out) {
+        float[] vp = mVPMatrix;
+        float a = affine[0];
+        float b = affine[1];
+        float c = affine[2];
+        float d = affine[3];
+        float tx = affine[4];
+        float ty = affine[5];
+        for(int row = 0; row < 4; row++) {
+            float vpX = vp[row];
+            float vpY = vp[4 + row];
+            out[row] = a * vpX + b * vpY;
+            out[4 + row] = c * vpX + d * vpY;
+            out[8 + row] = 0f;
+            out[12 + row] = tx * vpX + ty * vpY + vp[12 + row];
+        }
+    }
+
+    /**
+     * The program drawing objects of a pixel format individually, linked if needed
+     */
+    private StandardGLProgram glGetStandardProgram(GLPixelFormat pixelFormat) {
+        if(!pixelFormat.isMask()) {
+            return mStandardProgram;
+        }
+        StandardGLProgram program = mMaskStandardPrograms[pixelFormat.ordinal()];
+        if(program == null) {
+            program = new StandardGLProgram(pixelFormat);
+            mMaskStandardPrograms[pixelFormat.ordinal()] = program;
+        }
+        program.glCreateCompileLink(mProgramRegistry);
+        return program;
+    }
+
+    /**
+     * The program drawing batched quads of a pixel format, linked if needed
+     */
+    private BatchGLProgram glGetBatchProgram(GLPixelFormat pixelFormat) {
+        if(!pixelFormat.isMask()) {
+            return mBatchProgram;
+        }
+        BatchGLProgram program = mMaskBatchPrograms[pixelFormat.ordinal()];
+        if(program == null) {
+            program = new BatchGLProgram(pixelFormat);
+            mMaskBatchPrograms[pixelFormat.ordinal()] = program;
+        }
+        program.glCreateCompileLink(mProgramRegistry);
+        return program;
+    }
+
+    /**
+     * The program drawing compressed textures with an alpha plane, linked if needed
+     */
+    private StandardGLProgram glGetAlphaPlaneProgram() {
+        if(mAlphaPlaneProgram == null) {
+            mAlphaPlaneProgram = StandardGLProgram.createWithAlphaPlane();
+        }
+        mAlphaPlaneProgram.glCreateCompileLink(mProgramRegistry);
+        return mAlphaPlaneProgram;
+    }
+
+    private AmbientFrameProgram glGetAmbientFrameProgram() {
+        if(mAmbientFrameProgram != null && mAmbientFrameProgram.isLowBit() != mLowBitAmbient) {
+            glDeleteProgram(mAmbientFrameProgram);
+            mAmbientFrameProgram = null;
+        }
+        if(mAmbientFrameProgram == null) {
+            mAmbientFrameProgram = new AmbientFrameProgram(mLowBitAmbient);
+        }
+        mAmbientFrameProgram.glCreateCompileLink(mProgramRegistry);
+        return mAmbientFrameProgram;
+    }
+
+    private void useProgram(GLProgram program) {
+        mStateCache.useProgram(program.getHandle());
+        mCurrentProgram = program;
+    }
+
+    private void bindTexture(int textureRef) {
+        mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+        mStateCache.bindTexture(textureRef);
+    }
+
+    /**
+     * Point the vertex attributes at the static unit quad, used when drawing objects individually.
+     */
+    private void bindQuadAttributes() {
+        if(!mBatchAttributesBound) {
+            return;
+        }
+        disableUnlessQuadAttribute(mBatchProgram.getPositionLoc());
+        disableUnlessQuadAttribute(mBatchProgram.getTexCoordLoc());
+        disableUnlessQuadAttribute(mBatchProgram.getColorLoc());
+
+        mStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, mQuadVertexBuffer);
+        mStateCache.enableVertexAttribArray(mPositionLoc);
+        GLES20.glVertexAttribPointer(mPositionLoc, 3, GLES20.GL_FLOAT, false, 0, 0);
+        mStateCache.enableVertexAttribArray(mTexCoordLoc);
+        GLES20.glVertexAttribPointer(mTexCoordLoc, 2, GLES20.GL_FLOAT, false, 0, QUAD_UV_OFFSET_BYTES);
+        mBatchAttributesBound = false;
+    }
+
+    private void disableUnlessQuadAttribute(int location) {
+        if(location != mPositionLoc && location != mTexCoordLoc) {
+            mStateCache.disableVertexAttribArray(location);
+        }
+    }
+
+    /**
+     * Point the vertex attributes at the streaming vertex buffer used for batches.
+     */
+    private void bindBatchAttributes() {
+        if(mBatchAttributesBound) {
+            return;
+        }
+        disableUnlessBatchAttribute(mPositionLoc);
+        disableUnlessBatchAttribute(mTexCoordLoc);
+
+        int stride = BATCH_VERTEX_FLOATS * FLOAT_SIZE_BYTES;
+        mStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, mStreamVertexBuffer);
+        mStateCache.enableVertexAttribArray(mBatchProgram.getPositionLoc());
+        GLES20.glVertexAttribPointer(mBatchProgram.getPositionLoc(), 2, GLES20.GL_FLOAT, false, stride, 0);
+        mStateCache.enableVertexAttribArray(mBatchProgram.getTexCoordLoc());
+        GLES20.glVertexAttribPointer(mBatchProgram.getTexCoordLoc(), 2, GLES20.GL_FLOAT, false, stride, 2 * FLOAT_SIZE_BYTES);
+        mStateCache.enableVertexAttribArray(mBatchProgram.getColorLoc());
+        GLES20.glVertexAttribPointer(mBatchProgram.getColorLoc(), 4, GLES20.GL_FLOAT, false, stride, 4 * FLOAT_SIZE_BYTES);
+        mBatchAttributesBound = true;
+    }
+
+    private void disableUnlessBatchAttribute(int location) {
+        if(location != mBatchProgram.getPositionLoc() && location != mBatchProgram.getTexCoordLoc()
+                && location != mBatchProgram.getColorLoc()) {
+            mStateCache.disableVertexAttribArray(location);
+        }
+    }
 
-            color = bitmapObject.getColor();
-            currentProgram.glOnDraw(mMVPMatrix, color);
+    /**
+     * Transform the object's quad into surface space and append it to the batch.
+     */
+    private void appendToBatch(GLBitmapObject bitmapObject) {
+        float[] affine = bitmapObject.getAffineTransform();
+        float[] color = bitmapObject.getWorldColor();
+        appendQuad(glGetBatchProgram(bitmapObject.getPixelFormat()), bitmapObject.getTextureRef(),
+                affine[0], affine[1], affine[2], affine[3], affine[4], affine[5],
+                bitmapObject.getUVRect(), 0, color[0], color[1], color[2], color[3]);
+    }
+
+    /**
+     * Append the visible sprites of a sprite batch that aren't culled to the batch, in their drawing order.
+     */
+    private void appendSpritesToBatch(GLSpriteBatch spriteBatch, boolean partial) {
+        BatchGLProgram program = glGetBatchProgram(spriteBatch.getPixelFormat());
+        int textureRef = spriteBatch.getTextureRef();
+        int[] drawOrder = spriteBatch.getDrawOrder();
+        float[] transforms = spriteBatch.getTransforms();
+        float[] colors = spriteBatch.getColors();
+        float[] uvRects = spriteBatch.getUVRects();
+        float[] batchColor = spriteBatch.getWorldColor();
+        float radius = Math.min(mSurfaceWidth, mSurfaceHeight) * 0.5f;
+
+        for(int i = 0; i < spriteBatch.getSpriteCount(); i++) {
+            int handle = drawOrder[i];
+            if(!spriteBatch.isSpriteVisibleUnchecked(handle)) {
+                continue;
+            }
 
-            if(bitmapObject.isVisible()) {
-                GLES20.glDrawElements(GLES20.GL_TRIANGLES, mVertexIndices.length,
-                        GLES20.GL_UNSIGNED_SHORT, mBufferIndices);
+            spriteBatch.getSpriteBounds(handle, mSpriteBounds);
+            if(!mViewportBounds.intersects(mSpriteBounds) || (mRoundCullingEnabled &&
+                    !mSpriteBounds.intersectsCircle(mSurfaceWidth * 0.5f, mSurfaceHeight * 0.5f, radius))) {
+                mCulledCount++;
+                continue;
+            }
+            if(partial && !mFrameDamage.intersects(mSpriteBounds)) {
+                continue;
             }
 
-            mLastTextureRef = textureRef;
+            int t = handle * 6;
+            int c = handle * 4;
+            appendQuad(program, textureRef, transforms[t], transforms[t + 1], transforms[t + 2], transforms[t + 3],
+                    transforms[t + 4], transforms[t + 5], uvRects, handle * 4,
+                    colors[c] * batchColor[0], colors[c + 1] * batchColor[1],
+                    colors[c + 2] * batchColor[2], colors[c + 3] * batchColor[3]);
+        }
+    }
+
+    /**
+     * Append a textured quad to the batch, flushing first if the program or texture changes or the batch
+     * is full. The unit quad is transformed into surface space by the affine transform
+     * (a, b, c, d, tx, ty), i.e. x' = a * x + c * y + tx and y' = b * x + d * y + ty.
+     */
+    private void appendQuad(BatchGLProgram program, int textureRef, float a, float b, float c, float d, float tx, float ty,
+                            float[] uvRects, int uvOffset, float red, float green, float blue, float alpha) {
+        if(mBatchQuadCount > 0 && (textureRef != mBatchTextureRef || program != mBatchQuadProgram
+                || mBatchQuadCount == MAX_BATCH_QUADS)) {
+            flushBatch();
+        }
+        mBatchTextureRef = textureRef;
+        mBatchQuadProgram = program;
+
+        float[] data = mBatchVertexData;
+        int offset = mBatchQuadCount * VERTICES_PER_QUAD * BATCH_VERTEX_FLOATS;
+        float u = uvRects[uvOffset];
+        float v = uvRects[uvOffset + 1];
+        float uvWidth = uvRects[uvOffset + 2];
+        float uvHeight = uvRects[uvOffset + 3];
+
+        for(int vertex = 0; vertex < VERTICES_PER_QUAD; vertex++) {
+            float x = mVertexPositions[vertex * 3];
+            float y = mVertexPositions[vertex * 3 + 1];
+            data[offset++] = a * x + c * y + tx;
+            data[offset++] = b * x + d * y + ty;
+            data[offset++] = u + mTextureUVCoords[vertex * 2] * uvWidth;
+            data[offset++] = v + mTextureUVCoords[vertex * 2 + 1] * uvHeight;
+            data[offset++] = red;
+            data[offset++] = green;
+            data[offset++] = blue;
+            data[offset++] = alpha;
+        }
+        mBatchQuadCount++;
+    }
+
+    /**
+     * Draw all quads accumulated in the batch with a single draw call.
+     */
+    private void flushBatch() {
+        if(mBatchQuadCount == 0) {
+            return;
         }
+
+        int floatCount = mBatchQuadCount * VERTICES_PER_QUAD * BATCH_VERTEX_FLOATS;
+        mBufferBatchVertices.clear();
+        mBufferBatchVertices.put(mBatchVertexData, 0, floatCount);
+        mBufferBatchVertices.position(0);
+
+        useProgram(mBatchQuadProgram);
+        bindBatchAttributes();
+
+        // Orphan the previous contents so the driver doesn't stall on draws still reading them
+        mStateCache.bindBuffer(GLES20.GL_ARRAY_BUFFER, mStreamVertexBuffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mBatchVertexData.length * FLOAT_SIZE_BYTES, null, GLES20.GL_STREAM_DRAW);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floatCount * FLOAT_SIZE_BYTES, mBufferBatchVertices);
+
+        bindTexture(mBatchTextureRef);
+        mBatchQuadProgram.glOnDraw(mVPMatrix, null);
+
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, mBatchQuadCount * INDICES_PER_QUAD,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        mDrawCallCount++;
+        mBatchQuadCount = 0;
     }
 
     private boolean isFinishing() {
         return mIsFinishing;
     }
 
+    private static final class TextureSwap {
+        private final GLBitmapObject mTarget;
+        private final GLBitmapObject mStandby;
+        private final long mTimeMillis;
+
+        TextureSwap(GLBitmapObject target, GLBitmapObject standby, long timeMillis) {
+            mTarget = target;
+            mStandby = standby;
+            mTimeMillis = timeMillis;
+        }
+    }
+
     private static class GLBitmapObjectComparator implements Comparator<GLBitmapObject> {
         @Override
         public int compare(GLBitmapObject lhs, GLBitmapObject rhs) {
-            return lhs.getOrder() < rhs.getOrder() ? -1 : lhs.getOrder().equals(rhs.getOrder()) ? 0 : 1;
+            return Long.compare(lhs.getSortKey(), rhs.getSortKey());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+package com.ustwo.glbitmapcanvas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * ETC1 compressed pixel data, read from a PKM or KTX file, to be drawn by a {@link GLBitmapObject}
+ * without ever decoding it into a {@link android.graphics.Bitmap}. ETC1 holds no alpha, so
+ * translucent artwork carries a second ETC1 texture as its alpha plane, whose green channel is the
+ * alpha of the first.
+ *
+ * ETC1 encodes blocks of 4 x 4 pixels, so the encoded size is the image size rounded up to a multiple
+ * of 4. Objects only sample the image area of the texture.
+ *
+ * Create with {@link #read(InputStream)}, {@link #parse(byte[])}, or {@link ETC1Codec}, and draw with
+ * {@link GLBitmapRenderer#createCompressedBitmapObject(GLCompressedTexture, Integer)}.
+ */
+public final class GLCompressedTexture {
+    /**
+     * GL_OES_compressed_ETC1_RGB8_texture internal format
+     */
+    public static final int GL_ETC1_RGB8_OES = 0x8D64;
+
+    public static final int ETC1_BLOCK_SIZE = 4;
+    public static final int ETC1_BLOCK_BYTES = 8;
+
+    static final int PKM_HEADER_SIZE = 16;
+    private static final byte[] PKM_MAGIC = {'P', 'K', 'M', ' ', '1', '0'};
+    private static final int PKM_TYPE_ETC1_RGB_NO_MIPMAPS = 0;
+
+    static final int KTX_HEADER_SIZE = 64;
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_ENDIANNESS = 0x04030201;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mEncodedWidth;
+    private final int mEncodedHeight;
+    private final ByteBuffer mData;
+    private final GLCompressedTexture mAlphaPlane;
+
+    /**
+     * @param width The image width
+     * @param height The image height
+     * @param data The ETC1 blocks of the encoded image, row by row
+     * @param alphaPlane The alpha plane, of the same size, or null if the image is opaque
+     */
+    public GLCompressedTexture(int width, int height, ByteBuffer data, GLCompressedTexture alphaPlane) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(String.format("Size must be positive, was %d x %d", width, height));
+        }
+        mWidth = width;
+        mHeight = height;
+        mEncodedWidth = getEncodedSize(width);
+        mEncodedHeight = getEncodedSize(height);
+
+        int expected = getEncodedByteCount(width, height);
+        if(data.remaining() != expected) {
+            throw new IllegalArgumentException(String.format("%d x %d ETC1 data must be %d bytes, was %d", width, height, expected, data.remaining()));
+        }
+        if(alphaPlane != null) {
+            if(alphaPlane.getWidth() != width || alphaPlane.getHeight() != height) {
+                throw new IllegalArgumentException(String.format("Alpha plane must be %d x %d, was %d x %d", width, height, alphaPlane.getWidth(), alphaPlane.getHeight()));
+            }
+            if(alphaPlane.hasAlphaPlane()) {
+                throw new IllegalArgumentException("Alpha plane must not have an alpha plane of its own");
+            }
+        }
+        mData = toDirect(data);
+        mAlphaPlane = alphaPlane;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * The width of the encoded texture, the image width rounded up to whole blocks
+     */
+    public int getEncodedWidth() {
+        return mEncodedWidth;
+    }
+
+    /**
+     * The height of the encoded texture, the image height rounded up to whole blocks
+     */
+    public int getEncodedHeight() {
+        return mEncodedHeight;
+    }
+
+    /**
+     * The ETC1 blocks, in a direct buffer as passed to glCompressedTexImage2D. Read through
+     * {@link ByteBuffer#duplicate()} so the position isn't shared.
+     */
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    /**
+     * @return The alpha plane, or null if this texture is opaque
+     */
+    public GLCompressedTexture getAlphaPlane() {
+        return mAlphaPlane;
+    }
+
+    public boolean hasAlphaPlane() {
+        return mAlphaPlane != null;
+    }
+
+    /**
+     * This texture with the given alpha plane
+     * @param alphaPlane The alpha plane, or null for an opaque texture
+     */
+    public GLCompressedTexture withAlphaPlane(GLCompressedTexture alphaPlane) {
+        return new GLCompressedTexture(mWidth, mHeight, mData.duplicate(), alphaPlane);
+    }
+
+    /**
+     * The GPU memory held by this texture and its alpha plane
+     * @return The size in bytes
+     */
+    public long getByteCount() {
+        return mData.capacity() + (mAlphaPlane != null ? mAlphaPlane.getByteCount() : 0);
+    }
+
+    /**
+     * Write this texture, without its alpha plane, as a PKM file
+     * @param out The stream to write to, left open
+     */
+    public void writePKM(OutputStream out) throws IOException {
+        byte[] header = new byte[PKM_HEADER_SIZE];
+        System.arraycopy(PKM_MAGIC, 0, header, 0, PKM_MAGIC.length);
+        putShortBE(header, 6, PKM_TYPE_ETC1_RGB_NO_MIPMAPS);
+        putShortBE(header, 8, mEncodedWidth);
+        putShortBE(header, 10, mEncodedHeight);
+        putShortBE(header, 12, mWidth);
+        putShortBE(header, 14, mHeight);
+        out.write(header);
+
+        ByteBuffer data = mData.duplicate();
+        data.position(0);
+        byte[] chunk = new byte[Math.min(data.remaining(), 8192)];
+        while(data.hasRemaining()) {
+            int count = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
+
+    /**
+     * Read a PKM or KTX file, telling them apart by their header
+     * @param in The stream to read, left open
+     * @return The opaque texture
+     * @throws IOException If reading failed or the data isn't an ETC1 PKM or KTX file
+     */
+    public static GLCompressedTexture read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int count;
+        while((count = in.read(chunk)) != -1) {
+            bytes.write(chunk, 0, count);
+        }
+        return parse(bytes.toByteArray());
+    }
+
+    /**
+     * Parse a PKM or KTX file, telling them apart by their header
+     * @param file The file contents
+     * @return The opaque texture
+     * @throws IOException If the data isn't an ETC1 PKM or KTX file
+     */
+    public static GLCompressedTexture parse(byte[] file) throws IOException {
+        if(startsWith(file, KTX_IDENTIFIER)) {
+            return parseKTX(file);
+        }
+        if(startsWith(file, PKM_MAGIC)) {
+            return parsePKM(file);
+        }
+        throw new IOException("Not a PKM or KTX file");
+    }
+
+    /**
+     * Parse a PKM file: a 16 byte header, big endian, followed by the ETC1 blocks
+     */
+    static GLCompressedTexture parsePKM(byte[] file) throws IOException {
+        if(file.length < PKM_HEADER_SIZE || !startsWith(file, PKM_MAGIC)) {
+            throw new IOException("Not a PKM file");
+        }
+        int type = getShortBE(file, 6);
+        if(type != PKM_TYPE_ETC1_RGB_NO_MIPMAPS) {
+            throw new IOException(String.format("Unsupported PKM type %d", type));
+        }
+        int encodedWidth = getShortBE(file, 8);
+        int encodedHeight = getShortBE(file, 10);
+        int width = getShortBE(file, 12);
+        int height = getShortBE(file, 14);
+        if(width == 0 || height == 0 || encodedWidth != getEncodedSize(width) || encodedHeight != getEncodedSize(height)) {
+            throw new IOException(String.format("Invalid PKM size %d x %d, encoded %d x %d", width, height, encodedWidth, encodedHeight));
+        }
+
+        int byteCount = getEncodedByteCount(width, height);
+        if(file.length < PKM_HEADER_SIZE + byteCount) {
+            throw new IOException(String.format("Truncated PKM file, %d of %d data bytes", file.length - PKM_HEADER_SIZE, byteCount));
+        }
+        return new GLCompressedTexture(width, height, ByteBuffer.wrap(file, PKM_HEADER_SIZE, byteCount), null);
+    }
+
+    /**
+     * Parse a KTX file holding a single 2D ETC1 image, using its first mipmap level
+     */
+    static GLCompressedTexture parseKTX(byte[] file) throws IOException {
+        if(file.length < KTX_HEADER_SIZE || !startsWith(file, KTX_IDENTIFIER)) {
+            throw new IOException("Not a KTX file");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(KTX_IDENTIFIER.length);
+        int endianness = buffer.getInt();
+        if(endianness != KTX_ENDIANNESS) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.position(KTX_IDENTIFIER.length);
+            if(buffer.getInt() != KTX_ENDIANNESS) {
+                throw new IOException(String.format("Invalid KTX endianness 0x%08x", endianness));
+            }
+        }
+
+        int glType = buffer.getInt();
+        buffer.getInt(); // glTypeSize
+        int glFormat = buffer.getInt();
+        int glInternalFormat = buffer.getInt();
+        buffer.getInt(); // glBaseInternalFormat
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int depth = buffer.getInt();
+        int arrayElements = buffer.getInt();
+        int faces = buffer.getInt();
+        buffer.getInt(); // numberOfMipmapLevels, only the first is used
+        int keyValueBytes = buffer.getInt();
+
+        if(glType != 0 || glFormat != 0 || glInternalFormat != GL_ETC1_RGB8_OES) {
+            throw new IOException(String.format("Unsupported KTX format 0x%04x", glInternalFormat));
+        }
+        if(width <= 0 || height <= 0 || depth != 0 || arrayElements != 0 || faces != 1) {
+            throw new IOException(String.format("Unsupported KTX layout %d x %d x %d, %d elements, %d faces", width, height, depth, arrayElements, faces));
+        }
+        if(keyValueBytes < 0 || buffer.remaining() < keyValueBytes + 4) {
+            throw new IOException("Truncated KTX file");
+        }
+        buffer.position(buffer.position() + keyValueBytes);
+
+        int imageSize = buffer.getInt();
+        int byteCount = getEncodedByteCount(width, height);
+        if(imageSize != byteCount) {
+            throw new IOException(String.format("KTX image size must be %d bytes, was %d", byteCount, imageSize));
+        }
+        if(buffer.remaining() < byteCount) {
+            throw new IOException(String.format("Truncated KTX file, %d of %d data bytes", buffer.remaining(), byteCount));
+        }
+        return new GLCompressedTexture(width, height, ByteBuffer.wrap(file, buffer.position(), byteCount), null);
+    }
+
+    /**
+     * A size rounded up to whole ETC1 blocks
+     */
+    public static int getEncodedSize(int size) {
+        return (size + ETC1_BLOCK_SIZE - 1) / ETC1_BLOCK_SIZE * ETC1_BLOCK_SIZE;
+    }
+
+    /**
+     * The number of bytes of ETC1 data encoding an image of the given size
+     */
+    public static int getEncodedByteCount(int width, int height) {
+        return (getEncodedSize(width) / ETC1_BLOCK_SIZE) * (getEncodedSize(height) / ETC1_BLOCK_SIZE) * ETC1_BLOCK_BYTES;
+    }
+
+    private static ByteBuffer toDirect(ByteBuffer data) {
+        if(data.isDirect() && data.position() == 0 && data.capacity() == data.remaining()) {
+            return data;
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.remaining()).order(ByteOrder.nativeOrder());
+        direct.put(data.duplicate());
+        direct.position(0);
+        return direct;
+    }
+
+    private static boolean startsWith(byte[] file, byte[] prefix) {
+        if(file.length < prefix.length) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++) {
+            if(file[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getShortBE(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static void putShortBE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte)(value >> 8);
+        bytes[offset + 1] = (byte)value;
+    }
+}
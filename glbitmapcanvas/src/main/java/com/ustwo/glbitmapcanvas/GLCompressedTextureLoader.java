@@ -0,0 +1,184 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Loads {@link GLCompressedTexture}s from assets: PKM or KTX files compressed at build time, or images
+ * compressed with {@link ETC1Codec} on first run and cached as PKM files in the app's cache directory.
+ * Loading is file and CPU work, so should be done off the GL thread, creating the object with
+ * {@link GLBitmapRenderer#createCompressedBitmapObject(GLCompressedTexture, Integer)} through
+ * {@link GLBitmapRenderer#queue(Runnable)}.
+ */
+public final class GLCompressedTextureLoader {
+    private static final String TAG = GLCompressedTextureLoader.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "etc1";
+    private static final String PKM_EXTENSION = ".pkm";
+    private static final String ALPHA_PLANE_SUFFIX = ".alpha";
+
+    private GLCompressedTextureLoader() {
+    }
+
+    /**
+     * Load an opaque PKM or KTX asset
+     * @param context The context, used to read assets
+     * @param assetName The asset's filename, relative to the /assets/ folder
+     * @return The texture
+     */
+    public static GLCompressedTexture loadAsset(Context context, String assetName) throws IOException {
+        return loadAsset(context, assetName, null);
+    }
+
+    /**
+     * Load a PKM or KTX asset with an alpha plane, e.g. as produced by {@link #loadConverted(Context, String)}
+     * or by etc1tool from an image's alpha channel
+     * @param context The context, used to read assets
+     * @param assetName The color asset's filename, relative to the /assets/ folder
+     * @param alphaAssetName The alpha plane asset's filename, or null if the texture is opaque
+     * @return The texture
+     */
+    public static GLCompressedTexture loadAsset(Context context, String assetName, String alphaAssetName) throws IOException {
+        GLCompressedTexture texture = GLCompressedTexture.parse(readAsset(context, assetName));
+        if(alphaAssetName == null) {
+            return texture;
+        }
+        return texture.withAlphaPlane(GLCompressedTexture.parse(readAsset(context, alphaAssetName)));
+    }
+
+    /**
+     * Load an image asset (e.g. PNG) compressed to ETC1, with an alpha plane if it's translucent.
+     * The first load decodes and compresses the image, which takes a while for large images, and caches
+     * the result. Later loads read the cache, as long as the image asset is unchanged.
+     * @param context The context, used to read assets and find the cache directory
+     * @param imageAssetName The image's filename, relative to the /assets/ folder
+     * @return The texture
+     */
+    public static GLCompressedTexture loadConverted(Context context, String imageAssetName) throws IOException {
+        byte[] image = readAsset(context, imageAssetName);
+        CRC32 crc = new CRC32();
+        crc.update(image);
+
+        File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        String baseName = String.format("%s.%08x", imageAssetName.replace('/', '_'), crc.getValue());
+        File colorFile = new File(directory, baseName + PKM_EXTENSION);
+        File alphaFile = new File(directory, baseName + ALPHA_PLANE_SUFFIX + PKM_EXTENSION);
+
+        if(colorFile.isFile()) {
+            try {
+                GLCompressedTexture texture = GLCompressedTexture.parse(readFile(colorFile));
+                if(alphaFile.isFile()) {
+                    texture = texture.withAlphaPlane(GLCompressedTexture.parse(readFile(alphaFile)));
+                }
+                return texture;
+            } catch(IOException | IllegalArgumentException e) {
+                Log.w(TAG, String.format("Discarding unreadable cache of %s: %s", imageAssetName, e.getMessage()));
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // Color and alpha are compressed separately, so keep the color of translucent pixels intact
+        options.inPremultiplied = false;
+        Bitmap bitmap = BitmapFactory.decodeStream(new ByteArrayInputStream(image), null, options);
+        if(bitmap == null) {
+            throw new IOException(String.format("Can't decode image asset %s", imageAssetName));
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+
+        GLCompressedTexture texture = ETC1Codec.encodeWithAlpha(pixels, width, height);
+        Log.d(TAG, String.format("loadConverted: compressed %s (%d x %d) in %d ms", imageAssetName, width, height, System.currentTimeMillis() - start));
+
+        deleteStaleCache(directory, imageAssetName.replace('/', '_'));
+        try {
+            writeAtomically(texture, colorFile);
+            if(texture.hasAlphaPlane()) {
+                writeAtomically(texture.getAlphaPlane(), alphaFile);
+            }
+        } catch(IOException e) {
+            // The texture is still usable, it is compressed again next time
+            Log.w(TAG, String.format("Can't cache %s: %s", imageAssetName, e.getMessage()));
+        }
+        return texture;
+    }
+
+    /**
+     * Delete cached files of earlier versions of an asset
+     */
+    private static void deleteStaleCache(File directory, String assetPrefix) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            if(file.getName().startsWith(assetPrefix + ".")) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Write a PKM file next to its destination first, so a partly written file is never read
+     */
+    private static void writeAtomically(GLCompressedTexture texture, File file) throws IOException {
+        File directory = file.getParentFile();
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can't create %s", directory));
+        }
+        File temporary = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            texture.writePKM(out);
+        } finally {
+            out.close();
+        }
+        if(!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException(String.format("Can't rename %s", temporary));
+        }
+    }
+
+    private static byte[] readAsset(Context context, String assetName) throws IOException {
+        InputStream in = context.getAssets().open(assetName);
+        try {
+            return readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int count;
+        while((count = in.read(chunk)) != -1) {
+            bytes.write(chunk, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,215 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * A fixed set of characters rasterized once into an {@link GLPixelFormat#ALPHA_8} sprite sheet, from
+ * which {@link GLText}s draw strings as sprites of a single {@link GLSpriteBatch}. Changing a text
+ * only moves sprites, so it costs no rasterization and no texture upload, and all texts of an atlas
+ * are drawn in one draw call.
+ *
+ * Meant for small character sets, e.g. "0123456789:" for a time, or the letters of AM and PM.
+ * Characters outside the set aren't drawn.
+ *
+ * Create with {@link GLBitmapRenderer#createGlyphAtlas(Paint, String, int)}.
+ */
+public class GLGlyphAtlas {
+    private static final String TAG = GLGlyphAtlas.class.getSimpleName();
+
+    /**
+     * Transparent pixels around each glyph, so linear filtering never samples a neighbouring glyph
+     */
+    private static final int GLYPH_PADDING = 1;
+    private static final int MIN_SHEET_SIZE = 64;
+    private static final int MAX_SHEET_SIZE = 2048;
+
+    private final GLSpriteBatch mSpriteBatch;
+    private final GlyphMetrics mMetrics;
+    private final float mAscent;
+    private final float mDescent;
+
+    /**
+     * Per glyph: the padded cell in the sprite sheet (left, top, width, height), and the offset of
+     * the cell's top left corner from the pen position on the baseline
+     */
+    private final int[] mCells;
+    private final float[] mCellOffsets;
+
+    GLGlyphAtlas(GLSpriteBatch spriteBatch, GlyphMetrics metrics, int[] cells, float[] cellOffsets, float ascent, float descent) {
+        mSpriteBatch = spriteBatch;
+        mMetrics = metrics;
+        mCells = cells;
+        mCellOffsets = cellOffsets;
+        mAscent = ascent;
+        mDescent = descent;
+    }
+
+    /**
+     * Measure and rasterize the glyphs of a character set into a new sprite batch
+     */
+    static GLGlyphAtlas create(GLBitmapRenderer renderer, Paint paint, String characters, int capacity, Integer order) {
+        char[] sorted = characters.toCharArray();
+        Arrays.sort(sorted);
+        int count = 0;
+        for(int i = 0; i < sorted.length; i++) {
+            if(i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        if(count == 0) {
+            throw new IllegalArgumentException("The character set is empty");
+        }
+        char[] glyphs = Arrays.copyOf(sorted, count);
+
+        // Glyphs are drawn opaque and left aligned, only their coverage is kept
+        Paint glyphPaint = new Paint(paint);
+        glyphPaint.setColor(0xFFFFFFFF);
+        glyphPaint.setTextAlign(Paint.Align.LEFT);
+
+        float[] advances = new float[count];
+        int[] cells = new int[count * 4];
+        float[] cellOffsets = new float[count * 2];
+        Rect bounds = new Rect();
+        Rect[] glyphBounds = new Rect[count];
+        char[] pair = new char[2];
+        for(int i = 0; i < count; i++) {
+            pair[0] = glyphs[i];
+            advances[i] = glyphPaint.measureText(pair, 0, 1);
+            glyphPaint.getTextBounds(pair, 0, 1, bounds);
+            glyphBounds[i] = new Rect(bounds);
+        }
+
+        GlyphMetrics metrics = new GlyphMetrics(glyphs, advances);
+        for(int first = 0; first < count; first++) {
+            for(int second = 0; second < count; second++) {
+                pair[0] = glyphs[first];
+                pair[1] = glyphs[second];
+                float kerning = glyphPaint.measureText(pair, 0, 2) - advances[first] - advances[second];
+                // Ignore rounding noise
+                if(Math.abs(kerning) >= 0.05f) {
+                    metrics.setKerning(first, second, kerning);
+                }
+            }
+        }
+
+        int[] sheetSize = new int[2];
+        if(!pack(glyphBounds, cells, sheetSize)) {
+            throw new IllegalArgumentException(String.format("%d glyphs of text size %.0f don't fit a %d pixel sprite sheet", count, paint.getTextSize(), MAX_SHEET_SIZE));
+        }
+
+        for(int i = 0; i < count; i++) {
+            // From the pen position on the baseline to the padded cell's top left corner
+            cellOffsets[i * 2] = glyphBounds[i].left - GLYPH_PADDING;
+            cellOffsets[i * 2 + 1] = glyphBounds[i].top - GLYPH_PADDING;
+        }
+
+        GLSpriteBatch spriteBatch = renderer.createSpriteBatch(sheetSize[0], sheetSize[1], capacity, order, GLPixelFormat.ALPHA_8);
+        Canvas canvas = spriteBatch.getCanvas();
+        for(int i = 0; i < count; i++) {
+            if(glyphBounds[i].isEmpty()) {
+                continue;
+            }
+            pair[0] = glyphs[i];
+            canvas.drawText(pair, 0, 1, cells[i * 4] - cellOffsets[i * 2], cells[i * 4 + 1] - cellOffsets[i * 2 + 1], glyphPaint);
+        }
+        renderer.invalidateBitmapObject(spriteBatch);
+        Log.d(TAG, String.format("create: %d glyphs in %d x %d sheet", count, sheetSize[0], sheetSize[1]));
+
+        return new GLGlyphAtlas(spriteBatch, metrics, cells, cellOffsets, glyphPaint.ascent(), glyphPaint.descent());
+    }
+
+    /**
+     * Pack the padded glyph cells into the smallest square power of two sheet they fit, trimmed to
+     * the height used
+     */
+    private static boolean pack(Rect[] glyphBounds, int[] outCells, int[] outSheetSize) {
+        int[] position = new int[2];
+        for(int size = MIN_SHEET_SIZE; size <= MAX_SHEET_SIZE; size *= 2) {
+            SkylinePacker packer = new SkylinePacker(size, size);
+            int usedHeight = 0;
+            boolean packed = true;
+            for(int i = 0; i < glyphBounds.length && packed; i++) {
+                int width = glyphBounds[i].width() + GLYPH_PADDING * 2;
+                int height = glyphBounds[i].height() + GLYPH_PADDING * 2;
+                packed = packer.insert(width, height, position);
+                outCells[i * 4] = position[0];
+                outCells[i * 4 + 1] = position[1];
+                outCells[i * 4 + 2] = width;
+                outCells[i * 4 + 3] = height;
+                usedHeight = Math.max(usedHeight, position[1] + height);
+            }
+            if(packed) {
+                outSheetSize[0] = size;
+                outSheetSize[1] = usedHeight;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a text drawn from this atlas, initially empty
+     */
+    public GLText createText() {
+        return new GLText(this);
+    }
+
+    /**
+     * The sprite batch holding the glyphs, e.g. to set the order, visibility or color of all texts
+     */
+    public GLSpriteBatch getSpriteBatch() {
+        return mSpriteBatch;
+    }
+
+    /**
+     * Whether a character is in this atlas' character set
+     */
+    public boolean hasGlyph(char c) {
+        return mMetrics.indexOf(c) >= 0;
+    }
+
+    /**
+     * The width of a string drawn unscaled, with kerning. Characters outside the set are skipped.
+     */
+    public float measureText(CharSequence text) {
+        return mMetrics.measure(text);
+    }
+
+    /**
+     * The distance above the baseline, negative, as {@link Paint#ascent()}
+     */
+    public float getAscent() {
+        return mAscent;
+    }
+
+    /**
+     * The distance below the baseline, as {@link Paint#descent()}
+     */
+    public float getDescent() {
+        return mDescent;
+    }
+
+    GlyphMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Whether a glyph has pixels, as opposed to e.g. a space
+     */
+    boolean hasPixels(int glyph) {
+        return mCells[glyph * 4 + 2] > GLYPH_PADDING * 2 && mCells[glyph * 4 + 3] > GLYPH_PADDING * 2;
+    }
+
+    int[] getCells() {
+        return mCells;
+    }
+
+    float[] getCellOffsets() {
+        return mCellOffsets;
+    }
+}
@@ -0,0 +1,263 @@
+package com.ustwo.glbitmapcanvas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node grouping {@link GLBitmapObject}s and other groups, so they can be transformed, hidden and
+ * faded together. A group's transform applies on top of its children's own transforms, so e.g. 60
+ * tick marks positioned once around the center of the face are all rotated by one
+ * {@link #transformTo(float, float, float, float, float)} of their group.
+ *
+ * World transforms, visibility and alpha are cached and only recomputed when a group or one of its
+ * ancestors changed. Groups don't affect drawing order, which is still given by each object's order.
+ * When culling, a group lying entirely off-screen skips the tests of all its descendants.
+ *
+ * Create with {@link GLBitmapRenderer#createGroup()}. Must only be used on the GL thread.
+ */
+public class GLGroup {
+    private final int mSurfaceHeight;
+    private GLGroup mParent = null;
+    private final List<GLBitmapObject> mObjects = new ArrayList<>();
+    private final List<GLGroup> mGroups = new ArrayList<>();
+
+    private final float[] mLocal = new float[AffineTransforms.SIZE];
+    private final float[] mNewLocal = new float[AffineTransforms.SIZE];
+    private boolean mLocalChanged = true;
+    private float mAngleDegrees = 0f;
+    private float mSin = 0f;
+    private float mCos = 1f;
+    private boolean mIsVisible = true;
+    private float mAlpha = 1f;
+
+    /**
+     * World state, and the version of it, incremented whenever it is recomputed. Children compare
+     * the version with the one they last saw to know whether their own world state is stale.
+     */
+    private final float[] mWorld = new float[AffineTransforms.SIZE];
+    private boolean mWorldVisible = true;
+    private float mWorldAlpha = 1f;
+    private int mVersion = 0;
+    private int mParentVersion = -1;
+
+    /**
+     * Bounds of all visible descendants, and the culling decision, computed at most once per frame
+     */
+    private final ScreenRect mSubtreeBounds = new ScreenRect();
+    private long mSubtreeBoundsFrame = -1;
+    long mCullFrame = -1;
+    boolean mCulled = false;
+
+    GLGroup(int surfaceHeight) {
+        mSurfaceHeight = surfaceHeight;
+        AffineTransforms.setIdentity(mLocal);
+        AffineTransforms.setIdentity(mWorld);
+    }
+
+    public GLGroup getParent() {
+        return mParent;
+    }
+
+    /**
+     * Add an object to this group, removing it from its previous group
+     */
+    public void add(GLBitmapObject bitmapObject) {
+        if(bitmapObject.getParent() == this) {
+            return;
+        }
+        if(bitmapObject.getParent() != null) {
+            bitmapObject.getParent().remove(bitmapObject);
+        }
+        mObjects.add(bitmapObject);
+        bitmapObject.setParent(this);
+    }
+
+    /**
+     * Add a group to this group, removing it from its previous group
+     */
+    public void add(GLGroup group) {
+        if(group.mParent == this) {
+            return;
+        }
+        for(GLGroup ancestor = this; ancestor != null; ancestor = ancestor.mParent) {
+            if(ancestor == group) {
+                throw new IllegalArgumentException("A group can't be added to itself or its descendants");
+            }
+        }
+        if(group.mParent != null) {
+            group.mParent.remove(group);
+        }
+        mGroups.add(group);
+        group.mParent = this;
+        group.mParentVersion = -1;
+    }
+
+    public void remove(GLBitmapObject bitmapObject) {
+        if(mObjects.remove(bitmapObject)) {
+            bitmapObject.setParent(null);
+        }
+    }
+
+    public void remove(GLGroup group) {
+        if(mGroups.remove(group)) {
+            group.mParent = null;
+            group.mParentVersion = -1;
+            group.mLocalChanged = true;
+        }
+    }
+
+    public List<GLBitmapObject> getObjects() {
+        return Collections.unmodifiableList(mObjects);
+    }
+
+    public List<GLGroup> getGroups() {
+        return Collections.unmodifiableList(mGroups);
+    }
+
+    /**
+     * Rotate and scale this group around a pivot.
+     * @param angleDegrees Clockwise rotation
+     * @param scaleX Horizontal scale
+     * @param scaleY Vertical scale
+     * @param pivotX Horizontal position of the pivot on the surface
+     * @param pivotY Vertical position of the pivot on the surface, from the top
+     */
+    public void transformTo(float angleDegrees, float scaleX, float scaleY, float pivotX, float pivotY) {
+        transformTo(angleDegrees, scaleX, scaleY, pivotX, pivotY, 0f, 0f);
+    }
+
+    /**
+     * Rotate and scale this group around a pivot, then move it. Setting the current transform
+     * again changes nothing, so descendants aren't redrawn.
+     * @param angleDegrees Clockwise rotation
+     * @param scaleX Horizontal scale
+     * @param scaleY Vertical scale
+     * @param pivotX Horizontal position of the pivot on the surface
+     * @param pivotY Vertical position of the pivot on the surface, from the top
+     * @param translationX Horizontal movement, to the right
+     * @param translationY Vertical movement, downwards
+     */
+    public void transformTo(float angleDegrees, float scaleX, float scaleY, float pivotX, float pivotY, float translationX, float translationY) {
+        if(angleDegrees != mAngleDegrees) {
+            double radians = Math.toRadians(-angleDegrees);
+            mSin = (float)Math.sin(radians);
+            mCos = (float)Math.cos(radians);
+            mAngleDegrees = angleDegrees;
+        }
+        AffineTransforms.setRotateScale(mNewLocal, mSin, mCos, scaleX, scaleY,
+                pivotX, mSurfaceHeight - pivotY, translationX, -translationY);
+        // Setting the current transform again mustn't dirty every descendant
+        if(!Arrays.equals(mNewLocal, mLocal)) {
+            System.arraycopy(mNewLocal, 0, mLocal, 0, mLocal.length);
+            mLocalChanged = true;
+        }
+    }
+
+    public boolean isVisible() {
+        return mIsVisible;
+    }
+
+    /**
+     * Show or hide this group. Descendants are only drawn if all their ancestors are visible.
+     */
+    public void setVisible(boolean visible) {
+        if(mIsVisible != visible) {
+            mIsVisible = visible;
+            mLocalChanged = true;
+        }
+    }
+
+    public float getAlpha() {
+        return mAlpha;
+    }
+
+    /**
+     * Set the alpha by which the alpha of all descendants is multiplied
+     * @param alpha The alpha, in range 0.0 - 1.0
+     */
+    public void setAlpha(float alpha) {
+        if(mAlpha != alpha) {
+            mAlpha = alpha;
+            mLocalChanged = true;
+        }
+    }
+
+    /**
+     * Bring the world state up to date with this group's and its ancestors' state
+     */
+    void update() {
+        if(mParent != null) {
+            mParent.update();
+            if(mParent.mVersion != mParentVersion) {
+                mParentVersion = mParent.mVersion;
+                mLocalChanged = true;
+            }
+        }
+        if(!mLocalChanged) {
+            return;
+        }
+        mLocalChanged = false;
+
+        if(mParent != null) {
+            AffineTransforms.multiply(mParent.mWorld, mLocal, mWorld);
+            mWorldVisible = mParent.mWorldVisible && mIsVisible;
+            mWorldAlpha = mParent.mWorldAlpha * mAlpha;
+        } else {
+            System.arraycopy(mLocal, 0, mWorld, 0, AffineTransforms.SIZE);
+            mWorldVisible = mIsVisible;
+            mWorldAlpha = mAlpha;
+        }
+        mVersion++;
+    }
+
+    /**
+     * Only valid after {@link #update()}
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Only valid after {@link #update()}
+     */
+    float[] getWorldTransform() {
+        return mWorld;
+    }
+
+    /**
+     * Only valid after {@link #update()}
+     */
+    boolean isWorldVisible() {
+        return mWorldVisible;
+    }
+
+    /**
+     * Only valid after {@link #update()}
+     */
+    float getWorldAlpha() {
+        return mWorldAlpha;
+    }
+
+    /**
+     * The union of the bounds of all descendants drawn, computed once per frame
+     * @param frame The number of the frame being drawn
+     */
+    ScreenRect getSubtreeBounds(long frame) {
+        if(mSubtreeBoundsFrame != frame) {
+            mSubtreeBoundsFrame = frame;
+            mSubtreeBounds.setEmpty();
+            for(int i = 0; i < mObjects.size(); i++) {
+                GLBitmapObject bitmapObject = mObjects.get(i);
+                if(bitmapObject.isRenderWithGL() && bitmapObject.isVisibleInScene()) {
+                    mSubtreeBounds.union(bitmapObject.getBounds());
+                }
+            }
+            for(int i = 0; i < mGroups.size(); i++) {
+                mSubtreeBounds.union(mGroups.get(i).getSubtreeBounds(frame));
+            }
+        }
+        return mSubtreeBounds;
+    }
+}
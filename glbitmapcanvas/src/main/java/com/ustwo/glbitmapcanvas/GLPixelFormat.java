@@ -0,0 +1,89 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+/**
+ * The pixel format of a {@link GLBitmapObject}'s bitmap and texture. Layers that don't need four 8 bit
+ * channels can use a smaller format, cutting texture memory and upload bandwidth:
+ * opaque layers {@link #RGB_565}, and text and masks {@link #ALPHA_8} or {@link #LUMINANCE_8}.
+ *
+ * Mask formats hold a single coverage channel, drawn in the object's color by the standard program.
+ * Draw into their canvas as usual, only the alpha of what is drawn is kept.
+ */
+public enum GLPixelFormat {
+    /**
+     * 8 bit red, green, blue and premultiplied alpha. The default.
+     */
+    RGBA_8888(Bitmap.Config.ARGB_8888, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 4, null),
+
+    /**
+     * Opaque 5 bit red, 6 bit green and 5 bit blue
+     */
+    RGB_565(Bitmap.Config.RGB_565, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, 2, null),
+
+    /**
+     * 8 bit coverage, uploaded as a GL_ALPHA texture
+     */
+    ALPHA_8(Bitmap.Config.ALPHA_8, GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, 1, "a"),
+
+    /**
+     * 8 bit coverage, uploaded as a GL_LUMINANCE texture, for GPUs handling it better than GL_ALPHA
+     */
+    LUMINANCE_8(Bitmap.Config.ALPHA_8, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, 1, "r");
+
+    private final Bitmap.Config mBitmapConfig;
+    private final int mGLFormat;
+    private final int mGLType;
+    private final int mBytesPerPixel;
+    private final String mCoverageChannel;
+
+    GLPixelFormat(Bitmap.Config bitmapConfig, int glFormat, int glType, int bytesPerPixel, String coverageChannel) {
+        mBitmapConfig = bitmapConfig;
+        mGLFormat = glFormat;
+        mGLType = glType;
+        mBytesPerPixel = bytesPerPixel;
+        mCoverageChannel = coverageChannel;
+    }
+
+    /**
+     * The config of bitmaps holding pixels of this format
+     */
+    public Bitmap.Config getBitmapConfig() {
+        return mBitmapConfig;
+    }
+
+    /**
+     * The format of textures holding pixels of this format, e.g. GL_ALPHA
+     */
+    public int getGLFormat() {
+        return mGLFormat;
+    }
+
+    /**
+     * The type of texture pixel components, e.g. GL_UNSIGNED_SHORT_5_6_5
+     */
+    public int getGLType() {
+        return mGLType;
+    }
+
+    public int getBytesPerPixel() {
+        return mBytesPerPixel;
+    }
+
+    /**
+     * Whether this format holds coverage only, drawn in the object's color
+     */
+    public boolean isMask() {
+        return mCoverageChannel != null;
+    }
+
+    /**
+     * The texture channel a shader samples coverage from, e.g. "a"
+     *
+     * @return The channel, or null if this format isn't a mask
+     */
+    public String getCoverageChannel() {
+        return mCoverageChannel;
+    }
+}
@@ -0,0 +1,332 @@
+package com.ustwo.glbitmapcanvas;
+
+/**
+ * A {@link GLBitmapObject} whose bitmap is a sprite sheet, drawn as many sprites showing parts of it.
+ * Sprite state lives in primitive arrays addressed by int handles, and the renderer streams it
+ * straight into its batch vertex buffer, so thousands of sprites can be changed and drawn each frame
+ * without allocating.
+ *
+ * The batch as a whole is placed among other objects by its order, visibility and color, which
+ * multiplies every sprite's color. Within the batch, sprites are drawn by their own order. Sprites are
+ * positioned in surface coordinates, the transform of the batch itself and of any {@link GLGroup} it
+ * belongs to is not used, and sprites are always drawn with the renderer's batch program.
+ *
+ * Create with {@link GLBitmapRenderer#createSpriteBatch(int, int, int)}.
+ */
+public class GLSpriteBatch extends GLBitmapObject {
+    private static final int AFFINE_FLOATS = 6;
+    private static final int COLOR_FLOATS = 4;
+    private static final int UV_FLOATS = 4;
+
+    private final int mCapacity;
+    private final int mSurfaceHeight;
+
+    /**
+     * Per handle: surface space affine transform of the unit quad (a, b, c, d, tx, ty), color, UV rect
+     * (u, v, width, height), visibility, order and whether the handle is in use
+     */
+    private final float[] mTransforms;
+    private final float[] mColors;
+    private final float[] mUVRects;
+    private final boolean[] mVisible;
+    private final int[] mOrders;
+    private final boolean[] mAlive;
+
+    /**
+     * Stack of unused handles
+     */
+    private final int[] mFreeHandles;
+    private int mFreeCount;
+
+    /**
+     * Handles in use, in drawing order
+     */
+    private final int[] mDrawOrder;
+    private int mSpriteCount = 0;
+    private boolean mDrawOrderValid = true;
+
+    private final ScreenRect mSpriteBounds = new ScreenRect();
+    private final ScreenRect mScratchBounds = new ScreenRect();
+    private boolean mSpriteBoundsValid = false;
+
+    GLSpriteBatch(int textureRef, int bitmapWidth, int bitmapHeight, int surfaceWidth, int surfaceHeight, int order, int capacity, GLPixelFormat pixelFormat, BitmapPool bitmapPool) {
+        super(textureRef, bitmapWidth, bitmapHeight, surfaceWidth, surfaceHeight, order, true, pixelFormat, bitmapPool);
+        if(capacity <= 0) {
+            throw new IllegalArgumentException(String.format("capacity must be positive, was %d", capacity));
+        }
+
+        mCapacity = capacity;
+        mSurfaceHeight = surfaceHeight;
+        mTransforms = new float[capacity * AFFINE_FLOATS];
+        mColors = new float[capacity * COLOR_FLOATS];
+        mUVRects = new float[capacity * UV_FLOATS];
+        mVisible = new boolean[capacity];
+        mOrders = new int[capacity];
+        mAlive = new boolean[capacity];
+        mDrawOrder = new int[capacity];
+
+        mFreeHandles = new int[capacity];
+        for(int i = 0; i < capacity; i++) {
+            // Hand out low handles first
+            mFreeHandles[i] = capacity - 1 - i;
+        }
+        mFreeCount = capacity;
+    }
+
+    /**
+     * The maximum number of sprites in this batch
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * The number of sprites currently in this batch
+     */
+    public int getSpriteCount() {
+        return mSpriteCount;
+    }
+
+    /**
+     * Add a sprite showing part of the sprite sheet, unscaled and centered at the surface origin, and
+     * drawn after all sprites of the same order.
+     * @param srcLeft Left of the part of the sprite sheet shown, in bitmap pixels
+     * @param srcTop Top of the part of the sprite sheet shown, in bitmap pixels
+     * @param srcWidth Width of the part of the sprite sheet shown, in bitmap pixels
+     * @param srcHeight Height of the part of the sprite sheet shown, in bitmap pixels
+     * @return The sprite's handle, valid until it is removed
+     */
+    public int addSprite(int srcLeft, int srcTop, int srcWidth, int srcHeight) {
+        if(mFreeCount == 0) {
+            throw new IllegalStateException(String.format("Sprite batch is full (%d sprites)", mCapacity));
+        }
+
+        int handle = mFreeHandles[--mFreeCount];
+        mAlive[handle] = true;
+        mVisible[handle] = true;
+        mOrders[handle] = 0;
+        int color = handle * COLOR_FLOATS;
+        mColors[color] = 1f;
+        mColors[color + 1] = 1f;
+        mColors[color + 2] = 1f;
+        mColors[color + 3] = 1f;
+        setSpriteSource(handle, srcLeft, srcTop, srcWidth, srcHeight);
+        transformSprite(handle, 0f, 1f, 1f, 0f, 0f);
+
+        mDrawOrder[mSpriteCount++] = handle;
+        if(mSpriteCount > 1 && mOrders[mDrawOrder[mSpriteCount - 2]] > 0) {
+            mDrawOrderValid = false;
+        }
+        return handle;
+    }
+
+    /**
+     * Remove a sprite, freeing its handle for reuse
+     */
+    public void removeSprite(int handle) {
+        checkHandle(handle);
+        mAlive[handle] = false;
+        mFreeHandles[mFreeCount++] = handle;
+
+        for(int i = 0; i < mSpriteCount; i++) {
+            if(mDrawOrder[i] == handle) {
+                System.arraycopy(mDrawOrder, i + 1, mDrawOrder, i, mSpriteCount - i - 1);
+                break;
+            }
+        }
+        mSpriteCount--;
+        onSpritesChanged(DIRTY_VISIBILITY);
+    }
+
+    /**
+     * Remove all sprites
+     */
+    public void clearSprites() {
+        for(int i = 0; i < mSpriteCount; i++) {
+            int handle = mDrawOrder[i];
+            mAlive[handle] = false;
+            mFreeHandles[mFreeCount++] = handle;
+        }
+        mSpriteCount = 0;
+        mDrawOrderValid = true;
+        onSpritesChanged(DIRTY_VISIBILITY);
+    }
+
+    /**
+     * Change the part of the sprite sheet a sprite shows. The sprite keeps its transform, so its size
+     * only changes at the next {@link #transformSprite(int, float, float, float, float, float)}.
+     */
+    public void setSpriteSource(int handle, int srcLeft, int srcTop, int srcWidth, int srcHeight) {
+        checkHandle(handle);
+        int uv = handle * UV_FLOATS;
+        mUVRects[uv] = (float)srcLeft / mBitmapWidth;
+        mUVRects[uv + 1] = (float)srcTop / mBitmapHeight;
+        mUVRects[uv + 2] = (float)srcWidth / mBitmapWidth;
+        mUVRects[uv + 3] = (float)srcHeight / mBitmapHeight;
+        onSpritesChanged(DIRTY_TEXTURE);
+    }
+
+    /**
+     * Place a sprite, the same way {@link GLBitmapObject#transformTo(float, float, float, float, float)}
+     * places an object.
+     * @param angleDegrees Clockwise rotation around the sprite's center
+     * @param scaleX Horizontal scale of the sprite's source size
+     * @param scaleY Vertical scale of the sprite's source size
+     * @param centerPositionX Horizontal position of the sprite's center on the surface
+     * @param centerPositionY Vertical position of the sprite's center on the surface, from the top
+     */
+    public void transformSprite(int handle, float angleDegrees, float scaleX, float scaleY, float centerPositionX, float centerPositionY) {
+        checkHandle(handle);
+        int uv = handle * UV_FLOATS;
+        float width = mUVRects[uv + 2] * mBitmapWidth * scaleX;
+        float height = mUVRects[uv + 3] * mBitmapHeight * scaleY;
+        float anchorX = width * 0.5f;
+        float anchorY = height * 0.5f;
+
+        double radians = Math.toRadians(-angleDegrees);
+        float cos = (float)Math.cos(radians);
+        float sin = (float)Math.sin(radians);
+
+        // translate(position) * rotate(-angle) * translate(-anchor) * scale(size), in surface space
+        int t = handle * AFFINE_FLOATS;
+        mTransforms[t] = cos * width;
+        mTransforms[t + 1] = sin * width;
+        mTransforms[t + 2] = -sin * height;
+        mTransforms[t + 3] = cos * height;
+        mTransforms[t + 4] = centerPositionX - cos * anchorX + sin * anchorY;
+        mTransforms[t + 5] = (mSurfaceHeight - centerPositionY) - sin * anchorX - cos * anchorY;
+        onSpritesChanged(DIRTY_TRANSFORM);
+    }
+
+    public void setSpriteColor(int handle, float r, float g, float b, float a) {
+        checkHandle(handle);
+        int color = handle * COLOR_FLOATS;
+        mColors[color] = r;
+        mColors[color + 1] = g;
+        mColors[color + 2] = b;
+        mColors[color + 3] = a;
+        invalidate(DIRTY_COLOR);
+    }
+
+    public void setSpriteAlpha(int handle, float alpha) {
+        checkHandle(handle);
+        mColors[handle * COLOR_FLOATS + 3] = alpha;
+        invalidate(DIRTY_COLOR);
+    }
+
+    public boolean isSpriteVisible(int handle) {
+        checkHandle(handle);
+        return mVisible[handle];
+    }
+
+    public void setSpriteVisible(int handle, boolean visible) {
+        checkHandle(handle);
+        if(mVisible[handle] != visible) {
+            mVisible[handle] = visible;
+            onSpritesChanged(DIRTY_VISIBILITY);
+        }
+    }
+
+    public int getSpriteOrder(int handle) {
+        checkHandle(handle);
+        return mOrders[handle];
+    }
+
+    /**
+     * Set the order in which a sprite is drawn within this batch. Sprites of equal order are drawn in
+     * the order they were added.
+     */
+    public void setSpriteOrder(int handle, int order) {
+        checkHandle(handle);
+        if(mOrders[handle] != order) {
+            mOrders[handle] = order;
+            mDrawOrderValid = false;
+            invalidate(DIRTY_ORDER);
+        }
+    }
+
+    /**
+     * Sprite batches are always drawn with the renderer's batch program
+     */
+    @Override
+    boolean isCustomProgramSupported() {
+        return false;
+    }
+
+    /**
+     * The union of the bounds of all visible sprites
+     */
+    @Override
+    ScreenRect getBounds() {
+        if(!mSpriteBoundsValid) {
+            mSpriteBounds.setEmpty();
+            for(int i = 0; i < mSpriteCount; i++) {
+                int handle = mDrawOrder[i];
+                if(mVisible[handle]) {
+                    getSpriteBounds(handle, mScratchBounds);
+                    mSpriteBounds.union(mScratchBounds);
+                }
+            }
+            mSpriteBoundsValid = true;
+        }
+        return mSpriteBounds;
+    }
+
+    void getSpriteBounds(int handle, ScreenRect out) {
+        out.setToTransformedUnitQuad(mTransforms, handle * AFFINE_FLOATS);
+    }
+
+    /**
+     * Handles in drawing order, valid up to {@link #getSpriteCount()}
+     */
+    int[] getDrawOrder() {
+        if(!mDrawOrderValid) {
+            sortDrawOrder();
+        }
+        return mDrawOrder;
+    }
+
+    boolean isSpriteVisibleUnchecked(int handle) {
+        return mVisible[handle];
+    }
+
+    float[] getTransforms() {
+        return mTransforms;
+    }
+
+    float[] getColors() {
+        return mColors;
+    }
+
+    float[] getUVRects() {
+        return mUVRects;
+    }
+
+    /**
+     * Stable insertion sort by sprite order, close to linear when few orders changed
+     */
+    private void sortDrawOrder() {
+        for(int i = 1; i < mSpriteCount; i++) {
+            int handle = mDrawOrder[i];
+            int order = mOrders[handle];
+            int j = i - 1;
+            while(j >= 0 && mOrders[mDrawOrder[j]] > order) {
+                mDrawOrder[j + 1] = mDrawOrder[j];
+                j--;
+            }
+            mDrawOrder[j + 1] = handle;
+        }
+        mDrawOrderValid = true;
+    }
+
+    private void onSpritesChanged(int dirtyFlags) {
+        mSpriteBoundsValid = false;
+        invalidate(dirtyFlags);
+    }
+
+    private void checkHandle(int handle) {
+        if(handle < 0 || handle >= mCapacity || !mAlive[handle]) {
+            throw new IllegalArgumentException(String.format("Invalid sprite handle %d", handle));
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.opengl.GLES20;
+
+/**
+ * Shadows the GL state changed by this library, skipping calls that would set a value that is
+ * already current. All GL state changes made by {@link GLBitmapRenderer} and the classes it owns go
+ * through one instance, so the shadow stays correct across frames.
+ *
+ * Code changing any of the tracked state directly (e.g. a custom
+ * {@link com.ustwo.glbitmapcanvas.programs.GLProgram} binding extra textures) must either go
+ * through {@link GLBitmapRenderer#getStateCache()} or call {@link #invalidate()} afterwards.
+ *
+ * Must only be used on the GL thread.
+ */
+public class GLStateCache {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TRACKED_TEXTURE_UNITS = 8;
+    private static final int MAX_TRACKED_ATTRIBUTES = 32;
+
+    private int mProgram;
+    private int mActiveTextureUnit;
+    private final int[] mBoundTextures = new int[MAX_TRACKED_TEXTURE_UNITS];
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+    private int mBlendEnabled;
+    private int mBlendSrc;
+    private int mBlendDst;
+    private int mCullFaceEnabled;
+    private int mViewportX;
+    private int mViewportY;
+    private int mViewportWidth;
+    private int mViewportHeight;
+    private int mScissorTestEnabled;
+    private int mScissorX;
+    private int mScissorY;
+    private int mScissorWidth;
+    private int mScissorHeight;
+
+    /**
+     * Bit set of attribute arrays known to be enabled, and of attribute arrays whose state is known
+     */
+    private int mEnabledAttributes;
+    private int mKnownAttributes;
+
+    private final int[] mInts = new int[1];
+    private int mIssuedCount = 0;
+    private int mSkippedCount = 0;
+
+    public GLStateCache() {
+        invalidate();
+    }
+
+    /**
+     * Forget all shadowed state, so every following call is issued. Call when the GL context is
+     * re-created, or when state was changed without going through this cache.
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mActiveTextureUnit = UNKNOWN;
+        for(int i = 0; i < mBoundTextures.length; i++) {
+            mBoundTextures[i] = UNKNOWN;
+        }
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mBlendEnabled = UNKNOWN;
+        mBlendSrc = UNKNOWN;
+        mBlendDst = UNKNOWN;
+        mCullFaceEnabled = UNKNOWN;
+        mViewportX = UNKNOWN;
+        mViewportY = UNKNOWN;
+        mViewportWidth = UNKNOWN;
+        mViewportHeight = UNKNOWN;
+        mScissorTestEnabled = UNKNOWN;
+        mScissorX = UNKNOWN;
+        mScissorY = UNKNOWN;
+        mScissorWidth = UNKNOWN;
+        mScissorHeight = UNKNOWN;
+        mEnabledAttributes = 0;
+        mKnownAttributes = 0;
+    }
+
+    public void useProgram(int program) {
+        if(mProgram == program) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        mProgram = program;
+        mIssuedCount++;
+    }
+
+    /**
+     * @param unit The texture unit, e.g. {@link GLES20#GL_TEXTURE0}
+     */
+    public void activeTexture(int unit) {
+        if(mActiveTextureUnit == unit) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glActiveTexture(unit);
+        mActiveTextureUnit = unit;
+        mIssuedCount++;
+    }
+
+    /**
+     * Bind a texture to the {@link GLES20#GL_TEXTURE_2D} target of the active texture unit
+     */
+    public void bindTexture(int texture) {
+        int index = getActiveTextureIndex();
+        if(index != UNKNOWN && mBoundTextures[index] == texture) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        if(index != UNKNOWN) {
+            mBoundTextures[index] = texture;
+        }
+        mIssuedCount++;
+    }
+
+    /**
+     * Delete a texture. GL unbinds deleted textures, so the shadowed bindings are updated to match.
+     */
+    public void deleteTexture(int texture) {
+        mInts[0] = texture;
+        GLES20.glDeleteTextures(1, mInts, 0);
+        for(int i = 0; i < mBoundTextures.length; i++) {
+            if(mBoundTextures[i] == texture) {
+                mBoundTextures[i] = 0;
+            }
+        }
+        mIssuedCount++;
+    }
+
+    /**
+     * @param target {@link GLES20#GL_ARRAY_BUFFER} or {@link GLES20#GL_ELEMENT_ARRAY_BUFFER}
+     */
+    public void bindBuffer(int target, int buffer) {
+        if(target == GLES20.GL_ARRAY_BUFFER) {
+            if(mArrayBuffer == buffer) {
+                mSkippedCount++;
+                return;
+            }
+            mArrayBuffer = buffer;
+        } else if(target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if(mElementArrayBuffer == buffer) {
+                mSkippedCount++;
+                return;
+            }
+            mElementArrayBuffer = buffer;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        mIssuedCount++;
+    }
+
+    /**
+     * Delete buffers. GL unbinds deleted buffers, so the shadowed bindings are updated to match.
+     */
+    public void deleteBuffers(int count, int[] buffers) {
+        GLES20.glDeleteBuffers(count, buffers, 0);
+        for(int i = 0; i < count; i++) {
+            if(mArrayBuffer == buffers[i]) {
+                mArrayBuffer = 0;
+            }
+            if(mElementArrayBuffer == buffers[i]) {
+                mElementArrayBuffer = 0;
+            }
+        }
+        mIssuedCount++;
+    }
+
+    public void setBlendEnabled(boolean enabled) {
+        mBlendEnabled = setCapability(GLES20.GL_BLEND, mBlendEnabled, enabled);
+    }
+
+    public void blendFunc(int src, int dst) {
+        if(mBlendSrc == src && mBlendDst == dst) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glBlendFunc(src, dst);
+        mBlendSrc = src;
+        mBlendDst = dst;
+        mIssuedCount++;
+    }
+
+    public void setCullFaceEnabled(boolean enabled) {
+        mCullFaceEnabled = setCapability(GLES20.GL_CULL_FACE, mCullFaceEnabled, enabled);
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if(mViewportX == x && mViewportY == y && mViewportWidth == width && mViewportHeight == height) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glViewport(x, y, width, height);
+        mViewportX = x;
+        mViewportY = y;
+        mViewportWidth = width;
+        mViewportHeight = height;
+        mIssuedCount++;
+    }
+
+    public void setScissorTestEnabled(boolean enabled) {
+        mScissorTestEnabled = setCapability(GLES20.GL_SCISSOR_TEST, mScissorTestEnabled, enabled);
+    }
+
+    public void scissor(int x, int y, int width, int height) {
+        if(mScissorX == x && mScissorY == y && mScissorWidth == width && mScissorHeight == height) {
+            mSkippedCount++;
+            return;
+        }
+        GLES20.glScissor(x, y, width, height);
+        mScissorX = x;
+        mScissorY = y;
+        mScissorWidth = width;
+        mScissorHeight = height;
+        mIssuedCount++;
+    }
+
+    public void enableVertexAttribArray(int index) {
+        setVertexAttribArrayEnabled(index, true);
+    }
+
+    public void disableVertexAttribArray(int index) {
+        setVertexAttribArrayEnabled(index, false);
+    }
+
+    private void setVertexAttribArrayEnabled(int index, boolean enabled) {
+        if(index < 0) {
+            // Attribute not active in the program
+            return;
+        }
+        if(index < MAX_TRACKED_ATTRIBUTES) {
+            int bit = 1 << index;
+            if((mKnownAttributes & bit) != 0 && ((mEnabledAttributes & bit) != 0) == enabled) {
+                mSkippedCount++;
+                return;
+            }
+            mKnownAttributes |= bit;
+            mEnabledAttributes = enabled ? (mEnabledAttributes | bit) : (mEnabledAttributes & ~bit);
+        }
+        if(enabled) {
+            GLES20.glEnableVertexAttribArray(index);
+        } else {
+            GLES20.glDisableVertexAttribArray(index);
+        }
+        mIssuedCount++;
+    }
+
+    private int setCapability(int capability, int current, boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if(current == value) {
+            mSkippedCount++;
+            return current;
+        }
+        if(enabled) {
+            GLES20.glEnable(capability);
+        } else {
+            GLES20.glDisable(capability);
+        }
+        mIssuedCount++;
+        return value;
+    }
+
+    private int getActiveTextureIndex() {
+        if(mActiveTextureUnit == UNKNOWN) {
+            return UNKNOWN;
+        }
+        int index = mActiveTextureUnit - GLES20.GL_TEXTURE0;
+        return (index >= 0 && index < MAX_TRACKED_TEXTURE_UNITS) ? index : UNKNOWN;
+    }
+
+    /**
+     * Reset the issued and skipped call counters, usually at the start of each frame
+     */
+    public void resetCounters() {
+        mIssuedCount = 0;
+        mSkippedCount = 0;
+    }
+
+    /**
+     * The number of GL calls issued since the counters were last reset
+     */
+    public int getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * The number of GL calls skipped as redundant since the counters were last reset
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
@@ -0,0 +1,228 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.graphics.Paint;
+
+/**
+ * A single line string drawn from a {@link GLGlyphAtlas}, as one sprite per glyph in the atlas'
+ * sprite batch. Setting a new string reuses the sprites, adding ones only when the string grows
+ * beyond any earlier string, so updating e.g. a time every second doesn't allocate.
+ *
+ * The text is placed by an anchor on its baseline, in surface coordinates from the top left, like
+ * sprites of a {@link GLSpriteBatch}. Create with {@link GLGlyphAtlas#createText()}.
+ */
+public class GLText {
+    private final GLGlyphAtlas mAtlas;
+    private final StringBuilder mText = new StringBuilder();
+
+    /**
+     * Sprite handles owned by this text, the first mUsedCount of which show the current string
+     */
+    private int[] mHandles = new int[0];
+    private int mHandleCount = 0;
+    private int mUsedCount = 0;
+
+    /**
+     * Layout scratch, as long as the longest string so far
+     */
+    private int[] mGlyphs = new int[0];
+    private float[] mPenX = new float[0];
+
+    private float mX = 0f;
+    private float mY = 0f;
+    private float mScale = 1f;
+    private Paint.Align mAlign = Paint.Align.LEFT;
+    private final float[] mColor = new float[]{1f, 1f, 1f, 1f};
+    private boolean mIsVisible = true;
+
+    GLText(GLGlyphAtlas atlas) {
+        mAtlas = atlas;
+    }
+
+    public GLGlyphAtlas getAtlas() {
+        return mAtlas;
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * Show a new string. Characters outside the atlas' character set are skipped. Does nothing if the
+     * string didn't change.
+     * @throws IllegalStateException If the atlas' sprite batch has no room for the glyphs
+     */
+    public void setText(CharSequence text) {
+        if(contentEquals(mText, text)) {
+            return;
+        }
+        mText.setLength(0);
+        mText.append(text);
+        layout();
+    }
+
+    /**
+     * Place the text
+     * @param x Horizontal position of the anchor, which lies at the left, center or right of the text
+     *          depending on its alignment
+     * @param y Vertical position of the baseline, from the top
+     */
+    public void setPosition(float x, float y) {
+        if(mX != x || mY != y) {
+            mX = x;
+            mY = y;
+            layout();
+        }
+    }
+
+    public float getX() {
+        return mX;
+    }
+
+    public float getY() {
+        return mY;
+    }
+
+    /**
+     * Set where the text lies relative to its anchor, as {@link Paint#setTextAlign(Paint.Align)}.
+     * Default is {@link Paint.Align#LEFT}.
+     */
+    public void setAlign(Paint.Align align) {
+        if(mAlign != align) {
+            mAlign = align;
+            layout();
+        }
+    }
+
+    public Paint.Align getAlign() {
+        return mAlign;
+    }
+
+    /**
+     * Scale the glyphs relative to the text size they were rasterized at. Scaling up blurs them, so
+     * prefer an atlas of the largest size drawn.
+     */
+    public void setScale(float scale) {
+        if(mScale != scale) {
+            mScale = scale;
+            layout();
+        }
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public void setColor(float r, float g, float b, float a) {
+        mColor[0] = r;
+        mColor[1] = g;
+        mColor[2] = b;
+        mColor[3] = a;
+        GLSpriteBatch spriteBatch = mAtlas.getSpriteBatch();
+        for(int i = 0; i < mHandleCount; i++) {
+            spriteBatch.setSpriteColor(mHandles[i], r, g, b, a);
+        }
+    }
+
+    public boolean isVisible() {
+        return mIsVisible;
+    }
+
+    public void setVisible(boolean visible) {
+        if(mIsVisible != visible) {
+            mIsVisible = visible;
+            GLSpriteBatch spriteBatch = mAtlas.getSpriteBatch();
+            for(int i = 0; i < mUsedCount; i++) {
+                spriteBatch.setSpriteVisible(mHandles[i], visible);
+            }
+        }
+    }
+
+    /**
+     * The width of the current string, scaled
+     */
+    public float getWidth() {
+        return mAtlas.measureText(mText) * mScale;
+    }
+
+    /**
+     * Remove this text's sprites from the atlas' sprite batch. The text must not be used afterwards.
+     */
+    public void remove() {
+        GLSpriteBatch spriteBatch = mAtlas.getSpriteBatch();
+        for(int i = 0; i < mHandleCount; i++) {
+            spriteBatch.removeSprite(mHandles[i]);
+        }
+        mHandleCount = 0;
+        mUsedCount = 0;
+    }
+
+    /**
+     * Point a sprite at each glyph with pixels, and hide the sprites left over
+     */
+    private void layout() {
+        int length = mText.length();
+        if(mGlyphs.length < length) {
+            mGlyphs = new int[length];
+            mPenX = new float[length];
+        }
+
+        float alignment = (mAlign == Paint.Align.CENTER) ? 0.5f : (mAlign == Paint.Align.RIGHT ? 1f : 0f);
+        GlyphMetrics metrics = mAtlas.getMetrics();
+        int count = metrics.layout(mText, alignment, mGlyphs, mPenX);
+
+        GLSpriteBatch spriteBatch = mAtlas.getSpriteBatch();
+        int[] cells = mAtlas.getCells();
+        float[] offsets = mAtlas.getCellOffsets();
+        int used = 0;
+        for(int i = 0; i < count; i++) {
+            int glyph = mGlyphs[i];
+            if(!mAtlas.hasPixels(glyph)) {
+                continue;
+            }
+            int c = glyph * 4;
+            int handle;
+            if(used < mHandleCount) {
+                handle = mHandles[used];
+                spriteBatch.setSpriteSource(handle, cells[c], cells[c + 1], cells[c + 2], cells[c + 3]);
+            } else {
+                handle = spriteBatch.addSprite(cells[c], cells[c + 1], cells[c + 2], cells[c + 3]);
+                spriteBatch.setSpriteColor(handle, mColor[0], mColor[1], mColor[2], mColor[3]);
+                addHandle(handle);
+            }
+            spriteBatch.setSpriteVisible(handle, mIsVisible);
+
+            // Whole pixels keep unscaled glyphs sampled 1:1
+            float left = Math.round(mX + (mPenX[i] + offsets[glyph * 2]) * mScale);
+            float top = Math.round(mY + offsets[glyph * 2 + 1] * mScale);
+            spriteBatch.transformSprite(handle, 0f, mScale, mScale,
+                    left + cells[c + 2] * mScale * 0.5f, top + cells[c + 3] * mScale * 0.5f);
+            used++;
+        }
+
+        for(int i = used; i < mUsedCount; i++) {
+            spriteBatch.setSpriteVisible(mHandles[i], false);
+        }
+        mUsedCount = used;
+    }
+
+    private void addHandle(int handle) {
+        if(mHandleCount == mHandles.length) {
+            int[] handles = new int[Math.max(8, mHandles.length * 2)];
+            System.arraycopy(mHandles, 0, handles, 0, mHandleCount);
+            mHandles = handles;
+        }
+        mHandles[mHandleCount++] = handle;
+    }
+
+    private static boolean contentEquals(CharSequence a, CharSequence b) {
+        if(a.length() != b.length()) {
+            return false;
+        }
+        for(int i = 0; i < a.length(); i++) {
+            if(a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,450 @@
+package com.ustwo.glbitmapcanvas;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs small {@link GLBitmapObject}s into one or a few large textures ("pages"), so that they
+ * share a texture and can be drawn in a single batch. Each object is given a sub-rectangle of a
+ * page, exposed to shaders through {@link GLBitmapObject#getUVRect()}.
+ *
+ * Pages start at the initial size and double when full, up to the maximum size, before another
+ * page is added. When objects are destroyed, pages that have become too fragmented are repacked,
+ * re-uploading the remaining objects from their {@link Bitmap}s. Objects that don't fit again are
+ * moved to textures of their own.
+ *
+ * All methods must be called on the GL thread of the owning {@link GLBitmapRenderer}.
+ */
+public class GLTextureAtlas {
+    private static final String TAG = GLTextureAtlas.class.getSimpleName();
+
+    public static final int DEFAULT_INITIAL_PAGE_SIZE = 256;
+    public static final int DEFAULT_MAX_PAGE_SIZE = 1024;
+    public static final int DEFAULT_MAX_PAGES = 4;
+
+    /**
+     * Transparent pixels left between packed objects so linear filtering doesn't bleed neighbours in
+     */
+    private static final int PADDING = 1;
+
+    /**
+     * A page is repacked once this fraction of its area is wasted
+     */
+    private static final float REPACK_WASTE_FRACTION = 0.25f;
+
+    private final GLStateCache mStateCache;
+    private final int mInitialPageSize;
+    private final int mMaxPageSize;
+    private final int mMaxPages;
+    private final List<Page> mPages = new ArrayList<>();
+    private final int[] mPosition = new int[2];
+    private final int[] mTextures = new int[1];
+
+    GLTextureAtlas(GLStateCache stateCache) {
+        this(stateCache, DEFAULT_INITIAL_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param stateCache The state cache of the owning renderer
+     * @param initialPageSize The width and height of newly created pages. Must be a power of two.
+     * @param maxPageSize The width and height pages can grow to. Must be a power of two.
+     * @param maxPages The maximum number of pages
+     */
+    GLTextureAtlas(GLStateCache stateCache, int initialPageSize, int maxPageSize, int maxPages) {
+        if(initialPageSize > maxPageSize) {
+            throw new IllegalArgumentException("initialPageSize must not be larger than maxPageSize");
+        }
+        mStateCache = stateCache;
+        mInitialPageSize = initialPageSize;
+        mMaxPageSize = maxPageSize;
+        mMaxPages = maxPages;
+    }
+
+    /**
+     * Whether an object of the given size may be placed in this atlas. Objects larger than half a
+     * page are better off with a texture of their own.
+     */
+    public boolean accepts(int width, int height) {
+        return width > 0 && height > 0
+                && width + PADDING <= mMaxPageSize / 2 && height + PADDING <= mMaxPageSize / 2;
+    }
+
+    /**
+     * Reserve room for an object of the given size.
+     * @return The region reserved, or null if the atlas is full
+     */
+    Region allocate(int width, int height) {
+        if(!accepts(width, height)) {
+            return null;
+        }
+
+        // Iterate by index, repacking may add pages
+        for(int i = 0; i < mPages.size(); i++) {
+            Region region = mPages.get(i).insert(width, height);
+            if(region != null) {
+                return region;
+            }
+        }
+
+        // Grow existing pages up to the maximum size, re-inserting what they hold
+        for(int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            while(page.mSize < mMaxPageSize) {
+                glRepack(page, page.mSize * 2);
+                Region region = page.insert(width, height);
+                if(region != null) {
+                    return region;
+                }
+            }
+        }
+
+        if(mPages.size() < mMaxPages) {
+            Page page = glCreatePage(getNewPageSize(width, height));
+            Region region = page.insert(width, height);
+            if(region == null) {
+                // Not expected as the page fits the object, but an empty page must not linger
+                glDeletePage(page);
+            }
+            return region;
+        }
+
+        return null;
+    }
+
+    /**
+     * The size of a new page holding an object of the given size: the initial page size, or the
+     * smallest power of two fitting the padded object if that's larger
+     */
+    int getNewPageSize(int width, int height) {
+        int size = mInitialPageSize;
+        while(size < mMaxPageSize && (width + PADDING > size || height + PADDING > size)) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * Release the region owned by an object, deleting its page if it becomes empty, and repacking
+     * the page if too much of it is wasted.
+     */
+    void release(GLBitmapObject bitmapObject) {
+        Region region = bitmapObject.getAtlasRegion();
+        if(region == null) {
+            return;
+        }
+        Page page = region.mPage;
+        page.mObjects.remove(bitmapObject);
+        page.mUsedArea -= (long)region.mWidth * region.mHeight;
+        page.mPaddingArea -= region.getPaddingArea();
+
+        if(page.mObjects.isEmpty()) {
+            glDeletePage(page);
+        } else if(page.getWastedArea() - page.mPaddingArea > REPACK_WASTE_FRACTION * page.mSize * page.mSize) {
+            glRepack(page, page.mSize);
+        }
+    }
+
+    /**
+     * Attach an object to the region allocated for it.
+     */
+    void attach(GLBitmapObject bitmapObject, Region region) {
+        region.mPage.mObjects.add(bitmapObject);
+        bitmapObject.setAtlasRegion(region);
+    }
+
+    /**
+     * Copy a bitmap into the region owned by an object.
+     */
+    void glUpload(GLBitmapObject bitmapObject, Bitmap bitmap) {
+        glUpload(bitmapObject, bitmap, 0, 0);
+    }
+
+    /**
+     * Copy a bitmap into part of the region owned by an object.
+     * @param x Left of the part, relative to the region
+     * @param y Top of the part, relative to the region
+     */
+    void glUpload(GLBitmapObject bitmapObject, Bitmap bitmap, int x, int y) {
+        Region region = bitmapObject.getAtlasRegion();
+        mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+        mStateCache.bindTexture(region.mPage.mTextureRef);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, region.mX + x, region.mY + y, bitmap);
+    }
+
+    /**
+     * Delete all pages. Objects still referencing the atlas must not be drawn afterwards.
+     */
+    public void glDelete() {
+        for(Page page : mPages) {
+            mStateCache.deleteTexture(page.mTextureRef);
+        }
+        mPages.clear();
+    }
+
+    /**
+     * Re-create all pages after the GL context was lost, re-uploading objects from their bitmaps.
+     */
+    void glRestore() {
+        for(Page page : mPages) {
+            GLES20.glGenTextures(1, mTextures, 0);
+            page.mTextureRef = mTextures[0];
+            glConfigurePage(page);
+            for(GLBitmapObject bitmapObject : page.mObjects) {
+                Bitmap bitmap = bitmapObject.getBitmap();
+                if(bitmap != null && !bitmap.isRecycled()) {
+                    glUpload(bitmapObject, bitmap);
+                }
+            }
+        }
+    }
+
+    private Page glCreatePage(int size) {
+        GLES20.glGenTextures(1, mTextures, 0);
+        Page page = new Page(mTextures[0], size);
+        glConfigurePage(page);
+        mPages.add(page);
+        Log.d(TAG, String.format("glCreatePage: %d (%d x %d)", page.mTextureRef, size, size));
+        return page;
+    }
+
+    private void glDeletePage(Page page) {
+        mStateCache.deleteTexture(page.mTextureRef);
+        mPages.remove(page);
+    }
+
+    private void glConfigurePage(Page page) {
+        glConfigureTexture(page.mTextureRef);
+        glAllocatePage(page);
+    }
+
+    /**
+     * Bind a texture and set it up for drawing objects: linear filtering, clamped to its edges
+     */
+    private void glConfigureTexture(int textureRef) {
+        mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+        mStateCache.bindTexture(textureRef);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    /**
+     * (Re)define the page's texture storage, cleared to transparent so padding never bleeds.
+     */
+    private void glAllocatePage(Page page) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(page.mSize * page.mSize * 4);
+        mStateCache.activeTexture(GLES20.GL_TEXTURE0);
+        mStateCache.bindTexture(page.mTextureRef);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, page.mSize, page.mSize, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+
+    /**
+     * Pack all objects of a page again, tallest first, and re-upload their bitmaps.
+     */
+    private void glRepack(Page page, int newSize) {
+        Log.d(TAG, String.format("glRepack: %d (%d -> %d, %d objects)", page.mTextureRef, page.mSize, newSize, page.mObjects.size()));
+        List<GLBitmapObject> objects = new ArrayList<>(page.mObjects);
+        Collections.sort(objects, HEIGHT_DESCENDING);
+
+        page.mSize = newSize;
+        page.mPacker.reset(newSize, newSize);
+        page.mObjects.clear();
+        page.mUsedArea = 0;
+        page.mPaddingArea = 0;
+        glAllocatePage(page);
+
+        List<GLBitmapObject> leftovers = null;
+        for(GLBitmapObject bitmapObject : objects) {
+            Region region = page.insert(bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight());
+            if(region == null) {
+                // The packing heuristic isn't order independent, so a different order may not fit
+                if(leftovers == null) {
+                    leftovers = new ArrayList<>();
+                }
+                leftovers.add(bitmapObject);
+                continue;
+            }
+            glAttachAndUpload(bitmapObject, region);
+        }
+
+        if(leftovers != null) {
+            for(GLBitmapObject bitmapObject : leftovers) {
+                Region region = allocate(bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight());
+                if(region == null) {
+                    glMoveToOwnTexture(bitmapObject);
+                    continue;
+                }
+                glAttachAndUpload(bitmapObject, region);
+            }
+        }
+    }
+
+    /**
+     * Give an object no page has room for a texture of its own, as objects get when the atlas is
+     * full on creation, and upload its bitmap there
+     */
+    private void glMoveToOwnTexture(GLBitmapObject bitmapObject) {
+        Log.d(TAG, String.format("glRepack: no room left, moving object (%d x %d) to its own texture", bitmapObject.getBitmapWidth(), bitmapObject.getBitmapHeight()));
+        GLES20.glGenTextures(1, mTextures, 0);
+        glConfigureTexture(mTextures[0]);
+        bitmapObject.setAtlasRegion(null);
+        bitmapObject.onTextureLost(mTextures[0]);
+        Bitmap bitmap = bitmapObject.getBitmap();
+        if(bitmap != null && !bitmap.isRecycled()) {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            bitmapObject.onTexturePushed();
+            // Atlas objects are RGBA_8888
+            bitmapObject.setTextureBytes((long)bitmap.getWidth() * bitmap.getHeight() * 4);
+        }
+    }
+
+    private void glAttachAndUpload(GLBitmapObject bitmapObject, Region region) {
+        attach(bitmapObject, region);
+        Bitmap bitmap = bitmapObject.getBitmap();
+        if(bitmap != null && !bitmap.isRecycled()) {
+            glUpload(bitmapObject, bitmap);
+        }
+    }
+
+    /**
+     * The number of pages currently allocated
+     */
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * The total number of pixels in all pages
+     */
+    public long getTotalPixels() {
+        long total = 0;
+        for(Page page : mPages) {
+            total += (long)page.mSize * page.mSize;
+        }
+        return total;
+    }
+
+    /**
+     * The number of pixels holding object content
+     */
+    public long getUsedPixels() {
+        long used = 0;
+        for(Page page : mPages) {
+            used += page.mUsedArea;
+        }
+        return used;
+    }
+
+    /**
+     * The number of pixels that can't be packed into until the page is repacked: padding, gaps
+     * trapped below the skyline, and regions of destroyed objects.
+     */
+    public long getWastedPixels() {
+        long wasted = 0;
+        for(Page page : mPages) {
+            wasted += page.getWastedArea();
+        }
+        return wasted;
+    }
+
+    /**
+     * Fraction of all page pixels holding object content
+     * @return The occupancy, in range 0.0 - 1.0
+     */
+    public float getOccupancy() {
+        long total = getTotalPixels();
+        return total == 0 ? 0f : (float)getUsedPixels() / total;
+    }
+
+    private static final Comparator<GLBitmapObject> HEIGHT_DESCENDING = new Comparator<GLBitmapObject>() {
+        @Override
+        public int compare(GLBitmapObject lhs, GLBitmapObject rhs) {
+            return rhs.getBitmapHeight() - lhs.getBitmapHeight();
+        }
+    };
+
+    private class Page {
+        private int mTextureRef;
+        private int mSize;
+        private final SkylinePacker mPacker;
+        private final List<GLBitmapObject> mObjects = new ArrayList<>();
+        private long mUsedArea = 0;
+        private long mPaddingArea = 0;
+
+        Page(int textureRef, int size) {
+            mTextureRef = textureRef;
+            mSize = size;
+            mPacker = new SkylinePacker(size, size);
+        }
+
+        Region insert(int width, int height) {
+            if(!mPacker.insert(width + PADDING, height + PADDING, mPosition)) {
+                return null;
+            }
+            Region region = new Region(this, mPosition[0], mPosition[1], width, height);
+            mUsedArea += (long)width * height;
+            mPaddingArea += region.getPaddingArea();
+            return region;
+        }
+
+        long getWastedArea() {
+            return mPacker.getCoveredArea() - mUsedArea;
+        }
+    }
+
+    /**
+     * The area of a page owned by one object
+     */
+    public static final class Region {
+        private final Page mPage;
+        private final int mX;
+        private final int mY;
+        private final int mWidth;
+        private final int mHeight;
+
+        private Region(Page page, int x, int y, int width, int height) {
+            mPage = page;
+            mX = x;
+            mY = y;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        public int getTextureRef() {
+            return mPage.mTextureRef;
+        }
+
+        private long getPaddingArea() {
+            return (long)(mWidth + PADDING) * (mHeight + PADDING) - (long)mWidth * mHeight;
+        }
+
+        public int getX() {
+            return mX;
+        }
+
+        public int getY() {
+            return mY;
+        }
+
+        /**
+         * Write the normalized texture coordinates of this region as (u, v, width, height)
+         */
+        void getUVRect(float[] outRect) {
+            float size = mPage.mSize;
+            outRect[0] = mX / size;
+            outRect[1] = mY / size;
+            outRect[2] = mWidth / size;
+            outRect[3] = mHeight / size;
+        }
+    }
+}
@@ -21,11 +21,16 @@ import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.ustwo.glbitmapcanvas.programs.GLProgramBinaryCache;
+
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -35,6 +40,14 @@ import java.util.concurrent.TimeUnit;
 public abstract class GLWatchFace extends Gles2WatchFaceService {
     private static final String TAG = GLWatchFace.class.getSimpleName();
 
+    /**
+     * How far the ambient frame moves each minute on screens prone to burn-in, in pixels. The frame
+     * cycles through the 9 positions of a 3 x 3 grid of this spacing, centered on the surface.
+     */
+    private static final int BURN_IN_SHIFT_PIXELS = 3;
+
+    private final List<GLEngine> mEngines = new ArrayList<>();
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -42,7 +55,17 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
 
     @Override
     public final Engine onCreateEngine() {
-        return onCreateGLEngine();
+        GLEngine engine = onCreateGLEngine();
+        mEngines.add(engine);
+        return engine;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        for(GLEngine engine : mEngines) {
+            engine.onTrimMemory(level);
+        }
     }
 
     public abstract GLWatchFace.GLEngine onCreateGLEngine();
@@ -64,11 +87,46 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
         private ContentObserver mFormatChangeObserver;
         protected GLBitmapRenderer mGLBitmapRenderer;
         protected Handler mGLThreadHandler = new Handler();
+        private boolean mIsIdleFrameCallbackPosted = false;
+        private long mSkippedFrameCount = 0;
+        private final Object mLayoutEventKey = new Object();
+        private boolean mProgramBinaryCacheEnabled = false;
+
+        /**
+         * Upcoming boundary notification: the boundary faces are told about, how long ahead, the
+         * boundary the notification is scheduled for, and the last one notified
+         */
+        private int mUpcomingBoundary = TimeBoundary.NONE;
+        private long mUpcomingBoundaryLeadMillis = 0;
+        private long mScheduledBoundaryMillis = 0;
+        private long mNotifiedBoundaryMillis = 0;
+        private final GregorianCalendar mUpcomingBoundaryTime = new GregorianCalendar();
+
+        /**
+         * Requests a frame when work is queued on the renderer, e.g. a finished background rasterization
+         */
+        private final Runnable mEventQueuedListener = new Runnable() {
+            @Override
+            public void run() {
+                mGLThreadHandler.post(mInvalidateIfVisibleRunnable);
+            }
+        };
+
+        private final Runnable mInvalidateIfVisibleRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if(isVisible()) {
+                    invalidate();
+                }
+            }
+        };
 
         private BroadcastReceiver mDateTimeChangedReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 updateTimeAndInvalidate();
+                // Upcoming boundaries moved with the clock or time zone
+                scheduleUpcomingBoundary();
             }
         };
 
@@ -179,6 +237,9 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
         @Override
         public void onDestroy() {
             cancelTimeUpdater();
+            removeIdleFrameCallback();
+            mGLThreadHandler.removeCallbacks(mUpcomingBoundaryRunnable);
+            mGLThreadHandler.removeCallbacks(mBoundaryFrameRunnable);
             mScheduledTimeUpdater = null;
             mScheduledTimeUpdaterPool.shutdown();
             mScheduledTimeUpdaterPool = null;
@@ -204,10 +265,25 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
 
             mInvalidateRunnable = null;
             mTimeUpdater = null;
+            mEngines.remove(this);
 
             super.onDestroy();
         }
 
+        /**
+         * Release memory held by the renderer, see {@link GLBitmapRenderer#onTrimMemory(int)}.
+         * Called on the main thread when the system asks the watch face to trim memory.
+         * @param level The trim level
+         */
+        @CallSuper
+        public void onTrimMemory(int level) {
+            if(mGLBitmapRenderer != null) {
+                // Textures may be deleted, which needs this engine's context
+                makeContextCurrent();
+                mGLBitmapRenderer.onTrimMemory(level);
+            }
+        }
+
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
@@ -226,10 +302,10 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
             // fire onLayout if onApplyWindowInsets is occurring after GLBitmapRenderer was initialized
             if(mGLBitmapRenderer != null) {
                 // Queue to guarantee this occurs after the renderer surface is ready (on draw)
-                mGLBitmapRenderer.queue(new Runnable() {
+                mGLBitmapRenderer.queue(mLayoutEventKey, new Runnable() {
                     @Override
                     public void run() {
-                        onLayout(mIsRound, mFaceRect, mFaceInsets);
+                        dispatchLayout();
                         checkTimeUpdater();
                     }
                 });
@@ -244,6 +320,11 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
         public final void onGlContextCreated() {
             Log.d(TAG, "onGlContextCreated");
             super.onGlContextCreated();
+
+            // A renderer that already exists belongs to the previous context, its GL resources are gone
+            if(mGLBitmapRenderer != null) {
+                mGLBitmapRenderer.onGlContextRecreated();
+            }
         }
 
         @Override
@@ -255,33 +336,82 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
 
             // only create once for now until we handle destruction properly
             if(mGLBitmapRenderer == null && width > 0 && height > 0) {
-                mGLBitmapRenderer = new GLBitmapRenderer(width, height);
+                GLProgramBinaryCache programBinaryCache = mProgramBinaryCacheEnabled ? GLProgramBinaryCache.create(GLWatchFace.this) : null;
+                mGLBitmapRenderer = new GLBitmapRenderer(width, height, programBinaryCache);
+                mGLBitmapRenderer.setOnEventQueuedListener(mEventQueuedListener);
+                mGLBitmapRenderer.setAmbient(mIsAmbient);
+                mGLBitmapRenderer.setLowBitAmbient(mLowBitAmbient);
                 Log.d(TAG, "onRendererReady");
                 onRendererReady(mGLBitmapRenderer);
 
                 // fire onLayout if onApplyWindowInsets already occurred
                 if(mIsRound != null) {
-                    onLayout(mIsRound, mFaceRect, mFaceInsets);
+                    dispatchLayout();
                 }
                 updateTimeAndInvalidate();
+                scheduleUpcomingBoundary();
             }
         }
 
         private void updateTimeAndInvalidate() {
+            updateTime();
+            postInvalidate();
+        }
+
+        /**
+         * Update the time and request a frame only if the renderer has something new to draw
+         */
+        private void updateTimeAndInvalidateIfNeeded() {
+            updateTime();
+            if(needsRedraw()) {
+                postInvalidate();
+            } else {
+                mSkippedFrameCount++;
+            }
+        }
+
+        private void updateTime() {
             mPreviousTime.setTimeInMillis(mLatestTime.getTimeInMillis());
             long now = System.currentTimeMillis();
             mLatestTime.setTimeInMillis(now);
             mLatestTime.setTimeZone(TimeZone.getDefault());
 
             onTimeChanged(mPreviousTime, mLatestTime);
+            updateAmbientOffset();
 
             boolean is24Hour = DateFormat.is24HourFormat(GLWatchFace.this);
             if (is24Hour != mIs24HourFormat) {
                 mIs24HourFormat = is24Hour;
                 on24HourFormatChanged(mIs24HourFormat);
             }
+        }
+
+        /**
+         * Move the ambient frame to the position of the current minute on screens prone to burn-in
+         */
+        private void updateAmbientOffset() {
+            if(mGLBitmapRenderer == null) {
+                return;
+            }
+            if(mIsAmbient && mBurnInProtection) {
+                int position = mLatestTime.get(GregorianCalendar.MINUTE) % 9;
+                mGLBitmapRenderer.setAmbientOffset((position % 3 - 1) * BURN_IN_SHIFT_PIXELS,
+                        (position / 3 - 1) * BURN_IN_SHIFT_PIXELS);
+            } else {
+                mGLBitmapRenderer.setAmbientOffset(0, 0);
+            }
+        }
 
-            postInvalidate();
+        private boolean needsRedraw() {
+            return mGLBitmapRenderer == null || mGLBitmapRenderer.needsRedraw();
+        }
+
+        /**
+         * The number of frames that were not drawn because nothing on the face changed since the
+         * previous frame, see {@link GLBitmapRenderer#needsRedraw()}
+         */
+        protected long getSkippedFrameCount() {
+            return mSkippedFrameCount;
         }
 
         @Override
@@ -291,10 +421,49 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
                 mGLBitmapRenderer.draw();
             }
             if (!mIsAmbient && isVisible() && mShouldDrawContinuously) {
-                updateTimeAndInvalidate();
+                updateTime();
+                if(needsRedraw()) {
+                    postInvalidate();
+                } else {
+                    // Once onDraw is called the frame is swapped regardless, so a static frame is
+                    // skipped by not invalidating. Poll each vsync until something changes instead.
+                    mSkippedFrameCount++;
+                    postIdleFrameCallback();
+                }
             }
         }
 
+        private void postIdleFrameCallback() {
+            if(!mIsIdleFrameCallbackPosted) {
+                mIsIdleFrameCallbackPosted = true;
+                Choreographer.getInstance().postFrameCallback(mIdleFrameCallback);
+            }
+        }
+
+        private void removeIdleFrameCallback() {
+            if(mIsIdleFrameCallbackPosted) {
+                mIsIdleFrameCallbackPosted = false;
+                Choreographer.getInstance().removeFrameCallback(mIdleFrameCallback);
+            }
+        }
+
+        private final Choreographer.FrameCallback mIdleFrameCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                mIsIdleFrameCallbackPosted = false;
+                if (mIsAmbient || !isVisible() || !mShouldDrawContinuously) {
+                    return;
+                }
+                updateTime();
+                if(needsRedraw()) {
+                    invalidate();
+                } else {
+                    mSkippedFrameCount++;
+                    postIdleFrameCallback();
+                }
+            }
+        };
+
         //================================================================================
         //    SYSTEM EVENT HANDLERS
         //================================================================================
@@ -314,6 +483,10 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
             mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            if(mGLBitmapRenderer != null) {
+                mGLBitmapRenderer.setLowBitAmbient(mLowBitAmbient);
+                updateAmbientOffset();
+            }
 
             Log.d(TAG, "WatchFace.onPropertiesChanged: " + "LowBit=" + Boolean.toString(mLowBitAmbient) +
                     ", BurnIn=" + Boolean.toString(mBurnInProtection));
@@ -328,6 +501,7 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
                 mIsAmbient = inAmbientMode;
 
                 if(mGLBitmapRenderer != null) {
+                    mGLBitmapRenderer.setAmbient(inAmbientMode);
                     updateTimeAndInvalidate();
                     checkTimeUpdater();
                 }
@@ -345,6 +519,7 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
                 updateTimeAndInvalidate();
             }
             checkTimeUpdater();
+            scheduleUpcomingBoundary();
         }
 
         @Override
@@ -408,6 +583,20 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
          */
         protected void onTimeChanged(GregorianCalendar oldTime, GregorianCalendar newTime) { }
 
+        /**
+         * Called ahead of each time boundary requested with
+         * {@link #setUpcomingTimeBoundaryNotification(int, long)}, while the face is visible. Faces can
+         * pre-render the state shown from the boundary on into a standby object, e.g. with
+         * {@link GLAsyncRasterizer}, and have the renderer swap it in on the first frame at the boundary
+         * with {@link GLBitmapRenderer#swapTexturesAt(GLBitmapObject, GLBitmapObject, long)}.
+         * A frame is requested at the boundary if the renderer has something to draw then.
+         *
+         * @param boundary The largest boundary the upcoming time lies on, at least the one requested,
+         *                 e.g. {@link TimeBoundary#DAY} at midnight when minutes were requested
+         * @param boundaryTime The time of the boundary. Only valid during the call.
+         */
+        protected void onUpcomingTimeBoundary(int boundary, GregorianCalendar boundaryTime) { }
+
         /**
          * Override to be informed of card peek events.
          *
@@ -424,6 +613,12 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
 
         public abstract void onRendererDestroyed(GLBitmapRenderer renderer);
 
+        private void dispatchLayout() {
+            // Objects entirely in the corners of a round screen are never seen
+            mGLBitmapRenderer.setRoundCullingEnabled(mIsRound);
+            onLayout(mIsRound, mFaceRect, mFaceInsets);
+        }
+
         protected void onLayout(boolean isRound, Rect screenBounds, Rect screenInsets) {
 
         }
@@ -456,8 +651,93 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
             checkTimeUpdater(getInteractiveModeUpdateRate(), true);
         }
 
+        /**
+         * Keep the binaries of linked programs in the app's code cache, so programs are loaded rather
+         * than compiled from source on later starts, shortening the time to the first frame when
+         * shaders are expensive to compile. Only has an effect on devices supporting program binaries.
+         * Must be set before the renderer is created, e.g. in {@link #onCreate()}.
+         * Default is false.
+         *
+         * @param enabled Whether to cache program binaries
+         */
+        public void setProgramBinaryCacheEnabled(boolean enabled) {
+            if(mGLBitmapRenderer != null) {
+                throw new IllegalStateException("The program binary cache must be set before the renderer is created");
+            }
+            mProgramBinaryCacheEnabled = enabled;
+        }
+
+        /**
+         * Have {@link #onUpcomingTimeBoundary(int, GregorianCalendar)} called ahead of each time
+         * boundary, e.g. every minute, so the upcoming state can be rendered before it's shown.
+         *
+         * @param boundary The boundary, {@link TimeBoundary#SECOND} to {@link TimeBoundary#DAY}, or
+         *                 {@link TimeBoundary#NONE} to stop notifications
+         * @param leadMillis How long before each boundary to notify. Within the lead time of the next
+         *                   boundary, it is notified right away.
+         */
+        public void setUpcomingTimeBoundaryNotification(int boundary, long leadMillis) {
+            if(boundary < TimeBoundary.NONE || boundary > TimeBoundary.DAY) {
+                throw new IllegalArgumentException(String.format("Invalid boundary %d", boundary));
+            }
+            if(leadMillis < 0) {
+                throw new IllegalArgumentException(String.format("leadMillis must not be negative, was %d", leadMillis));
+            }
+            mUpcomingBoundary = boundary;
+            mUpcomingBoundaryLeadMillis = leadMillis;
+            mNotifiedBoundaryMillis = 0;
+            scheduleUpcomingBoundary();
+        }
+
+        /**
+         * Schedule the notification of the next boundary not notified yet
+         */
+        private void scheduleUpcomingBoundary() {
+            mGLThreadHandler.removeCallbacks(mUpcomingBoundaryRunnable);
+            if(mUpcomingBoundary == TimeBoundary.NONE || mGLBitmapRenderer == null || !isVisible()) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            TimeZone timeZone = TimeZone.getDefault();
+            long next = TimeBoundary.getNext(mUpcomingBoundary, now, timeZone);
+            if(next == mNotifiedBoundaryMillis) {
+                next = TimeBoundary.getNext(mUpcomingBoundary, next, timeZone);
+            }
+            mScheduledBoundaryMillis = next;
+            mGLThreadHandler.postDelayed(mUpcomingBoundaryRunnable, Math.max(0, next - mUpcomingBoundaryLeadMillis - now));
+        }
+
+        private final Runnable mUpcomingBoundaryRunnable = new Runnable() {
+            @Override
+            public void run() {
+                long boundaryMillis = mScheduledBoundaryMillis;
+                mNotifiedBoundaryMillis = boundaryMillis;
+                TimeZone timeZone = TimeZone.getDefault();
+                mUpcomingBoundaryTime.setTimeZone(timeZone);
+                mUpcomingBoundaryTime.setTimeInMillis(boundaryMillis);
+                int boundary = Math.max(mUpcomingBoundary, TimeBoundary.getLargestAt(boundaryMillis, timeZone));
+                onUpcomingTimeBoundary(boundary, mUpcomingBoundaryTime);
+
+                // Make sure the boundary frame is drawn, even between scheduled updates
+                mGLThreadHandler.removeCallbacks(mBoundaryFrameRunnable);
+                mGLThreadHandler.postDelayed(mBoundaryFrameRunnable, Math.max(0, boundaryMillis - System.currentTimeMillis()));
+                scheduleUpcomingBoundary();
+            }
+        };
+
+        private final Runnable mBoundaryFrameRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if(isVisible() && needsRedraw()) {
+                    invalidate();
+                }
+            }
+        };
+
         private void checkTimeUpdater(long updateRate, boolean delayStart) {
             cancelTimeUpdater();
+            removeIdleFrameCallback();
             // Note that when we're ambient or invisible, we rely on timeTick to update instead of a scheduled future
             if (!mIsAmbient && isVisible()) {
                 if(updateRate == 0) {
@@ -489,7 +769,7 @@ public abstract class GLWatchFace extends Gles2WatchFaceService {
             @Override
             public void run() {
                 onInteractiveTimeTick();
-                updateTimeAndInvalidate();
+                updateTimeAndInvalidateIfNeeded();
             }
         };
 
@@ -0,0 +1,114 @@
+package com.ustwo.glbitmapcanvas;
+
+import java.util.Arrays;
+
+/**
+ * Advances and kerning of the glyphs in a {@link GLGlyphAtlas}, and the layout of strings from them.
+ * Glyphs are addressed by their index in the sorted character set. Characters outside the set are
+ * skipped when laying out. Kerning is held for every pair of glyphs, as character sets are small.
+ */
+final class GlyphMetrics {
+    private final char[] mCharacters;
+    private final float[] mAdvances;
+    private final float[] mKerning;
+
+    /**
+     * @param characters The characters, sorted and without duplicates
+     * @param advances The horizontal advance of each character
+     */
+    GlyphMetrics(char[] characters, float[] advances) {
+        if(characters.length != advances.length) {
+            throw new IllegalArgumentException(String.format("%d characters but %d advances", characters.length, advances.length));
+        }
+        for(int i = 1; i < characters.length; i++) {
+            if(characters[i] <= characters[i - 1]) {
+                throw new IllegalArgumentException("Characters must be sorted and unique");
+            }
+        }
+        mCharacters = characters;
+        mAdvances = advances;
+        mKerning = new float[characters.length * characters.length];
+    }
+
+    int getGlyphCount() {
+        return mCharacters.length;
+    }
+
+    char getCharacter(int glyph) {
+        return mCharacters[glyph];
+    }
+
+    /**
+     * @return The glyph index of a character, or -1 if it isn't in the set
+     */
+    int indexOf(char c) {
+        int index = Arrays.binarySearch(mCharacters, c);
+        return index >= 0 ? index : -1;
+    }
+
+    float getAdvance(int glyph) {
+        return mAdvances[glyph];
+    }
+
+    /**
+     * Set the adjustment of the advance between two glyphs, added to the first glyph's advance
+     */
+    void setKerning(int firstGlyph, int secondGlyph, float kerning) {
+        mKerning[firstGlyph * mCharacters.length + secondGlyph] = kerning;
+    }
+
+    float getKerning(int firstGlyph, int secondGlyph) {
+        return mKerning[firstGlyph * mCharacters.length + secondGlyph];
+    }
+
+    /**
+     * The width of a string: the advances of its glyphs, with kerning
+     */
+    float measure(CharSequence text) {
+        float width = 0f;
+        int previous = -1;
+        for(int i = 0; i < text.length(); i++) {
+            int glyph = indexOf(text.charAt(i));
+            if(glyph < 0) {
+                continue;
+            }
+            if(previous >= 0) {
+                width += getKerning(previous, glyph);
+            }
+            width += mAdvances[glyph];
+            previous = glyph;
+        }
+        return width;
+    }
+
+    /**
+     * Lay out a string on a single line
+     * @param text The string
+     * @param alignment Where the anchor lies along the string's width: 0 for its left edge, 0.5 for
+     *                  its center, 1 for its right edge
+     * @param outGlyphs Receives the glyph index of each laid out character, at least as long as the text
+     * @param outPenX Receives the pen position of each glyph, relative to the anchor, at least as
+     *                long as the text
+     * @return The number of glyphs laid out
+     */
+    int layout(CharSequence text, float alignment, int[] outGlyphs, float[] outPenX) {
+        float penX = -alignment * measure(text);
+        int count = 0;
+        int previous = -1;
+        for(int i = 0; i < text.length(); i++) {
+            int glyph = indexOf(text.charAt(i));
+            if(glyph < 0) {
+                continue;
+            }
+            if(previous >= 0) {
+                penX += getKerning(previous, glyph);
+            }
+            outGlyphs[count] = glyph;
+            outPenX[count] = penX;
+            count++;
+            penX += mAdvances[glyph];
+            previous = glyph;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,135 @@
+package com.ustwo.glbitmapcanvas;
+
+/**
+ * Axis-aligned rectangle in surface space, as used by GL: origin at the bottom left, y pointing up.
+ * Used for object bounds and damage regions. A rectangle with no area is empty, and the union
+ * with an empty rectangle leaves a rectangle unchanged.
+ */
+final class ScreenRect {
+    private float mLeft;
+    private float mBottom;
+    private float mRight;
+    private float mTop;
+
+    ScreenRect() {
+        setEmpty();
+    }
+
+    float getLeft() {
+        return mLeft;
+    }
+
+    float getBottom() {
+        return mBottom;
+    }
+
+    float getRight() {
+        return mRight;
+    }
+
+    float getTop() {
+        return mTop;
+    }
+
+    boolean isEmpty() {
+        return mLeft >= mRight || mBottom >= mTop;
+    }
+
+    void setEmpty() {
+        mLeft = 0f;
+        mBottom = 0f;
+        mRight = 0f;
+        mTop = 0f;
+    }
+
+    void set(float left, float bottom, float right, float top) {
+        mLeft = left;
+        mBottom = bottom;
+        mRight = right;
+        mTop = top;
+    }
+
+    void set(ScreenRect other) {
+        set(other.mLeft, other.mBottom, other.mRight, other.mTop);
+    }
+
+    /**
+     * Set to the bounds of the unit quad (0, 0) - (1, 1) transformed by an affine transform stored as
+     * (a, b, c, d, tx, ty), with x' = a * x + c * y + tx and y' = b * x + d * y + ty.
+     */
+    void setToTransformedUnitQuad(float[] affine, int offset) {
+        float a = affine[offset];
+        float b = affine[offset + 1];
+        float c = affine[offset + 2];
+        float d = affine[offset + 3];
+        float tx = affine[offset + 4];
+        float ty = affine[offset + 5];
+        // The corners are the translation plus any combination of the two transformed axes
+        set(tx + Math.min(0f, a) + Math.min(0f, c), ty + Math.min(0f, b) + Math.min(0f, d),
+                tx + Math.max(0f, a) + Math.max(0f, c), ty + Math.max(0f, b) + Math.max(0f, d));
+    }
+
+    void union(ScreenRect other) {
+        if(other.isEmpty()) {
+            return;
+        }
+        if(isEmpty()) {
+            set(other);
+            return;
+        }
+        mLeft = Math.min(mLeft, other.mLeft);
+        mBottom = Math.min(mBottom, other.mBottom);
+        mRight = Math.max(mRight, other.mRight);
+        mTop = Math.max(mTop, other.mTop);
+    }
+
+    boolean intersects(ScreenRect other) {
+        return !isEmpty() && !other.isEmpty()
+                && mLeft < other.mRight && other.mLeft < mRight
+                && mBottom < other.mTop && other.mBottom < mTop;
+    }
+
+    /**
+     * Whether this rectangle overlaps a circle, by the distance from the circle's center to the
+     * closest point of the rectangle
+     */
+    boolean intersectsCircle(float centerX, float centerY, float radius) {
+        if(isEmpty()) {
+            return false;
+        }
+        float dx = centerX - Math.max(mLeft, Math.min(centerX, mRight));
+        float dy = centerY - Math.max(mBottom, Math.min(centerY, mTop));
+        return dx * dx + dy * dy < radius * radius;
+    }
+
+    boolean contains(ScreenRect other) {
+        return !isEmpty() && !other.isEmpty()
+                && mLeft <= other.mLeft && mBottom <= other.mBottom
+                && mRight >= other.mRight && mTop >= other.mTop;
+    }
+
+    /**
+     * Round outwards to whole pixels, clipped to a surface of the specified size, and write the result
+     * as (x, y, width, height) in the layout expected by glScissor.
+     * @return False if nothing of this rectangle is left on the surface, in which case out is unchanged
+     */
+    boolean roundOut(int surfaceWidth, int surfaceHeight, int[] out) {
+        int left = Math.max(0, (int)Math.floor(mLeft));
+        int bottom = Math.max(0, (int)Math.floor(mBottom));
+        int right = Math.min(surfaceWidth, (int)Math.ceil(mRight));
+        int top = Math.min(surfaceHeight, (int)Math.ceil(mTop));
+        if(isEmpty() || left >= right || bottom >= top) {
+            return false;
+        }
+        out[0] = left;
+        out[1] = bottom;
+        out[2] = right - left;
+        out[3] = top - bottom;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScreenRect(%.1f, %.1f - %.1f, %.1f)", mLeft, mBottom, mRight, mTop);
+    }
+}
@@ -0,0 +1,163 @@
+package com.ustwo.glbitmapcanvas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs rectangles into a fixed size area using the skyline bottom-left heuristic. The skyline is
+ * the upper outline of everything packed so far; new rectangles are placed on the segment giving
+ * the lowest top edge. Area trapped underneath the skyline can't be reused until {@link #reset(int, int)}.
+ */
+final class SkylinePacker {
+    private int mWidth;
+    private int mHeight;
+    private final List<Segment> mSkyline = new ArrayList<>();
+
+    SkylinePacker(int width, int height) {
+        reset(width, height);
+    }
+
+    /**
+     * Discard all packed rectangles, optionally changing the packing area
+     * @param width The new width
+     * @param height The new height
+     */
+    void reset(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mSkyline.clear();
+        mSkyline.add(new Segment(0, 0, width));
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Pack a rectangle
+     * @param width The rectangle width
+     * @param height The rectangle height
+     * @param outPosition Receives the x and y position of the packed rectangle
+     * @return True if the rectangle was packed, false if there is no room for it
+     */
+    boolean insert(int width, int height, int[] outPosition) {
+        int bestIndex = -1;
+        int bestTop = Integer.MAX_VALUE;
+        int bestWidth = Integer.MAX_VALUE;
+
+        for(int i = 0; i < mSkyline.size(); i++) {
+            int y = fit(i, width, height);
+            if(y < 0) {
+                continue;
+            }
+            Segment segment = mSkyline.get(i);
+            if(y + height < bestTop || (y + height == bestTop && segment.width < bestWidth)) {
+                bestIndex = i;
+                bestTop = y + height;
+                bestWidth = segment.width;
+            }
+        }
+
+        if(bestIndex < 0) {
+            return false;
+        }
+
+        int x = mSkyline.get(bestIndex).x;
+        outPosition[0] = x;
+        outPosition[1] = bestTop - height;
+        addSegment(bestIndex, x, bestTop, width);
+        return true;
+    }
+
+    /**
+     * The area underneath the skyline, i.e. the pixels that can no longer be packed into
+     * @return The covered area in pixels
+     */
+    long getCoveredArea() {
+        long area = 0;
+        for(Segment segment : mSkyline) {
+            area += (long)segment.width * segment.y;
+        }
+        return area;
+    }
+
+    /**
+     * Find the y position at which a rectangle fits when its left edge is placed at the given segment
+     * @return The y position, or -1 if it doesn't fit
+     */
+    private int fit(int index, int width, int height) {
+        Segment segment = mSkyline.get(index);
+        if(segment.x + width > mWidth) {
+            return -1;
+        }
+
+        int widthLeft = width;
+        int y = segment.y;
+        int i = index;
+        while(widthLeft > 0) {
+            if(i == mSkyline.size()) {
+                return -1;
+            }
+            Segment next = mSkyline.get(i);
+            y = Math.max(y, next.y);
+            if(y + height > mHeight) {
+                return -1;
+            }
+            widthLeft -= next.width;
+            i++;
+        }
+        return y;
+    }
+
+    private void addSegment(int index, int x, int y, int width) {
+        mSkyline.add(index, new Segment(x, y, width));
+
+        // Shrink or remove the segments now covered by the new one
+        int i = index + 1;
+        while(i < mSkyline.size()) {
+            Segment previous = mSkyline.get(i - 1);
+            Segment segment = mSkyline.get(i);
+            int previousRight = previous.x + previous.width;
+            if(segment.x >= previousRight) {
+                break;
+            }
+            int shrink = previousRight - segment.x;
+            segment.x += shrink;
+            segment.width -= shrink;
+            if(segment.width <= 0) {
+                mSkyline.remove(i);
+            } else {
+                break;
+            }
+        }
+
+        // Merge neighbouring segments of equal height
+        i = 0;
+        while(i < mSkyline.size() - 1) {
+            Segment segment = mSkyline.get(i);
+            Segment next = mSkyline.get(i + 1);
+            if(segment.y == next.y) {
+                segment.width += next.width;
+                mSkyline.remove(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static class Segment {
+        int x;
+        int y;
+        int width;
+
+        Segment(int x, int y, int width) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+        }
+    }
+}
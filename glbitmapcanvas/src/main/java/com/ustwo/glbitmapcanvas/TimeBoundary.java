@@ -0,0 +1,92 @@
+package com.ustwo.glbitmapcanvas;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Boundaries at which displayed time changes: whole seconds, minutes, hours and days, in local time.
+ * Larger boundaries are also all smaller ones, e.g. midnight is a day, hour, minute and second boundary.
+ * See {@link GLWatchFace.GLEngine#setUpcomingTimeBoundaryNotification(int, long)}.
+ */
+public final class TimeBoundary {
+    public static final int NONE = 0;
+    public static final int SECOND = 1;
+    public static final int MINUTE = 2;
+    public static final int HOUR = 3;
+    public static final int DAY = 4;
+
+    private TimeBoundary() {
+    }
+
+    /**
+     * The first boundary strictly after a time
+     * @param boundary The boundary, {@link #SECOND} to {@link #DAY}
+     * @param timeMillis The time
+     * @param timeZone The time zone boundaries are in, which matters for hours (e.g. half hour offsets)
+     *                 and days
+     * @return The boundary time
+     */
+    public static long getNext(int boundary, long timeMillis, TimeZone timeZone) {
+        GregorianCalendar calendar = new GregorianCalendar(timeZone);
+        calendar.setTimeInMillis(timeMillis);
+        calendar.set(Calendar.MILLISECOND, 0);
+        switch(boundary) {
+            case DAY:
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                // Fall through
+            case HOUR:
+                calendar.set(Calendar.MINUTE, 0);
+                // Fall through
+            case MINUTE:
+                calendar.set(Calendar.SECOND, 0);
+                // Fall through
+            case SECOND:
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Invalid boundary %d", boundary));
+        }
+        // Adding to the field keeps days correct across daylight saving changes
+        while(calendar.getTimeInMillis() <= timeMillis) {
+            calendar.add(getField(boundary), 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * The largest boundary a time lies on
+     * @param timeMillis The time
+     * @param timeZone The time zone boundaries are in
+     * @return The boundary, or {@link #NONE} if the time isn't a whole second
+     */
+    public static int getLargestAt(long timeMillis, TimeZone timeZone) {
+        GregorianCalendar calendar = new GregorianCalendar(timeZone);
+        calendar.setTimeInMillis(timeMillis);
+        if(calendar.get(Calendar.MILLISECOND) != 0) {
+            return NONE;
+        }
+        if(calendar.get(Calendar.SECOND) != 0) {
+            return SECOND;
+        }
+        if(calendar.get(Calendar.MINUTE) != 0) {
+            return MINUTE;
+        }
+        if(calendar.get(Calendar.HOUR_OF_DAY) != 0) {
+            return HOUR;
+        }
+        return DAY;
+    }
+
+    private static int getField(int boundary) {
+        switch(boundary) {
+            case DAY:
+                return Calendar.DAY_OF_MONTH;
+            case HOUR:
+                return Calendar.HOUR_OF_DAY;
+            case MINUTE:
+                return Calendar.MINUTE;
+            default:
+                return Calendar.SECOND;
+        }
+    }
+}
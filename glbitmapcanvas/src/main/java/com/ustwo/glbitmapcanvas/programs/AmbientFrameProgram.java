@@ -0,0 +1,83 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import android.opengl.GLES20;
+
+/**
+ * Program used by {@link com.ustwo.glbitmapcanvas.GLBitmapRenderer} to show the cached ambient frame:
+ * the frame's texture drawn opaque over the whole surface, shifted by an offset to protect screens
+ * from burn-in. The low-bit variant quantizes each color channel to on or off, as low-bit ambient
+ * displays show only 8 colors.
+ */
+public final class AmbientFrameProgram extends GLProgram {
+    private static String VERTEX =
+            "uniform vec2 u_Offset;" +
+                    "attribute vec4 a_Position;" +
+                    "varying vec2 v_TexCoord;" +
+                    "void main() {" +
+                    "  gl_Position = vec4(a_Position.xy * 2.0 - 1.0 + u_Offset, 0.0, 1.0);" +
+                    "  v_TexCoord = a_Position.xy;" +
+                    "}";
+    private static String FRAGMENT =
+            "varying vec2 v_TexCoord;\n" +
+                    "uniform sampler2D s_Texture;\n" +
+                    "void main() {\n" +
+                    "   vec3 color = texture2D( s_Texture, v_TexCoord ).rgb;\n" +
+                    "#ifdef LOW_BIT\n" +
+                    "   color = step(0.5, color);\n" +
+                    "#endif\n" +
+                    "   gl_FragColor = vec4(color, 1.0);\n" +
+                    "}\n";
+
+    private GLUniform mOffset;
+    private GLUniform mTexture;
+    private final boolean mIsLowBit;
+
+    /**
+     * @param lowBit Whether to quantize colors for low-bit ambient displays
+     */
+    public AmbientFrameProgram(boolean lowBit) {
+        this(lowBit, lowBit ? new String[]{GLShaderPreprocessor.LOW_BIT} : new String[0]);
+    }
+
+    /**
+     * The fragment shader gets its default precision for the variant from the preprocessor, as
+     * shaders preprocessed from assets do
+     */
+    private AmbientFrameProgram(boolean lowBit, String[] defines) {
+        super(VERTEX, GLShaderPreprocessor.addDefaultPrecision(FRAGMENT, GLShaderPreprocessor.selectPrecision(defines)), defines);
+        mIsLowBit = lowBit;
+    }
+
+    public boolean isLowBit() {
+        return mIsLowBit;
+    }
+
+    @Override
+    protected void glOnWillLink() {
+        GLES20.glBindAttribLocation(getHandle(), StandardGLProgram.POSITION_LOCATION, "a_Position");
+    }
+
+    @Override
+    public void glOnDidLink() {
+        mOffset = getUniform("u_Offset");
+        mTexture = getUniform("s_Texture");
+    }
+
+    /**
+     * @param mvpMatrix Unused, the frame always covers the surface
+     * @param color Unused, the frame is drawn opaque
+     */
+    @Override
+    public void glOnDraw(float[] mvpMatrix, float[] color) {
+        mTexture.set1i(0);
+    }
+
+    /**
+     * Set the offset of the frame
+     * @param x The horizontal offset, in clip space units (2 across the surface)
+     * @param y The vertical offset, in clip space units, up
+     */
+    public void glSetOffset(float x, float y) {
+        mOffset.set2f(x, y);
+    }
+}
@@ -0,0 +1,111 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import android.opengl.GLES20;
+
+import com.ustwo.glbitmapcanvas.GLPixelFormat;
+
+/**
+ * Program used by {@link com.ustwo.glbitmapcanvas.GLBitmapRenderer} to draw batched quads. Vertex
+ * positions are pre-transformed into surface space on the CPU, so only the view-projection matrix
+ * is passed as a uniform, and each vertex carries its own color.
+ */
+public final class BatchGLProgram extends GLProgram {
+    private static String VERTEX =
+            "uniform mat4 u_VPMatrix;" +
+                    "attribute vec4 a_Position;" +
+                    "attribute vec2 a_TexCoord;" +
+                    "attribute vec4 a_Color;" +
+                    "varying vec2 v_TexCoord;" +
+                    "varying vec4 v_Color;" +
+                    "void main() {" +
+                    "  gl_Position = u_VPMatrix * a_Position;" +
+                    "  v_TexCoord = a_TexCoord;" +
+                    "  v_Color = a_Color;" +
+                    "}";
+    private static String FRAGMENT =
+            "precision mediump float;" +
+                    "varying vec2 v_TexCoord;" +
+                    "varying vec4 v_Color;" +
+                    "uniform sampler2D s_Texture;" +
+                    "void main() {" +
+                    "   gl_FragColor = texture2D( s_Texture, v_TexCoord ) * v_Color;" +
+                    "}";
+
+    /**
+     * Fragment shader for mask formats: the vertex color, premultiplied, scaled by the sampled coverage
+     */
+    private static String MASK_FRAGMENT =
+            "precision mediump float;" +
+                    "varying vec2 v_TexCoord;" +
+                    "varying vec4 v_Color;" +
+                    "uniform sampler2D s_Texture;" +
+                    "void main() {" +
+                    "   gl_FragColor = vec4(v_Color.rgb * v_Color.a, v_Color.a) * texture2D( s_Texture, v_TexCoord ).%s;" +
+                    "}";
+
+    /**
+     * Attribute locations shared by all variants, so switching between them keeps the vertex setup
+     */
+    public static final int POSITION_LOCATION = 0;
+    public static final int TEX_COORD_LOCATION = 1;
+    public static final int COLOR_LOCATION = 2;
+
+    private GLUniform mMatrix;
+    private int mPositionLoc = -1;
+    private int mTexCoordLoc = -1;
+    private int mColorLoc = -1;
+
+    private final GLPixelFormat mPixelFormat;
+
+    public BatchGLProgram() {
+        this(GLPixelFormat.RGBA_8888);
+    }
+
+    /**
+     * @param pixelFormat The format of the textures drawn. Mask formats are drawn in the vertex color.
+     */
+    public BatchGLProgram(GLPixelFormat pixelFormat) {
+        super(VERTEX, pixelFormat.isMask() ? String.format(MASK_FRAGMENT, pixelFormat.getCoverageChannel()) : FRAGMENT);
+        mPixelFormat = pixelFormat;
+    }
+
+    public GLPixelFormat getPixelFormat() {
+        return mPixelFormat;
+    }
+
+    public int getPositionLoc() {
+        return mPositionLoc;
+    }
+
+    public int getTexCoordLoc() {
+        return mTexCoordLoc;
+    }
+
+    public int getColorLoc() {
+        return mColorLoc;
+    }
+
+    @Override
+    protected void glOnWillLink() {
+        GLES20.glBindAttribLocation(getHandle(), POSITION_LOCATION, "a_Position");
+        GLES20.glBindAttribLocation(getHandle(), TEX_COORD_LOCATION, "a_TexCoord");
+        GLES20.glBindAttribLocation(getHandle(), COLOR_LOCATION, "a_Color");
+    }
+
+    @Override
+    public void glOnDidLink() {
+        mMatrix = getUniform("u_VPMatrix");
+        mPositionLoc = GLES20.glGetAttribLocation(getHandle(), "a_Position");
+        mTexCoordLoc = GLES20.glGetAttribLocation(getHandle(), "a_TexCoord");
+        mColorLoc = GLES20.glGetAttribLocation(getHandle(), "a_Color");
+    }
+
+    /**
+     * @param mvpMatrix The view-projection matrix, as batched vertices are already in surface space.
+     * @param color Unused, each batched vertex carries its own color.
+     */
+    @Override
+    public void glOnDraw(float[] mvpMatrix, float[] color) {
+        mMatrix.setMatrix4fv(mvpMatrix, 0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Program binaries through the OpenGL ES 3.0 entry points, the Java bindings having none for
+ * GL_OES_get_program_binary. Only supported on contexts of version 3.0 or later, which drivers
+ * commonly create even when version 2.0 is requested.
+ */
+final class GLES30ProgramBinaryGL implements ProgramBinaryGL {
+    private static final String VERSION_PREFIX = "OpenGL ES ";
+
+    @Override
+    public boolean glIsSupported() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if(version == null || !version.startsWith(VERSION_PREFIX)
+                || version.length() <= VERSION_PREFIX.length()) {
+            return false;
+        }
+        char major = version.charAt(VERSION_PREFIX.length());
+        if(major < '3' || major > '9') {
+            return false;
+        }
+        int[] formatCount = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+        return formatCount[0] > 0;
+    }
+
+    @Override
+    public String glGetDriverVersion() {
+        return String.format("%s/%s/%s", GLES20.glGetString(GLES20.GL_VENDOR),
+                GLES20.glGetString(GLES20.GL_RENDERER), GLES20.glGetString(GLES20.GL_VERSION));
+    }
+
+    @Override
+    public void glSetRetrievable(int program) {
+        GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+    }
+
+    @Override
+    public byte[] glGetProgramBinary(int program, int[] outFormat) {
+        int[] values = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, values, 0);
+        if(values[0] == 0) {
+            return null;
+        }
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        int length = values[0];
+        if(length <= 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        int[] written = new int[1];
+        GLES30.glGetProgramBinary(program, length, written, 0, outFormat, 0, buffer);
+        if(written[0] <= 0) {
+            return null;
+        }
+        byte[] binary = new byte[written[0]];
+        buffer.position(0);
+        buffer.get(binary);
+        return binary;
+    }
+
+    @Override
+    public boolean glProgramBinary(int program, int format, byte[] binary) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary);
+        buffer.position(0);
+        GLES30.glProgramBinary(program, format, buffer, binary.length);
+        int[] linked = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linked, 0);
+        return linked[0] != 0;
+    }
+}
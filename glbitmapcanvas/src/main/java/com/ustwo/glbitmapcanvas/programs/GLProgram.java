@@ -9,6 +9,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Container for set of GLSL vertex and fragment shaders.
@@ -16,10 +19,26 @@ import java.io.InputStreamReader;
  * Subclasses can handle
  */
 public abstract class GLProgram {
+    private static final String TAG = GLProgram.class.getSimpleName();
+    private static final AtomicInteger sNextId = new AtomicInteger(1);
+    private static final String[] NO_DEFINES = new String[0];
+
     private String mVertex = null;
     private String mFragment = null;
+    private String[] mDefines = NO_DEFINES;
     private int mHandle = 0;
     private boolean mIsLinked = false;
+    private boolean mIsAnimating = false;
+    private final int mId = sNextId.getAndIncrement();
+    private Map<String, GLUniform> mUniforms = new HashMap<>();
+    private long mCompileNanos = 0;
+
+    /**
+     * The registry and shared program this program object holds a reference to, if it was linked
+     * through a registry
+     */
+    private GLProgramRegistry mRegistry = null;
+    private GLProgramRegistry.Entry mEntry = null;
 
     public int getHandle() {
         return mHandle;
@@ -39,6 +58,38 @@ public abstract class GLProgram {
         return mVertex;
     }
 
+    /**
+     * A small number unique to this program object, used to group objects drawn with the same program
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * Whether this program's output changes from frame to frame even when the objects using it
+     * don't, e.g. because it animates on a time uniform updated in {@link #glOnDraw(float[], float[])}.
+     * The renderer never considers a frame static while a visible object uses an animating program.
+     * Default is false.
+     */
+    public boolean isAnimating() {
+        return mIsAnimating;
+    }
+
+    /**
+     * Set whether this program animates, see {@link #isAnimating()}
+     */
+    public void setAnimating(boolean animating) {
+        mIsAnimating = animating;
+    }
+
+    /**
+     * The time it took to compile and link this program, or the program it shares, in nanoseconds.
+     * 0 until linked.
+     */
+    public long getCompileTimeNanos() {
+        return mCompileNanos;
+    }
+
     /**
      * Construct program object with shader program defined as strings
      * @param vertex The vertex program
@@ -49,6 +100,20 @@ public abstract class GLProgram {
         mFragment = fragment;
     }
 
+    /**
+     * Construct program object with shader program defined as strings, compiled with preprocessor
+     * defines, so variants of a shader can be written once
+     * @param vertex The vertex program
+     * @param fragment The fragment program
+     * @param defines The defines, each a name optionally followed by a space and a value (e.g.
+     *                "USE_MASK" or "SAMPLES 4"), added to the start of both shaders
+     */
+    public GLProgram(@NonNull String vertex, @NonNull String fragment, @NonNull String... defines) {
+        mVertex = vertex;
+        mFragment = fragment;
+        mDefines = defines.clone();
+    }
+
     /**
      * Construct program object with shader program defined as asset filenames. The vertex and fragment
      * shaders should be placed into the /assets folder.
@@ -65,24 +130,194 @@ public abstract class GLProgram {
         }
     }
 
+    @NonNull
+    public String[] getDefines() {
+        return mDefines.clone();
+    }
+
+    /**
+     * Construct program object with shader programs preprocessed from assets, compiled with
+     * preprocessor defines, e.g. {@link GLShaderPreprocessor#AMBIENT}. Variants of the same
+     * shaders share the preprocessor's cached sources.
+     * @param preprocessor The preprocessor, see {@link GLShaderPreprocessor#forAssets(Context)}
+     * @param vertexAssetFilename The filename of the vertex shader, relative to the /assets/ folder
+     * @param fragmentAssetFilename The filename of the fragment shader, relative to the /assets/ folder
+     * @param defines The defines, each a name optionally followed by a space and a value
+     */
+    public GLProgram(@NonNull GLShaderPreprocessor preprocessor, @NonNull String vertexAssetFilename, @NonNull String fragmentAssetFilename, @NonNull String... defines) {
+        try {
+            mVertex = preprocessor.process(vertexAssetFilename, false, defines);
+            mFragment = preprocessor.process(fragmentAssetFilename, true, defines);
+        } catch(IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        mDefines = defines.clone();
+    }
+
     /**
-     * Create, compile, and link this program, on the calling thread's GL context.
+     * Create, compile, and link this program, on the calling thread's GL context, without sharing it
+     * with other program objects.
      */
     public final void glCreateCompileLink() {
+        glCreateCompileLink(null);
+    }
+
+    /**
+     * Create, compile, and link this program, on the calling thread's GL context, or share the
+     * program already linked in a registry for the same class, shaders and defines.
+     * @param registry The registry of the calling thread's GL context, or null not to share
+     */
+    public final void glCreateCompileLink(GLProgramRegistry registry) {
         if(mIsLinked) {
             return;
         }
+        GLProgramRegistry.Key key = null;
+        if(registry != null) {
+            key = new GLProgramRegistry.Key(getClass(), mVertex, mFragment, mDefines);
+            GLProgramRegistry.Entry entry = registry.acquire(key);
+            if(entry != null) {
+                mRegistry = registry;
+                mEntry = entry;
+                mHandle = entry.getHandle();
+                mUniforms = entry.getUniforms();
+                mCompileNanos = entry.getCompileNanos();
+                mIsLinked = true;
+                glOnDidLink();
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
         mHandle = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mHandle, glCompile(GLES20.GL_VERTEX_SHADER, mVertex));
-        GLES20.glAttachShader(mHandle, glCompile(GLES20.GL_FRAGMENT_SHADER, mFragment));
-        GLES20.glLinkProgram(mHandle);
+        GLProgramBinaryCache binaryCache = (registry != null) ? registry.getBinaryCache() : null;
+        // A binary holds the attribute locations bound when it was stored, so glOnWillLink is skipped
+        boolean isCached = binaryCache != null && binaryCache.glLoad(mHandle, key);
+        if(!isCached) {
+            if(binaryCache != null) {
+                // The failed binary may have left the program unusable
+                GLES20.glDeleteProgram(mHandle);
+                mHandle = GLES20.glCreateProgram();
+                binaryCache.glPrepare(mHandle);
+            }
+            int vertexShader = glCompile(GLES20.GL_VERTEX_SHADER, applyDefines(mVertex, mDefines));
+            int fragmentShader = glCompile(GLES20.GL_FRAGMENT_SHADER, applyDefines(mFragment, mDefines));
+            GLES20.glAttachShader(mHandle, vertexShader);
+            GLES20.glAttachShader(mHandle, fragmentShader);
+            glOnWillLink();
+            GLES20.glLinkProgram(mHandle);
+            // Only flagged for deletion, the shaders go with the program
+            GLES20.glDeleteShader(vertexShader);
+            GLES20.glDeleteShader(fragmentShader);
+            if(binaryCache != null) {
+                binaryCache.glStore(mHandle, key);
+            }
+        }
+        mCompileNanos = System.nanoTime() - start;
 
+        if(registry != null) {
+            mRegistry = registry;
+            mEntry = registry.add(key, mHandle, mCompileNanos);
+            mUniforms = mEntry.getUniforms();
+            Log.d(TAG, String.format("glCreateCompileLink: %s %s in %.2f ms (%d programs, %d ms total)", getClass().getSimpleName(), isCached ? "loaded from binary" : "compiled", mCompileNanos / 1000000.0, registry.getProgramCount(), registry.getTotalCompileTimeMillis()));
+        } else {
+            mUniforms = new HashMap<>();
+            Log.d(TAG, String.format("glCreateCompileLink: %s compiled in %.2f ms", getClass().getSimpleName(), mCompileNanos / 1000000.0));
+        }
         mIsLinked = true;
+        glDiscoverUniforms();
         glOnDidLink();
     }
 
     /**
-     * Called once after this program has been linked.
+     * Add defines to the start of a shader, after its #version directive if it has one
+     */
+    static String applyDefines(String source, String[] defines) {
+        if(defines.length == 0) {
+            return source;
+        }
+        StringBuilder builder = new StringBuilder(source.length() + defines.length * 32);
+        int start = 0;
+        if(source.trim().startsWith("#version")) {
+            int newline = source.indexOf('\n', source.indexOf("#version"));
+            start = (newline >= 0) ? newline + 1 : source.length();
+            builder.append(source, 0, start);
+            if(newline < 0) {
+                builder.append('\n');
+            }
+        }
+        for(String define : defines) {
+            builder.append("#define ").append(define).append('\n');
+        }
+        builder.append(source, start, source.length());
+        return builder.toString();
+    }
+
+    /**
+     * Query the active uniforms of the linked program once, caching their locations.
+     */
+    private void glDiscoverUniforms() {
+        mUniforms.clear();
+        int[] values = new int[1];
+        GLES20.glGetProgramiv(mHandle, GLES20.GL_ACTIVE_UNIFORMS, values, 0);
+        int count = values[0];
+        int[] size = new int[1];
+        int[] type = new int[1];
+        for(int i = 0; i < count; i++) {
+            String name = GLES20.glGetActiveUniform(mHandle, i, size, 0, type, 0);
+            if(name == null) {
+                continue;
+            }
+            // Arrays are reported as "name[0]", address them by their base name
+            int bracket = name.indexOf('[');
+            if(bracket >= 0) {
+                name = name.substring(0, bracket);
+            }
+            int location = GLES20.glGetUniformLocation(mHandle, name);
+            mUniforms.put(name, new GLUniform(name, location, type[0]));
+        }
+    }
+
+    /**
+     * Get an active uniform of this program. Setting values through the returned object only
+     * issues GL calls when the value changed. Must be called after the program was linked, e.g. in
+     * {@link #glOnDidLink()}, as uniforms are discovered again on every link.
+     * @param name The uniform name, as declared in the shader
+     * @return The uniform. If the uniform isn't active (e.g. it was optimized away), an inactive
+     * uniform is returned, setting values on which does nothing.
+     */
+    @NonNull
+    public GLUniform getUniform(@NonNull String name) {
+        GLUniform uniform = mUniforms.get(name);
+        if(uniform == null) {
+            uniform = new GLUniform(name, -1, 0);
+            mUniforms.put(name, uniform);
+        }
+        return uniform;
+    }
+
+    /**
+     * Forget this program's handle without deleting it, as the GL context owning it is gone.
+     * The program will be created again by the next call to {@link #glCreateCompileLink()}.
+     */
+    public void onGlContextLost() {
+        mHandle = 0;
+        mIsLinked = false;
+        mRegistry = null;
+        mEntry = null;
+        mUniforms = new HashMap<>();
+    }
+
+    /**
+     * Called before this program is linked, e.g. to fix attribute locations with
+     * {@link GLES20#glBindAttribLocation(int, int, String)}, so programs can share vertex attribute
+     * setup.
+     */
+    protected void glOnWillLink() {
+    }
+
+    /**
+     * Called once after this program has been linked. Uniforms used in {@link #glOnDraw(float[], float[])}
+     * should be looked up here with {@link #getUniform(String)}.
      */
     public abstract void glOnDidLink();
 
@@ -95,14 +330,22 @@ public abstract class GLProgram {
     public abstract void glOnDraw(float[] mvpMatrix, float[] color);
 
     /**
-     * Delete the current program, using calling thread's GL context.
+     * Delete the current program, using calling thread's GL context. A program shared through a
+     * {@link GLProgramRegistry} is only deleted once no other program object uses it. The program
+     * will be created again by the next call to {@link #glCreateCompileLink(GLProgramRegistry)}.
      */
     public void glDelete() {
         if(mHandle == 0) {
             throw new IllegalStateException("Attempting to delete program that hasn't been created");
         }
-        GLES20.glDeleteProgram(mHandle);
+        if(mEntry == null || mRegistry.release(mEntry)) {
+            GLES20.glDeleteProgram(mHandle);
+        }
+        mHandle = 0;
         mIsLinked = false;
+        mRegistry = null;
+        mEntry = null;
+        mUniforms = new HashMap<>();
     }
 
     private static int glCompile(int type, @NonNull String shaderCode){
@@ -129,12 +372,16 @@ public abstract class GLProgram {
     public static String readStringAsset(Context context, String asset) throws IOException {
         StringBuilder stringBuilder = new StringBuilder();
         InputStream inputStream = context.getAssets().open(asset);
-        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
-        String line = bufferedReader.readLine();
-        while (line != null) {
-            stringBuilder.append(line);
-            stringBuilder.append('\n');
-            line = bufferedReader.readLine();
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            String line = bufferedReader.readLine();
+            while (line != null) {
+                stringBuilder.append(line);
+                stringBuilder.append('\n');
+                line = bufferedReader.readLine();
+            }
+        } finally {
+            inputStream.close();
         }
         return stringBuilder.toString();
     }
@@ -0,0 +1,272 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the binaries of linked programs on disk, so programs are loaded instead of compiled from
+ * source the next time the watch face starts. Set on a {@link GLProgramRegistry}, every program
+ * compiled through the registry is looked up here first, and stored after linking.
+ *
+ * A binary is found by a hash of the program's class, shaders and defines, and is only loaded if it
+ * was stored by the same driver, as drivers can't load each other's binaries. Files that don't
+ * match, are damaged or are rejected by the driver are deleted, and the program is compiled from
+ * source as if there were no cache.
+ *
+ * Only used on contexts supporting program binaries, OpenGL ES 3.0 and later. Must only be used on
+ * the thread of the GL context.
+ */
+public final class GLProgramBinaryCache {
+    private static final String DIRECTORY = "program_binaries";
+    private static final String EXTENSION = ".bin";
+
+    /**
+     * Identifies cache files: "GLPB" and the version of the file format
+     */
+    static final int MAGIC = 0x474C5042;
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Larger lengths are taken as damage, rather than allocated
+     */
+    private static final int MAX_BINARY_LENGTH = 16 * 1024 * 1024;
+
+    private final File mDirectory;
+    private final ProgramBinaryGL mGL;
+    private Boolean mIsSupported = null;
+    private String mDriverVersion = null;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mRejectCount = 0;
+
+    /**
+     * Create a cache in the app's code cache directory, which the system clears when the app is
+     * updated
+     * @param context The context, used to find the code cache directory
+     * @return The cache
+     */
+    public static GLProgramBinaryCache create(Context context) {
+        return new GLProgramBinaryCache(new File(context.getCodeCacheDir(), DIRECTORY), new GLES30ProgramBinaryGL());
+    }
+
+    GLProgramBinaryCache(File directory, ProgramBinaryGL gl) {
+        mDirectory = directory;
+        mGL = gl;
+    }
+
+    /**
+     * Whether the current context can load and store program binaries. The cache does nothing if not.
+     */
+    public boolean glIsSupported() {
+        if(mIsSupported == null) {
+            mIsSupported = mGL.glIsSupported();
+            if(mIsSupported) {
+                mDriverVersion = mGL.glGetDriverVersion();
+            }
+        }
+        return mIsSupported;
+    }
+
+    /**
+     * The number of programs loaded from the cache
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * The number of programs not in the cache, or whose cached binary couldn't be used
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * The number of cached binaries deleted because they were stale, damaged or rejected by the driver
+     */
+    public int getRejectCount() {
+        return mRejectCount;
+    }
+
+    /**
+     * Delete all cached binaries
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            if(file.getName().endsWith(EXTENSION)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Link a newly created program from its cached binary
+     * @param program The program handle, without shaders attached
+     * @param key The program's key
+     * @return Whether the program was linked. If not, the program may be left in a failed link
+     * state, so a new program should be created to compile from source.
+     */
+    boolean glLoad(int program, GLProgramRegistry.Key key) {
+        if(!glIsSupported()) {
+            return false;
+        }
+        long sourceHash = key.getSourceHash();
+        File file = getFile(sourceHash);
+        if(!file.isFile()) {
+            mMissCount++;
+            return false;
+        }
+
+        int[] format = new int[1];
+        byte[] binary;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                binary = read(in, mDriverVersion, sourceHash, format);
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            binary = null;
+        }
+
+        if(binary == null || !mGL.glProgramBinary(program, format[0], binary)) {
+            file.delete();
+            mRejectCount++;
+            mMissCount++;
+            return false;
+        }
+        mHitCount++;
+        return true;
+    }
+
+    /**
+     * Prepare a program compiled from source for storing, before it's linked
+     */
+    void glPrepare(int program) {
+        if(glIsSupported()) {
+            mGL.glSetRetrievable(program);
+        }
+    }
+
+    /**
+     * Store the binary of a program linked from source
+     * @return Whether the binary was stored
+     */
+    boolean glStore(int program, GLProgramRegistry.Key key) {
+        if(!glIsSupported()) {
+            return false;
+        }
+        int[] format = new int[1];
+        byte[] binary = mGL.glGetProgramBinary(program, format);
+        if(binary == null) {
+            return false;
+        }
+
+        long sourceHash = key.getSourceHash();
+        File file = getFile(sourceHash);
+        // Written next to the destination first, so a partly written file is never read
+        File temporary = new File(mDirectory, file.getName() + ".tmp");
+        try {
+            if(!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return false;
+            }
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                write(out, mDriverVersion, sourceHash, format[0], binary);
+            } finally {
+                out.close();
+            }
+        } catch(IOException e) {
+            temporary.delete();
+            return false;
+        }
+        if(!temporary.renameTo(file)) {
+            temporary.delete();
+            return false;
+        }
+        return true;
+    }
+
+    File getFile(long sourceHash) {
+        return new File(mDirectory, String.format("%016x%s", sourceHash, EXTENSION));
+    }
+
+    /**
+     * Write a cache file
+     * @param out The stream written to
+     * @param driverVersion The driver the binary was retrieved from
+     * @param sourceHash The program's source hash, see {@link GLProgramRegistry.Key#getSourceHash()}
+     * @param format The binary format
+     * @param binary The binary
+     */
+    static void write(OutputStream out, String driverVersion, long sourceHash, int format, byte[] binary) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(binary);
+        // Buffered, so the file is written at once
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(binary.length + 128);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeUTF(driverVersion);
+        data.writeLong(sourceHash);
+        data.writeInt(format);
+        data.writeInt(binary.length);
+        data.writeInt((int)crc.getValue());
+        data.write(binary);
+        data.flush();
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Read a cache file
+     * @param in The stream read from
+     * @param driverVersion The current driver
+     * @param sourceHash The source hash of the program looked for
+     * @param outFormat Receives the binary format
+     * @return The binary, or null if the file is of another format version, driver or program
+     * @throws IOException If the file is damaged or truncated
+     */
+    static byte[] read(InputStream in, String driverVersion, long sourceHash, int[] outFormat) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if(data.readInt() != MAGIC) {
+            throw new IOException("Not a program binary cache file");
+        }
+        if(data.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        if(!data.readUTF().equals(driverVersion) || data.readLong() != sourceHash) {
+            return null;
+        }
+        int format = data.readInt();
+        int length = data.readInt();
+        int checksum = data.readInt();
+        if(length <= 0 || length > MAX_BINARY_LENGTH) {
+            throw new IOException(String.format("Invalid binary length %d", length));
+        }
+        byte[] binary = new byte[length];
+        data.readFully(binary);
+        CRC32 crc = new CRC32();
+        crc.update(binary);
+        if((int)crc.getValue() != checksum) {
+            throw new IOException("Program binary checksum mismatch");
+        }
+        outFormat[0] = format;
+        return binary;
+    }
+}
@@ -0,0 +1,229 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Linked programs of one GL context, shared between {@link GLProgram} objects of the same class with
+ * identical shader sources and defines, so identical GLSL is compiled once however many program
+ * objects use it. Programs are reference counted: each program object linked through
+ * {@link GLProgram#glCreateCompileLink(GLProgramRegistry)} holds a reference until
+ * {@link GLProgram#glDelete()}, and the GL program is deleted with the last reference.
+ *
+ * Program objects sharing a GL program also share its {@link GLUniform}s, so the uniform values
+ * remembered always match the GL program's state.
+ *
+ * Each {@link com.ustwo.glbitmapcanvas.GLBitmapRenderer} owns a registry, see
+ * {@link com.ustwo.glbitmapcanvas.GLBitmapRenderer#getProgramRegistry()}. Must only be used on the
+ * thread of the GL context.
+ */
+public final class GLProgramRegistry {
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+    private long mTotalCompileNanos = 0;
+    private int mCompileCount = 0;
+    private int mShareCount = 0;
+    private GLProgramBinaryCache mBinaryCache = null;
+
+    /**
+     * Load programs from, and store them in, a cache of program binaries, so they aren't compiled
+     * from source on every start. Programs already linked aren't affected.
+     * @param binaryCache The cache, or null to always compile from source
+     */
+    public void setBinaryCache(GLProgramBinaryCache binaryCache) {
+        mBinaryCache = binaryCache;
+    }
+
+    public GLProgramBinaryCache getBinaryCache() {
+        return mBinaryCache;
+    }
+
+    /**
+     * The number of distinct GL programs currently linked
+     */
+    public int getProgramCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * The number of GL programs compiled and linked, or loaded from the binary cache, since this
+     * registry was created
+     */
+    public int getCompileCount() {
+        return mCompileCount;
+    }
+
+    /**
+     * The number of times a program object reused an already linked GL program instead of compiling
+     */
+    public int getShareCount() {
+        return mShareCount;
+    }
+
+    /**
+     * The time spent compiling and linking programs since this registry was created
+     */
+    public long getTotalCompileTimeMillis() {
+        return mTotalCompileNanos / 1000000L;
+    }
+
+    /**
+     * Take a reference to a linked program
+     * @return The program, or null if none is linked for the key
+     */
+    Entry acquire(Key key) {
+        Entry entry = mEntries.get(key);
+        if(entry != null) {
+            entry.mRefCount++;
+            mShareCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Register a newly linked program, holding one reference
+     */
+    Entry add(Key key, int handle, long compileNanos) {
+        if(mEntries.containsKey(key)) {
+            throw new IllegalStateException("A program is already linked for this key");
+        }
+        Entry entry = new Entry(key, handle, compileNanos);
+        mEntries.put(key, entry);
+        mTotalCompileNanos += compileNanos;
+        mCompileCount++;
+        return entry;
+    }
+
+    /**
+     * Drop a reference to a program
+     * @return True if it was the last reference, in which case the GL program must be deleted
+     */
+    boolean release(Entry entry) {
+        if(entry.mRefCount <= 0 || mEntries.get(entry.mKey) != entry) {
+            throw new IllegalStateException("Releasing a program that isn't registered");
+        }
+        entry.mRefCount--;
+        if(entry.mRefCount > 0) {
+            return false;
+        }
+        mEntries.remove(entry.mKey);
+        return true;
+    }
+
+    /**
+     * Forget all programs without deleting them, as the GL context owning them is gone. Program
+     * objects must be told too, with {@link GLProgram#onGlContextLost()}.
+     */
+    public void onGlContextLost() {
+        mEntries.clear();
+    }
+
+    /**
+     * Identifies a GL program by everything it's built from: the program class (which may bind
+     * attribute locations before linking), the shader sources and the defines. The hash of the
+     * sources is computed once, the sources themselves are only compared when hashes match.
+     */
+    static final class Key {
+        private final Class<?> mProgramClass;
+        private final String mVertex;
+        private final String mFragment;
+        private final String[] mDefines;
+        private final int mHash;
+
+        Key(Class<?> programClass, String vertex, String fragment, String[] defines) {
+            mProgramClass = programClass;
+            mVertex = vertex;
+            mFragment = fragment;
+            mDefines = defines;
+            int hash = programClass.getName().hashCode();
+            hash = hash * 31 + vertex.hashCode();
+            hash = hash * 31 + fragment.hashCode();
+            hash = hash * 31 + Arrays.hashCode(defines);
+            mHash = hash;
+        }
+
+        /**
+         * A 64 bit hash of everything the program is built from, stable across runs, to find the
+         * program in a {@link GLProgramBinaryCache}
+         */
+        long getSourceHash() {
+            long hash = FNV_OFFSET_BASIS;
+            hash = fnv1a(hash, mProgramClass.getName());
+            hash = fnv1a(hash, mVertex);
+            hash = fnv1a(hash, mFragment);
+            for(String define : mDefines) {
+                hash = fnv1a(hash, define);
+            }
+            return hash;
+        }
+
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private static long fnv1a(long hash, String value) {
+            for(int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+                hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            }
+            // Ending with the length separates consecutive strings, so moving characters between
+            // them changes the hash
+            for(int shift = 0; shift < 32; shift += 8) {
+                hash = (hash ^ ((value.length() >>> shift) & 0xFF)) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return mHash == other.mHash && mProgramClass == other.mProgramClass
+                    && Arrays.equals(mDefines, other.mDefines)
+                    && mVertex.equals(other.mVertex) && mFragment.equals(other.mFragment);
+        }
+    }
+
+    /**
+     * A linked GL program and its uniforms, shared by the program objects holding references to it
+     */
+    static final class Entry {
+        private final Key mKey;
+        private final int mHandle;
+        private final long mCompileNanos;
+        private final Map<String, GLUniform> mUniforms = new HashMap<>();
+        private int mRefCount = 1;
+
+        private Entry(Key key, int handle, long compileNanos) {
+            mKey = key;
+            mHandle = handle;
+            mCompileNanos = compileNanos;
+        }
+
+        int getHandle() {
+            return mHandle;
+        }
+
+        long getCompileNanos() {
+            return mCompileNanos;
+        }
+
+        int getRefCount() {
+            return mRefCount;
+        }
+
+        Map<String, GLUniform> getUniforms() {
+            return mUniforms;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prepares shader sources for {@link GLProgram}s, so shaders can share code and be compiled in
+ * variants without copying GLSL:
+ *
+ * <ul>
+ *     <li>{@code #include "name.glsl"} lines are replaced by the named source, resolved relative to
+ *     the including source. Each source is included at most once per shader, so shared snippets
+ *     can include what they need.</li>
+ *     <li>Fragment shaders without a default float precision get one chosen for the variant:
+ *     {@code lowp} when {@link #LOW_BIT} is defined, as low-bit ambient displays show only a few
+ *     colors, otherwise {@code mediump}.</li>
+ * </ul>
+ *
+ * Defines themselves are added when the program is compiled, see
+ * {@link GLProgram#GLProgram(GLShaderPreprocessor, String, String, String...)}, so shaders can
+ * test for variants with e.g. {@code #ifdef AMBIENT}.
+ *
+ * Sources are read once, and preprocessed shaders are kept, so compiling further variants or
+ * recreating programs after the GL context is lost doesn't read assets again. May be used from any
+ * thread.
+ */
+public final class GLShaderPreprocessor {
+    /**
+     * Conventional defines of watch face variants
+     */
+    public static final String AMBIENT = "AMBIENT";
+    public static final String LOW_BIT = "LOW_BIT";
+    public static final String ROUND = "ROUND";
+
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s+[\"<]([^\">]+)[\">]\\s*$");
+    private static final Pattern FLOAT_PRECISION = Pattern.compile("\\bprecision\\s+(lowp|mediump|highp)\\s+float\\s*;");
+
+    /**
+     * Reads shader sources by name, e.g. from assets
+     */
+    public interface SourceProvider {
+        @NonNull
+        String read(@NonNull String name) throws IOException;
+    }
+
+    private final SourceProvider mProvider;
+    private final Map<String, String> mSources = new HashMap<>();
+    private final Map<String, String> mProcessed = new HashMap<>();
+
+    public GLShaderPreprocessor(@NonNull SourceProvider provider) {
+        mProvider = provider;
+    }
+
+    /**
+     * Create a preprocessor reading sources from the /assets/ folder
+     * @param context The context, used to read assets
+     * @return The preprocessor
+     */
+    public static GLShaderPreprocessor forAssets(@NonNull Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        return new GLShaderPreprocessor(new SourceProvider() {
+            @NonNull
+            @Override
+            public String read(@NonNull String name) throws IOException {
+                return GLProgram.readStringAsset(applicationContext, name);
+            }
+        });
+    }
+
+    /**
+     * Preprocess a shader for a variant
+     * @param name The shader's name, e.g. its filename relative to the /assets/ folder
+     * @param isFragment Whether it's a fragment shader, which gets a default precision
+     * @param defines The variant's defines, each a name optionally followed by a space and a value
+     * @return The source, with includes resolved, without the defines
+     * @throws IOException If a source can't be read
+     * @throws IllegalArgumentException If sources include each other
+     */
+    @NonNull
+    public synchronized String process(@NonNull String name, boolean isFragment, @NonNull String... defines) throws IOException {
+        String precision = isFragment ? selectPrecision(defines) : null;
+        String cacheKey = name + '\n' + precision;
+        String processed = mProcessed.get(cacheKey);
+        if(processed == null) {
+            StringBuilder builder = new StringBuilder();
+            resolveIncludes(name, builder, new ArrayList<String>(), new HashSet<String>());
+            processed = (precision != null) ? addDefaultPrecision(builder.toString(), precision) : builder.toString();
+            mProcessed.put(cacheKey, processed);
+        }
+        return processed;
+    }
+
+    /**
+     * Forget all sources read and shaders preprocessed, e.g. after assets changed
+     */
+    public synchronized void clear() {
+        mSources.clear();
+        mProcessed.clear();
+    }
+
+    /**
+     * The default float precision of fragment shaders of a variant
+     */
+    static String selectPrecision(String[] defines) {
+        for(String define : defines) {
+            if(LOW_BIT.equals(defineName(define))) {
+                return "lowp";
+            }
+        }
+        return "mediump";
+    }
+
+    private static String defineName(String define) {
+        int space = define.indexOf(' ');
+        return (space >= 0) ? define.substring(0, space) : define;
+    }
+
+    private void resolveIncludes(String name, StringBuilder out, List<String> stack, Set<String> included) throws IOException {
+        if(stack.contains(name)) {
+            StringBuilder cycle = new StringBuilder();
+            for(String entry : stack.subList(stack.indexOf(name), stack.size())) {
+                cycle.append(entry).append(" -> ");
+            }
+            throw new IllegalArgumentException(String.format("Include cycle: %s%s", cycle, name));
+        }
+        if(!included.add(name)) {
+            return;
+        }
+        stack.add(name);
+        String[] lines = readSource(name).split("\n", -1);
+        for(int i = 0; i < lines.length; i++) {
+            Matcher include = INCLUDE.matcher(lines[i]);
+            if(include.matches()) {
+                resolveIncludes(resolve(name, include.group(1)), out, stack, included);
+            } else {
+                out.append(lines[i]);
+                if(i < lines.length - 1) {
+                    out.append('\n');
+                }
+            }
+        }
+        if(out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+            out.append('\n');
+        }
+        stack.remove(stack.size() - 1);
+    }
+
+    private String readSource(String name) throws IOException {
+        String source = mSources.get(name);
+        if(source == null) {
+            source = mProvider.read(name);
+            mSources.put(name, source);
+        }
+        return source;
+    }
+
+    /**
+     * Resolve an include relative to the directory of the including source
+     */
+    static String resolve(String includingName, String includedName) {
+        if(includedName.startsWith("/")) {
+            return includedName.substring(1);
+        }
+        int slash = includingName.lastIndexOf('/');
+        String path = (slash >= 0) ? includingName.substring(0, slash + 1) + includedName : includedName;
+        List<String> segments = new ArrayList<>();
+        for(String segment : path.split("/")) {
+            if(segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if(segment.equals("..")) {
+                if(segments.isEmpty()) {
+                    throw new IllegalArgumentException(String.format("%s included by %s is outside the source root", includedName, includingName));
+                }
+                segments.remove(segments.size() - 1);
+            } else {
+                segments.add(segment);
+            }
+        }
+        StringBuilder resolved = new StringBuilder();
+        for(String segment : segments) {
+            if(resolved.length() > 0) {
+                resolved.append('/');
+            }
+            resolved.append(segment);
+        }
+        return resolved.toString();
+    }
+
+    /**
+     * Add a default float precision statement to a fragment shader that has none, after the
+     * #version and #extension directives it starts with
+     */
+    static String addDefaultPrecision(String source, String precision) {
+        if(FLOAT_PRECISION.matcher(source).find()) {
+            return source;
+        }
+        int insertAt = 0;
+        int lineStart = 0;
+        while(lineStart < source.length()) {
+            int lineEnd = source.indexOf('\n', lineStart);
+            int next = (lineEnd >= 0) ? lineEnd + 1 : source.length();
+            String line = source.substring(lineStart, next).trim();
+            if(line.startsWith("#version") || line.startsWith("#extension")) {
+                insertAt = next;
+            } else if(!line.isEmpty() && !line.startsWith("#")) {
+                break;
+            }
+            lineStart = next;
+        }
+        StringBuilder builder = new StringBuilder(source.length() + 32);
+        builder.append(source, 0, insertAt);
+        if(insertAt > 0 && source.charAt(insertAt - 1) != '\n') {
+            builder.append('\n');
+        }
+        builder.append("precision ").append(precision).append(" float;\n");
+        builder.append(source, insertAt, source.length());
+        return builder.toString();
+    }
+}
@@ -0,0 +1,133 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import android.opengl.GLES20;
+
+/**
+ * An active uniform of a linked {@link GLProgram}, remembering the last value uploaded so that
+ * setting an unchanged value doesn't issue a GL call. Obtain instances with
+ * {@link GLProgram#getUniform(String)}, usually in {@link GLProgram#glOnDidLink()}.
+ *
+ * Values must only be set while the owning program is in use, and all uploads to the uniform
+ * should go through this object, otherwise the remembered value is wrong.
+ */
+public final class GLUniform {
+    private final String mName;
+    private final int mLocation;
+    private final int mType;
+    private final float[] mValue;
+    private boolean mHasValue = false;
+
+    GLUniform(String name, int location, int type) {
+        mName = name;
+        mLocation = location;
+        mType = type;
+        // Large enough for any type up to mat4, a mismatched setter is left for GL to report
+        mValue = new float[16];
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The uniform location, or -1 if the uniform isn't active in the program
+     */
+    public int getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * @return The GL type of the uniform, e.g. {@link GLES20#GL_FLOAT_VEC4}
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * Whether the uniform is used by the program. Setting an inactive uniform does nothing.
+     */
+    public boolean isActive() {
+        return mLocation >= 0;
+    }
+
+    public void set1f(float x) {
+        if(!isActive() || (mHasValue && mValue[0] == x)) {
+            return;
+        }
+        mValue[0] = x;
+        mHasValue = true;
+        GLES20.glUniform1f(mLocation, x);
+    }
+
+    public void set2f(float x, float y) {
+        if(!isActive() || (mHasValue && mValue[0] == x && mValue[1] == y)) {
+            return;
+        }
+        mValue[0] = x;
+        mValue[1] = y;
+        mHasValue = true;
+        GLES20.glUniform2f(mLocation, x, y);
+    }
+
+    public void set4f(float x, float y, float z, float w) {
+        if(!isActive() || (mHasValue && mValue[0] == x && mValue[1] == y && mValue[2] == z && mValue[3] == w)) {
+            return;
+        }
+        mValue[0] = x;
+        mValue[1] = y;
+        mValue[2] = z;
+        mValue[3] = w;
+        mHasValue = true;
+        GLES20.glUniform4f(mLocation, x, y, z, w);
+    }
+
+    /**
+     * Set a vec4 uniform from 4 consecutive values
+     */
+    public void set4fv(float[] value, int offset) {
+        set4f(value[offset], value[offset + 1], value[offset + 2], value[offset + 3]);
+    }
+
+    /**
+     * Set an int or sampler uniform
+     */
+    public void set1i(int x) {
+        if(!isActive() || (mHasValue && Float.floatToRawIntBits(mValue[0]) == x)) {
+            return;
+        }
+        mValue[0] = Float.intBitsToFloat(x);
+        mHasValue = true;
+        GLES20.glUniform1i(mLocation, x);
+    }
+
+    /**
+     * Set a mat4 uniform from 16 consecutive values, in column-major order
+     */
+    public void setMatrix4fv(float[] matrix, int offset) {
+        if(!isActive()) {
+            return;
+        }
+        if(mHasValue && equals(matrix, offset, 16)) {
+            return;
+        }
+        System.arraycopy(matrix, offset, mValue, 0, 16);
+        mHasValue = true;
+        GLES20.glUniformMatrix4fv(mLocation, 1, false, matrix, offset);
+    }
+
+    /**
+     * Forget the remembered value, so the next set is always uploaded
+     */
+    public void invalidate() {
+        mHasValue = false;
+    }
+
+    private boolean equals(float[] value, int offset, int count) {
+        for(int i = 0; i < count; i++) {
+            if(mValue[i] != value[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
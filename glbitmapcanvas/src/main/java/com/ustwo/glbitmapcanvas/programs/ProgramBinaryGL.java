@@ -0,0 +1,36 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+/**
+ * The GL calls {@link GLProgramBinaryCache} makes, so the cache can be exercised without a GL context.
+ * All methods must be called on the thread of the GL context.
+ */
+interface ProgramBinaryGL {
+    /**
+     * Whether program binaries can be retrieved and loaded on the current context
+     */
+    boolean glIsSupported();
+
+    /**
+     * Identifies the driver, whose binaries no other driver can load, e.g. vendor, renderer and version
+     */
+    String glGetDriverVersion();
+
+    /**
+     * Ask for the binary of a program to be retrievable, before the program is linked
+     */
+    void glSetRetrievable(int program);
+
+    /**
+     * Get the binary of a linked program
+     * @param program The program handle
+     * @param outFormat Receives the binary format
+     * @return The binary, or null if the program isn't linked or has no binary
+     */
+    byte[] glGetProgramBinary(int program, int[] outFormat);
+
+    /**
+     * Load a binary into a program, replacing any earlier link
+     * @return Whether the program is linked afterwards, which fails if the driver rejects the binary
+     */
+    boolean glProgramBinary(int program, int format, byte[] binary);
+}
@@ -2,15 +2,18 @@ package com.ustwo.glbitmapcanvas.programs;
 
 import android.opengl.GLES20;
 
+import com.ustwo.glbitmapcanvas.GLPixelFormat;
+
 public final class StandardGLProgram extends GLProgram {
     private static String VERTEX =
             "uniform mat4 u_MVPMatrix;" +
+                    "uniform vec4 u_UVRect;" +
                     "attribute vec4 a_Position;" +
                     "attribute vec2 a_TexCoord;" +
                     "varying vec2 v_TexCoord;" +
                     "void main() {" +
                     "  gl_Position = u_MVPMatrix * a_Position;" +
-                    "  v_TexCoord = a_TexCoord;" +
+                    "  v_TexCoord = u_UVRect.xy + a_TexCoord * u_UVRect.zw;" +
                     "}";
     private static String FRAGMENT =
             "precision mediump float;" +
@@ -21,30 +24,127 @@ public final class StandardGLProgram extends GLProgram {
                     "   gl_FragColor = texture2D( s_Texture, v_TexCoord ) * u_Color;" +
                     "}";
 
-    private int mMatrixLoc = -1;
-    private int mColorLoc = -1;
+    /**
+     * Fragment shader for mask formats: the color, premultiplied, scaled by the sampled coverage
+     */
+    private static String MASK_FRAGMENT =
+            "precision mediump float;" +
+                    "varying vec2 v_TexCoord;" +
+                    "uniform sampler2D s_Texture;" +
+                    "uniform vec4 u_Color;" +
+                    "void main() {" +
+                    "   gl_FragColor = vec4(u_Color.rgb * u_Color.a, u_Color.a) * texture2D( s_Texture, v_TexCoord ).%s;" +
+                    "}";
+
+    /**
+     * Fragment shader for ETC1 textures with a separate alpha plane, premultiplying by the alpha
+     * sampled from the plane's green channel
+     */
+    private static String ALPHA_PLANE_FRAGMENT =
+            "precision mediump float;" +
+                    "varying vec2 v_TexCoord;" +
+                    "uniform sampler2D s_Texture;" +
+                    "uniform sampler2D s_AlphaTexture;" +
+                    "uniform vec4 u_Color;" +
+                    "void main() {" +
+                    "   float alpha = texture2D( s_AlphaTexture, v_TexCoord ).g;" +
+                    "   gl_FragColor = vec4(texture2D( s_Texture, v_TexCoord ).rgb * alpha, alpha) * u_Color;" +
+                    "}";
+
+    /**
+     * The texture unit the alpha plane is bound to
+     */
+    public static final int ALPHA_TEXTURE_UNIT = 1;
+
+    /**
+     * Attribute locations shared by all variants, so switching between them keeps the vertex setup
+     */
+    public static final int POSITION_LOCATION = 0;
+    public static final int TEX_COORD_LOCATION = 1;
+
+    private GLUniform mMatrix;
+    private GLUniform mColor;
+    private GLUniform mUVRect;
+    private GLUniform mAlphaTexture;
+
+    private final GLPixelFormat mPixelFormat;
+    private final boolean mHasAlphaPlane;
 
     public StandardGLProgram() {
-        super(VERTEX, FRAGMENT);
+        this(GLPixelFormat.RGBA_8888);
+    }
+
+    /**
+     * @param pixelFormat The format of the textures drawn. Mask formats are drawn in the object's color.
+     */
+    public StandardGLProgram(GLPixelFormat pixelFormat) {
+        super(VERTEX, pixelFormat.isMask() ? String.format(MASK_FRAGMENT, pixelFormat.getCoverageChannel()) : FRAGMENT);
+        mPixelFormat = pixelFormat;
+        mHasAlphaPlane = false;
+    }
+
+    private StandardGLProgram(String fragment) {
+        super(VERTEX, fragment);
+        mPixelFormat = GLPixelFormat.RGBA_8888;
+        mHasAlphaPlane = true;
+    }
+
+    /**
+     * A program drawing an opaque color texture with its alpha from a second texture, bound to
+     * {@link #ALPHA_TEXTURE_UNIT}, as used for {@link com.ustwo.glbitmapcanvas.GLCompressedTexture}s
+     * with an alpha plane
+     */
+    public static StandardGLProgram createWithAlphaPlane() {
+        return new StandardGLProgram(ALPHA_PLANE_FRAGMENT);
+    }
+
+    public GLPixelFormat getPixelFormat() {
+        return mPixelFormat;
+    }
+
+    /**
+     * Whether this program samples alpha from a second texture, see {@link #createWithAlphaPlane()}
+     */
+    public boolean hasAlphaPlane() {
+        return mHasAlphaPlane;
     }
 
     public int getColorLoc() {
-        return mColorLoc;
+        return mColor == null ? -1 : mColor.getLocation();
     }
 
     public int getMatrixLoc() {
-        return mMatrixLoc;
+        return mMatrix == null ? -1 : mMatrix.getLocation();
+    }
+
+    @Override
+    protected void glOnWillLink() {
+        GLES20.glBindAttribLocation(getHandle(), POSITION_LOCATION, "a_Position");
+        GLES20.glBindAttribLocation(getHandle(), TEX_COORD_LOCATION, "a_TexCoord");
     }
 
     @Override
     public void glOnDidLink() {
-        mMatrixLoc = GLES20.glGetUniformLocation(getHandle(), "u_MVPMatrix");
-        mColorLoc = GLES20.glGetUniformLocation(getHandle(), "u_Color");
+        mMatrix = getUniform("u_MVPMatrix");
+        mColor = getUniform("u_Color");
+        mUVRect = getUniform("u_UVRect");
+        mAlphaTexture = getUniform("s_AlphaTexture");
     }
 
     @Override
     public void glOnDraw(float[] mvpMatrix, float[] color) {
-        GLES20.glUniform4f(mColorLoc, color[0], color[1], color[2], color[3]);
-        GLES20.glUniformMatrix4fv(mMatrixLoc, 1, false, mvpMatrix, 0);
+        mColor.set4fv(color, 0);
+        mMatrix.setMatrix4fv(mvpMatrix, 0);
+        if(mHasAlphaPlane) {
+            mAlphaTexture.set1i(ALPHA_TEXTURE_UNIT);
+        }
+    }
+
+    /**
+     * Set the area of the texture to sample from, see {@link com.ustwo.glbitmapcanvas.GLBitmapObject#getUVRect()}
+     * @param uvRect The rectangle as (u, v, width, height)
+     */
+    public void glSetUVRect(float[] uvRect) {
+        mUVRect.set4fv(uvRect, 0);
     }
 }
@@ -0,0 +1,46 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AffineTransformsTest {
+    @Test
+    public void setRotateScale_keepsPivotInPlace() throws Exception {
+        float[] transform = new float[6];
+        AffineTransforms.setRotateScale(transform, 1f, 0f, 2f, 2f, 10f, 20f, 0f, 0f);
+
+        assertEquals(10f, transform[0] * 10f + transform[2] * 20f + transform[4], 1e-5f);
+        assertEquals(20f, transform[1] * 10f + transform[3] * 20f + transform[5], 1e-5f);
+
+        // A point 1 to the right of the pivot ends up 2 above it after a 90 degree rotation
+        assertEquals(10f, transform[0] * 11f + transform[2] * 20f + transform[4], 1e-5f);
+        assertEquals(22f, transform[1] * 11f + transform[3] * 20f + transform[5], 1e-5f);
+    }
+
+    @Test
+    public void multiply_appliesRightHandSideFirst() throws Exception {
+        float[] translate = new float[]{1f, 0f, 0f, 1f, 5f, 0f};
+        float[] scale = new float[]{2f, 0f, 0f, 3f, 0f, 0f};
+        float[] result = new float[6];
+
+        AffineTransforms.multiply(translate, scale, result);
+        assertArrayEquals(new float[]{2f, 0f, 0f, 3f, 5f, 0f}, result, 0f);
+
+        AffineTransforms.multiply(scale, translate, result);
+        assertArrayEquals(new float[]{2f, 0f, 0f, 3f, 10f, 0f}, result, 0f);
+    }
+
+    @Test
+    public void multiply_withIdentityIsUnchanged() throws Exception {
+        float[] identity = new float[6];
+        AffineTransforms.setIdentity(identity);
+        float[] transform = new float[]{0.5f, -0.25f, 0.75f, 2f, 7f, -3f};
+        float[] result = new float[6];
+
+        AffineTransforms.multiply(identity, transform, result);
+        assertArrayEquals(transform, result, 0f);
+        AffineTransforms.multiply(transform, identity, result);
+        assertArrayEquals(transform, result, 0f);
+    }
+}
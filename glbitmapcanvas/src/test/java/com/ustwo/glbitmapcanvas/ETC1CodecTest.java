@@ -0,0 +1,117 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ETC1CodecTest {
+    @Test
+    public void decodeBlock_readsIndividualBaseColors() throws Exception {
+        // Left half red 0xF, right half blue 0xF, table 0, all pixels index 0 (+2)
+        long bits = (0xFL << 60) | (0xFL << 40);
+        int[] pixels = new int[16];
+        ETC1Codec.decodeBlock(bits, pixels);
+
+        assertEquals(0xFFFF0202, pixels[0]);
+        assertEquals(0xFFFF0202, pixels[7]);
+        assertEquals(0xFF0202FF, pixels[8]);
+        assertEquals(0xFF0202FF, pixels[15]);
+    }
+
+    @Test
+    public void decodeBlock_appliesDifferentialAndModifiers() throws Exception {
+        // Differential, flipped, base green 16 (132), second half delta -1 (15, 123), table 1
+        long bits = (16L << 51) | (0x7L << 48) | (1L << 37) | (1L << 34) | (1L << 33) | (1L << 32);
+        // Pixel 0 (top half) index 3: -17, pixel 2 (bottom half) index 1: +17
+        bits |= (1L << 16) | 1L | (1L << 2);
+        int[] pixels = new int[16];
+        ETC1Codec.decodeBlock(bits, pixels);
+
+        assertEquals(132 - 17, (pixels[0] >> 8) & 0xFF);
+        assertEquals(132 + 5, (pixels[1] >> 8) & 0xFF);
+        assertEquals(123 + 17, (pixels[2] >> 8) & 0xFF);
+        assertEquals(0, (pixels[0] >> 16) & 0xFF);
+    }
+
+    @Test
+    public void encode_solidColorsRoundTripClosely() throws Exception {
+        int[] colors = {0xFF000000, 0xFFFFFFFF, 0xFF336699, 0xFFE01010, 0xFF80FF00};
+        for(int color : colors) {
+            int[] pixels = fill(new int[16 * 12], color);
+            int[] decoded = ETC1Codec.decode(ETC1Codec.encode(pixels, 16, 12));
+            for(int pixel : decoded) {
+                assertTrue(String.format("%08x decoded as %08x", color, pixel), maxChannelError(color, pixel) <= 6);
+            }
+        }
+    }
+
+    @Test
+    public void encode_gradientKeepsLowError() throws Exception {
+        int width = 32;
+        int height = 32;
+        int[] pixels = new int[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | ((x * 8) << 16) | ((y * 8) << 8) | ((x + y) * 4);
+            }
+        }
+        int[] decoded = ETC1Codec.decode(ETC1Codec.encode(pixels, width, height));
+
+        double squaredError = 0;
+        for(int i = 0; i < pixels.length; i++) {
+            for(int shift = 0; shift <= 16; shift += 8) {
+                int d = ((pixels[i] >> shift) & 0xFF) - ((decoded[i] >> shift) & 0xFF);
+                squaredError += d * d;
+            }
+        }
+        double psnr = 10 * Math.log10(255.0 * 255.0 / (squaredError / (pixels.length * 3)));
+        assertTrue(String.format("PSNR %.1f dB", psnr), psnr > 30);
+    }
+
+    @Test
+    public void encode_handlesSizesNotMultipleOfFour() throws Exception {
+        int[] pixels = fill(new int[7 * 5], 0xFF4080C0);
+        GLCompressedTexture texture = ETC1Codec.encode(pixels, 7, 5);
+
+        assertEquals(8, texture.getEncodedWidth());
+        assertEquals(8, texture.getEncodedHeight());
+        assertEquals(2 * 2 * 8, texture.getData().capacity());
+        assertEquals(7 * 5, ETC1Codec.decode(texture).length);
+    }
+
+    @Test
+    public void encodeWithAlpha_omitsPlaneForOpaqueImages() throws Exception {
+        assertFalse(ETC1Codec.encodeWithAlpha(fill(new int[16], 0xFF123456), 4, 4).hasAlphaPlane());
+    }
+
+    @Test
+    public void encodeWithAlpha_keepsAlphaInPlane() throws Exception {
+        int[] pixels = new int[8 * 8];
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 8 < 4) ? 0x00FFFFFF : 0xC0FF0000;
+        }
+        GLCompressedTexture texture = ETC1Codec.encodeWithAlpha(pixels, 8, 8);
+        assertTrue(texture.hasAlphaPlane());
+
+        int[] decoded = ETC1Codec.decode(texture);
+        for(int i = 0; i < pixels.length; i++) {
+            int alpha = decoded[i] >>> 24;
+            assertTrue(String.format("alpha %d at %d", alpha, i), Math.abs(alpha - (pixels[i] >>> 24)) <= 6);
+        }
+    }
+
+    private static int[] fill(int[] pixels, int color) {
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] = color;
+        }
+        return pixels;
+    }
+
+    private static int maxChannelError(int expected, int actual) {
+        int max = 0;
+        for(int shift = 0; shift <= 16; shift += 8) {
+            max = Math.max(max, Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF)));
+        }
+        return max;
+    }
+}
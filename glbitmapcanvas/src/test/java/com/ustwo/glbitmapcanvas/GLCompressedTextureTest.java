@@ -0,0 +1,153 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class GLCompressedTextureTest {
+    @Test
+    public void getEncodedSize_roundsUpToWholeBlocks() throws Exception {
+        assertEquals(4, GLCompressedTexture.getEncodedSize(1));
+        assertEquals(4, GLCompressedTexture.getEncodedSize(4));
+        assertEquals(8, GLCompressedTexture.getEncodedSize(5));
+        assertEquals(2 * 3 * 8, GLCompressedTexture.getEncodedByteCount(5, 9));
+    }
+
+    @Test
+    public void writePKM_parsesBackToSameTexture() throws Exception {
+        GLCompressedTexture texture = new GLCompressedTexture(5, 9, ByteBuffer.wrap(sequence(48)), null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        texture.writePKM(out);
+        byte[] file = out.toByteArray();
+        assertEquals(GLCompressedTexture.PKM_HEADER_SIZE + 48, file.length);
+
+        GLCompressedTexture parsed = GLCompressedTexture.read(new ByteArrayInputStream(file));
+        assertEquals(5, parsed.getWidth());
+        assertEquals(9, parsed.getHeight());
+        assertEquals(8, parsed.getEncodedWidth());
+        assertEquals(12, parsed.getEncodedHeight());
+        assertFalse(parsed.hasAlphaPlane());
+        assertArrayEquals(sequence(48), bytes(parsed.getData()));
+    }
+
+    @Test
+    public void parse_readsPKMHeaderBigEndian() throws Exception {
+        byte[] file = new byte[16 + 8];
+        System.arraycopy("PKM 10".getBytes("US-ASCII"), 0, file, 0, 6);
+        file[8] = 0; file[9] = 4;
+        file[10] = 0; file[11] = 4;
+        file[12] = 0; file[13] = 3;
+        file[14] = 0; file[15] = 2;
+
+        GLCompressedTexture texture = GLCompressedTexture.parse(file);
+        assertEquals(3, texture.getWidth());
+        assertEquals(2, texture.getHeight());
+        assertEquals(8, texture.getData().remaining());
+    }
+
+    @Test
+    public void parse_rejectsTruncatedPKM() throws Exception {
+        GLCompressedTexture texture = new GLCompressedTexture(8, 8, ByteBuffer.wrap(sequence(32)), null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        texture.writePKM(out);
+        byte[] file = out.toByteArray();
+        byte[] truncated = new byte[file.length - 1];
+        System.arraycopy(file, 0, truncated, 0, truncated.length);
+
+        try {
+            GLCompressedTexture.parse(truncated);
+            fail("Truncated file parsed");
+        } catch(IOException expected) {
+        }
+    }
+
+    @Test
+    public void parse_readsKTXInEitherByteOrder() throws Exception {
+        for(ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            GLCompressedTexture texture = GLCompressedTexture.parse(ktx(order, 6, 4, GLCompressedTexture.GL_ETC1_RGB8_OES, sequence(16)));
+            assertEquals(6, texture.getWidth());
+            assertEquals(4, texture.getHeight());
+            assertArrayEquals(sequence(16), bytes(texture.getData()));
+        }
+    }
+
+    @Test
+    public void parse_rejectsOtherKTXFormats() throws Exception {
+        try {
+            GLCompressedTexture.parse(ktx(ByteOrder.LITTLE_ENDIAN, 4, 4, 0x9274, sequence(8)));
+            fail("Non ETC1 KTX parsed");
+        } catch(IOException expected) {
+        }
+    }
+
+    @Test
+    public void parse_rejectsUnknownFiles() throws Exception {
+        try {
+            GLCompressedTexture.parse(new byte[64]);
+            fail("Unknown file parsed");
+        } catch(IOException expected) {
+        }
+    }
+
+    @Test
+    public void constructor_rejectsMismatchedAlphaPlane() throws Exception {
+        GLCompressedTexture alpha = new GLCompressedTexture(8, 4, ByteBuffer.wrap(sequence(16)), null);
+        try {
+            new GLCompressedTexture(4, 4, ByteBuffer.wrap(sequence(8)), alpha);
+            fail("Mismatched alpha plane accepted");
+        } catch(IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void getByteCount_includesAlphaPlane() throws Exception {
+        GLCompressedTexture alpha = new GLCompressedTexture(4, 4, ByteBuffer.wrap(sequence(8)), null);
+        GLCompressedTexture texture = new GLCompressedTexture(4, 4, ByteBuffer.wrap(sequence(8)), null).withAlphaPlane(alpha);
+        assertEquals(16, texture.getByteCount());
+    }
+
+    private static byte[] ktx(ByteOrder order, int width, int height, int internalFormat, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(GLCompressedTexture.KTX_HEADER_SIZE + 8 + 4 + data.length).order(order);
+        buffer.put(new byte[]{(byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'});
+        buffer.putInt(0x04030201);
+        buffer.putInt(0); // glType
+        buffer.putInt(1); // glTypeSize
+        buffer.putInt(0); // glFormat
+        buffer.putInt(internalFormat);
+        buffer.putInt(0x1907); // glBaseInternalFormat, GL_RGB
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(0); // depth
+        buffer.putInt(0); // array elements
+        buffer.putInt(1); // faces
+        buffer.putInt(1); // mipmap levels
+        buffer.putInt(8); // key/value bytes
+        buffer.put(new byte[8]);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        return buffer.array();
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = (byte)i;
+        }
+        return bytes;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(0);
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,31 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GLGroupTest {
+    @Test
+    public void transformTo_sameTransformKeepsVersion() throws Exception {
+        GLGroup group = new GLGroup(320);
+        group.transformTo(90f, 1f, 1f, 160f, 160f);
+        group.update();
+        int version = group.getVersion();
+
+        group.transformTo(90f, 1f, 1f, 160f, 160f);
+        group.update();
+        assertEquals(version, group.getVersion());
+    }
+
+    @Test
+    public void transformTo_changedTransformBumpsVersion() throws Exception {
+        GLGroup group = new GLGroup(320);
+        group.transformTo(90f, 1f, 1f, 160f, 160f);
+        group.update();
+        int version = group.getVersion();
+
+        group.transformTo(90f, 1f, 1f, 160f, 160f, 0f, 4f);
+        group.update();
+        assertNotEquals(version, group.getVersion());
+    }
+}
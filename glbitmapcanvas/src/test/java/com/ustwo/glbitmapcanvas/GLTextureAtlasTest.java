@@ -0,0 +1,35 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GLTextureAtlasTest {
+    @Test
+    public void getNewPageSize_usesInitialSizeForSmallObjects() throws Exception {
+        GLTextureAtlas atlas = new GLTextureAtlas(null, 64, 1024, 4);
+
+        assertEquals(64, atlas.getNewPageSize(10, 10));
+        assertEquals(64, atlas.getNewPageSize(63, 63));
+    }
+
+    @Test
+    public void getNewPageSize_growsToFitPaddedObject() throws Exception {
+        GLTextureAtlas atlas = new GLTextureAtlas(null, 64, 1024, 4);
+
+        assertEquals(128, atlas.getNewPageSize(64, 10));
+        assertEquals(256, atlas.getNewPageSize(20, 200));
+        assertEquals(512, atlas.getNewPageSize(511, 511));
+    }
+
+    @Test
+    public void getNewPageSize_fitsEveryAcceptedObject() throws Exception {
+        GLTextureAtlas atlas = new GLTextureAtlas(null, 32, 256, 4);
+
+        for(int size = 1; atlas.accepts(size, size); size++) {
+            int pageSize = atlas.getNewPageSize(size, size);
+            assertTrue(pageSize <= 256);
+            assertTrue(size + 1 <= pageSize);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GlyphMetricsTest {
+    private static GlyphMetrics createDigits() {
+        // '1' is narrower than the other digits, as in most proportional fonts
+        char[] characters = {'0', '1', '2', ':'};
+        float[] advances = {10f, 6f, 10f, 4f};
+        return new GlyphMetrics(characters, advances);
+    }
+
+    @Test
+    public void indexOf_findsSortedCharacters() throws Exception {
+        GlyphMetrics metrics = createDigits();
+
+        assertEquals(0, metrics.indexOf('0'));
+        assertEquals(3, metrics.indexOf(':'));
+        assertEquals(-1, metrics.indexOf('A'));
+    }
+
+    @Test
+    public void measure_sumsAdvancesAndKerning() throws Exception {
+        GlyphMetrics metrics = createDigits();
+        metrics.setKerning(metrics.indexOf('1'), metrics.indexOf('0'), -1.5f);
+
+        assertEquals(24f, metrics.measure("0:0"), 0.001f);
+        assertEquals(14.5f, metrics.measure("10"), 0.001f);
+        // Kerning only applies in order
+        assertEquals(16f, metrics.measure("01"), 0.001f);
+    }
+
+    @Test
+    public void layout_placesGlyphsAtPenPositions() throws Exception {
+        GlyphMetrics metrics = createDigits();
+        metrics.setKerning(metrics.indexOf('1'), metrics.indexOf('2'), -2f);
+        int[] glyphs = new int[8];
+        float[] penX = new float[8];
+
+        int count = metrics.layout("12:0", 0f, glyphs, penX);
+        assertEquals(4, count);
+        assertEquals(metrics.indexOf('2'), glyphs[1]);
+        assertArrayEquals(new float[]{0f, 4f, 14f, 18f}, new float[]{penX[0], penX[1], penX[2], penX[3]}, 0.001f);
+    }
+
+    @Test
+    public void layout_alignsAroundAnchor() throws Exception {
+        GlyphMetrics metrics = createDigits();
+        int[] glyphs = new int[8];
+        float[] penX = new float[8];
+
+        metrics.layout("20", 0.5f, glyphs, penX);
+        assertEquals(-10f, penX[0], 0.001f);
+        assertEquals(0f, penX[1], 0.001f);
+
+        metrics.layout("20", 1f, glyphs, penX);
+        assertEquals(-20f, penX[0], 0.001f);
+    }
+
+    @Test
+    public void layout_skipsUnknownCharacters() throws Exception {
+        GlyphMetrics metrics = createDigits();
+        int[] glyphs = new int[8];
+        float[] penX = new float[8];
+
+        int count = metrics.layout("1 AM2", 0f, glyphs, penX);
+        assertEquals(2, count);
+        assertEquals(6f, penX[1], 0.001f);
+        assertEquals(16f, metrics.measure("1 AM2"), 0.001f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsUnsortedCharacters() throws Exception {
+        new GlyphMetrics(new char[]{'1', '0'}, new float[]{1f, 1f});
+    }
+}
@@ -0,0 +1,86 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScreenRectTest {
+    @Test
+    public void setToTransformedUnitQuad_coversRotatedQuad() throws Exception {
+        // Rotate by 90 degrees, scale by 10 x 20, translate to (100, 50), after two unused floats
+        float[] affine = new float[]{-1f, -1f, 0f, 10f, -20f, 0f, 100f, 50f};
+
+        ScreenRect rect = new ScreenRect();
+        rect.setToTransformedUnitQuad(affine, 2);
+
+        assertEquals(80f, rect.getLeft(), 0f);
+        assertEquals(50f, rect.getBottom(), 0f);
+        assertEquals(100f, rect.getRight(), 0f);
+        assertEquals(60f, rect.getTop(), 0f);
+    }
+
+    @Test
+    public void union_ignoresEmptyRectangles() throws Exception {
+        ScreenRect rect = new ScreenRect();
+        ScreenRect other = new ScreenRect();
+
+        other.set(10f, 10f, 20f, 20f);
+        rect.union(other);
+        assertTrue(rect.contains(other));
+
+        other.setEmpty();
+        rect.union(other);
+        assertEquals(10f, rect.getLeft(), 0f);
+        assertEquals(20f, rect.getTop(), 0f);
+
+        other.set(30f, 0f, 40f, 5f);
+        rect.union(other);
+        assertEquals(0f, rect.getBottom(), 0f);
+        assertEquals(40f, rect.getRight(), 0f);
+    }
+
+    @Test
+    public void intersects_excludesTouchingEdges() throws Exception {
+        ScreenRect a = new ScreenRect();
+        ScreenRect b = new ScreenRect();
+        a.set(0f, 0f, 10f, 10f);
+
+        b.set(10f, 0f, 20f, 10f);
+        assertFalse(a.intersects(b));
+
+        b.set(9.5f, 9.5f, 20f, 20f);
+        assertTrue(a.intersects(b));
+
+        b.setEmpty();
+        assertFalse(a.intersects(b));
+    }
+
+    @Test
+    public void roundOut_clipsToSurface() throws Exception {
+        ScreenRect rect = new ScreenRect();
+        int[] scissor = new int[4];
+
+        rect.set(-5.5f, 10.2f, 20.1f, 400f);
+        assertTrue(rect.roundOut(320, 320, scissor));
+        assertArrayEquals(new int[]{0, 10, 21, 310}, scissor);
+
+        rect.set(330f, 0f, 340f, 10f);
+        assertFalse(rect.roundOut(320, 320, scissor));
+    }
+
+    @Test
+    public void intersectsCircle_excludesCorners() throws Exception {
+        ScreenRect rect = new ScreenRect();
+
+        // Bottom left corner of a 320 x 320 round screen
+        rect.set(0f, 0f, 40f, 40f);
+        assertFalse(rect.intersectsCircle(160f, 160f, 160f));
+
+        rect.set(0f, 140f, 10f, 180f);
+        assertTrue(rect.intersectsCircle(160f, 160f, 160f));
+
+        // Contains the center
+        rect.set(100f, 100f, 200f, 200f);
+        assertTrue(rect.intersectsCircle(160f, 160f, 1f));
+    }
+}
@@ -0,0 +1,81 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SkylinePackerTest {
+    @Test
+    public void insert_placesFirstRectangleAtOrigin() throws Exception {
+        SkylinePacker packer = new SkylinePacker(64, 64);
+        int[] position = new int[2];
+
+        assertTrue(packer.insert(10, 20, position));
+        assertEquals(0, position[0]);
+        assertEquals(0, position[1]);
+    }
+
+    @Test
+    public void insert_fillsRowBeforeStackingUp() throws Exception {
+        SkylinePacker packer = new SkylinePacker(64, 64);
+        int[] position = new int[2];
+
+        assertTrue(packer.insert(32, 16, position));
+        assertTrue(packer.insert(32, 16, position));
+        assertEquals(32, position[0]);
+        assertEquals(0, position[1]);
+
+        assertTrue(packer.insert(32, 16, position));
+        assertEquals(16, position[1]);
+    }
+
+    @Test
+    public void insert_neverOverlapsOrExceedsBounds() throws Exception {
+        SkylinePacker packer = new SkylinePacker(128, 128);
+        boolean[] used = new boolean[128 * 128];
+        int[] position = new int[2];
+        int[][] sizes = {{30, 10}, {7, 33}, {50, 12}, {16, 16}, {9, 9}, {64, 5}, {3, 40}, {25, 25}};
+
+        for(int round = 0; round < 4; round++) {
+            for(int[] size : sizes) {
+                if(!packer.insert(size[0], size[1], position)) {
+                    continue;
+                }
+                assertTrue(position[0] + size[0] <= 128);
+                assertTrue(position[1] + size[1] <= 128);
+                for(int y = position[1]; y < position[1] + size[1]; y++) {
+                    for(int x = position[0]; x < position[0] + size[0]; x++) {
+                        assertFalse(used[y * 128 + x]);
+                        used[y * 128 + x] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void insert_failsWhenFull() throws Exception {
+        SkylinePacker packer = new SkylinePacker(32, 32);
+        int[] position = new int[2];
+
+        assertTrue(packer.insert(32, 32, position));
+        assertFalse(packer.insert(1, 1, position));
+
+        packer.reset(32, 32);
+        assertTrue(packer.insert(1, 1, position));
+    }
+
+    @Test
+    public void coveredArea_includesGapsBelowSkyline() throws Exception {
+        SkylinePacker packer = new SkylinePacker(64, 64);
+        int[] position = new int[2];
+
+        packer.insert(32, 8, position);
+        packer.insert(32, 4, position);
+        // A wide rectangle rests on the taller of the two, trapping 32 x 4 pixels
+        packer.insert(64, 4, position);
+
+        assertEquals(8, position[1]);
+        assertEquals(64 * 12, packer.getCoveredArea());
+    }
+}
@@ -0,0 +1,27 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SortKeyTest {
+    @Test
+    public void packSortKey_comparesOrderFirst() throws Exception {
+        assertTrue(GLBitmapObject.packSortKey(1, 4095, 0xFFFFF) < GLBitmapObject.packSortKey(2, 0, 0));
+        assertTrue(GLBitmapObject.packSortKey(-1, 4095, 0xFFFFF) < GLBitmapObject.packSortKey(0, 0, 0));
+        assertTrue(GLBitmapObject.packSortKey(Integer.MIN_VALUE, 1, 1) < GLBitmapObject.packSortKey(Integer.MAX_VALUE, 0, 0));
+    }
+
+    @Test
+    public void packSortKey_groupsByProgramThenTexture() throws Exception {
+        assertTrue(GLBitmapObject.packSortKey(3, 1, 500) < GLBitmapObject.packSortKey(3, 2, 1));
+        assertTrue(GLBitmapObject.packSortKey(3, 2, 1) < GLBitmapObject.packSortKey(3, 2, 2));
+        assertEquals(GLBitmapObject.packSortKey(3, 2, 7), GLBitmapObject.packSortKey(3, 2, 7));
+    }
+
+    @Test
+    public void packSortKey_truncatedIdsNeverAffectOrder() throws Exception {
+        assertTrue(GLBitmapObject.packSortKey(5, 1 << 20, 1 << 30) < GLBitmapObject.packSortKey(6, 0, 0));
+        assertTrue(GLBitmapObject.packSortKey(5, -1, -1) > GLBitmapObject.packSortKey(4, -1, -1));
+    }
+}
@@ -0,0 +1,71 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class TimeBoundaryTest {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static long time(TimeZone timeZone, int year, int month, int day, int hour, int minute, int second, int millis) {
+        GregorianCalendar calendar = new GregorianCalendar(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute, second);
+        calendar.set(Calendar.MILLISECOND, millis);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void getNext_roundsUpToEachBoundary() throws Exception {
+        long now = time(UTC, 2016, Calendar.MARCH, 10, 14, 59, 30, 250);
+
+        assertEquals(time(UTC, 2016, Calendar.MARCH, 10, 14, 59, 31, 0), TimeBoundary.getNext(TimeBoundary.SECOND, now, UTC));
+        assertEquals(time(UTC, 2016, Calendar.MARCH, 10, 15, 0, 0, 0), TimeBoundary.getNext(TimeBoundary.MINUTE, now, UTC));
+        assertEquals(time(UTC, 2016, Calendar.MARCH, 10, 15, 0, 0, 0), TimeBoundary.getNext(TimeBoundary.HOUR, now, UTC));
+        assertEquals(time(UTC, 2016, Calendar.MARCH, 11, 0, 0, 0, 0), TimeBoundary.getNext(TimeBoundary.DAY, now, UTC));
+    }
+
+    @Test
+    public void getNext_isStrictlyAfterATimeOnTheBoundary() throws Exception {
+        long minute = time(UTC, 2016, Calendar.MARCH, 10, 15, 0, 0, 0);
+
+        assertEquals(minute + 60000, TimeBoundary.getNext(TimeBoundary.MINUTE, minute, UTC));
+    }
+
+    @Test
+    public void getNext_usesTimeZoneForHours() throws Exception {
+        TimeZone india = TimeZone.getTimeZone("Asia/Kolkata");
+        long now = time(india, 2016, Calendar.MARCH, 10, 9, 40, 0, 0);
+
+        assertEquals(time(india, 2016, Calendar.MARCH, 10, 10, 0, 0, 0), TimeBoundary.getNext(TimeBoundary.HOUR, now, india));
+    }
+
+    @Test
+    public void getNext_findsMidnightAcrossDaylightSavingChange() throws Exception {
+        TimeZone london = TimeZone.getTimeZone("Europe/London");
+        // Clocks go forward at 01:00 on 27 March 2016, the day is 23 hours long
+        long now = time(london, 2016, Calendar.MARCH, 27, 0, 30, 0, 0);
+
+        long next = TimeBoundary.getNext(TimeBoundary.DAY, now, london);
+        assertEquals(time(london, 2016, Calendar.MARCH, 28, 0, 0, 0, 0), next);
+        assertEquals(TimeBoundary.DAY, TimeBoundary.getLargestAt(next, london));
+    }
+
+    @Test
+    public void getLargestAt_reportsCoarsestBoundary() throws Exception {
+        assertEquals(TimeBoundary.NONE, TimeBoundary.getLargestAt(time(UTC, 2016, Calendar.MARCH, 10, 15, 0, 0, 1), UTC));
+        assertEquals(TimeBoundary.SECOND, TimeBoundary.getLargestAt(time(UTC, 2016, Calendar.MARCH, 10, 15, 0, 1, 0), UTC));
+        assertEquals(TimeBoundary.MINUTE, TimeBoundary.getLargestAt(time(UTC, 2016, Calendar.MARCH, 10, 15, 1, 0, 0), UTC));
+        assertEquals(TimeBoundary.HOUR, TimeBoundary.getLargestAt(time(UTC, 2016, Calendar.MARCH, 10, 15, 0, 0, 0), UTC));
+        assertEquals(TimeBoundary.DAY, TimeBoundary.getLargestAt(time(UTC, 2016, Calendar.MARCH, 11, 0, 0, 0, 0), UTC));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getNext_rejectsNone() throws Exception {
+        TimeBoundary.getNext(TimeBoundary.NONE, 0, UTC);
+    }
+}
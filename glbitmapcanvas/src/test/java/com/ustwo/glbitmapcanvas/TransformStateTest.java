@@ -0,0 +1,37 @@
+package com.ustwo.glbitmapcanvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransformStateTest {
+    @Test
+    public void set_sameValuesIsNoChange() throws Exception {
+        GLBitmapObject.TransformState state = new GLBitmapObject.TransformState();
+        state.set(30f, 10f, 20f, 1f, 2f, 5f, 5f);
+        state.mChanged = false;
+
+        state.set(30f, 10f, 20f, 1f, 2f, 5f, 5f);
+        assertFalse(state.mChanged);
+
+        state.set(31f, 10f, 20f, 1f, 2f, 5f, 5f);
+        assertTrue(state.mChanged);
+    }
+
+    @Test
+    public void setters_onlyFlagActualChanges() throws Exception {
+        GLBitmapObject.TransformState state = new GLBitmapObject.TransformState(45f, 1f, 2f, 3f, 4f);
+        state.mChanged = false;
+
+        state.setAngleDegrees(45f);
+        state.setTranslationX(1f);
+        state.setTranslationY(2f);
+        state.setScaleX(3f);
+        state.setScaleY(4f);
+        assertFalse(state.mChanged);
+
+        state.setScaleY(5f);
+        assertTrue(state.mChanged);
+        assertEquals(5f, state.getScaleY(), 0f);
+    }
+}
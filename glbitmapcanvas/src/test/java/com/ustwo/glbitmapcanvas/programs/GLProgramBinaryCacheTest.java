@@ -0,0 +1,244 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GLProgramBinaryCacheTest {
+    private static final String DRIVER = "Vendor/Renderer/OpenGL ES 3.1";
+    private static final byte[] BINARY = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9};
+    private static final int FORMAT = 0x8E00;
+
+    /**
+     * Links programs from binaries it handed out itself, like a driver
+     */
+    private static class FakeGL implements ProgramBinaryGL {
+        boolean mIsSupported = true;
+        String mDriverVersion = DRIVER;
+        final Map<Integer, byte[]> mLinked = new HashMap<>();
+        int mRetrievableProgram = 0;
+        int mLoadCount = 0;
+
+        @Override
+        public boolean glIsSupported() {
+            return mIsSupported;
+        }
+
+        @Override
+        public String glGetDriverVersion() {
+            return mDriverVersion;
+        }
+
+        @Override
+        public void glSetRetrievable(int program) {
+            mRetrievableProgram = program;
+        }
+
+        @Override
+        public byte[] glGetProgramBinary(int program, int[] outFormat) {
+            outFormat[0] = FORMAT;
+            return mLinked.get(program);
+        }
+
+        @Override
+        public boolean glProgramBinary(int program, int format, byte[] binary) {
+            mLoadCount++;
+            if(format != FORMAT || !Arrays.equals(binary, BINARY)) {
+                return false;
+            }
+            mLinked.put(program, binary);
+            return true;
+        }
+    }
+
+    private File mDirectory;
+    private FakeGL mGL;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = Files.createTempDirectory("program_binaries").toFile();
+        mGL = new FakeGL();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static GLProgramRegistry.Key key(String fragment) {
+        return new GLProgramRegistry.Key(StandardGLProgram.class, "vertex", fragment, new String[0]);
+    }
+
+    private GLProgramBinaryCache storeBinary(GLProgramRegistry.Key key) {
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        cache.glPrepare(1);
+        mGL.mLinked.put(1, BINARY);
+        assertTrue(cache.glStore(1, key));
+        return cache;
+    }
+
+    @Test
+    public void writeRead_roundTrips() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GLProgramBinaryCache.write(out, DRIVER, 42L, FORMAT, BINARY);
+        int[] format = new int[1];
+        byte[] binary = GLProgramBinaryCache.read(new ByteArrayInputStream(out.toByteArray()), DRIVER, 42L, format);
+        assertArrayEquals(BINARY, binary);
+        assertEquals(FORMAT, format[0]);
+    }
+
+    @Test
+    public void read_ignoresOtherDriverOrProgram() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GLProgramBinaryCache.write(out, DRIVER, 42L, FORMAT, BINARY);
+        byte[] file = out.toByteArray();
+        int[] format = new int[1];
+        assertNull(GLProgramBinaryCache.read(new ByteArrayInputStream(file), DRIVER + ".1", 42L, format));
+        assertNull(GLProgramBinaryCache.read(new ByteArrayInputStream(file), DRIVER, 43L, format));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsDamagedBinary() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GLProgramBinaryCache.write(out, DRIVER, 42L, FORMAT, BINARY);
+        byte[] file = out.toByteArray();
+        file[file.length - 1] ^= 0x10;
+        GLProgramBinaryCache.read(new ByteArrayInputStream(file), DRIVER, 42L, new int[1]);
+    }
+
+    @Test(expected = EOFException.class)
+    public void read_rejectsTruncatedFile() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GLProgramBinaryCache.write(out, DRIVER, 42L, FORMAT, BINARY);
+        byte[] file = Arrays.copyOf(out.toByteArray(), out.size() - 3);
+        GLProgramBinaryCache.read(new ByteArrayInputStream(file), DRIVER, 42L, new int[1]);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        GLProgramBinaryCache.read(new ByteArrayInputStream(new byte[64]), DRIVER, 42L, new int[1]);
+    }
+
+    @Test
+    public void load_linksStoredBinary() throws Exception {
+        GLProgramRegistry.Key key = key("fragment");
+        storeBinary(key);
+        assertEquals(1, mGL.mRetrievableProgram);
+
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        assertTrue(cache.glLoad(2, key));
+        assertArrayEquals(BINARY, mGL.mLinked.get(2));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void load_missesOtherSources() throws Exception {
+        storeBinary(key("fragment"));
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        assertFalse(cache.glLoad(2, key("fragment2")));
+        assertEquals(0, mGL.mLoadCount);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getRejectCount());
+    }
+
+    @Test
+    public void load_deletesBinaryOfOtherDriver() throws Exception {
+        GLProgramRegistry.Key key = key("fragment");
+        storeBinary(key);
+        mGL.mDriverVersion = "Vendor/Renderer/OpenGL ES 3.2";
+
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        assertFalse(cache.glLoad(2, key));
+        assertEquals(0, mGL.mLoadCount);
+        assertEquals(1, cache.getRejectCount());
+        assertFalse(cache.getFile(key.getSourceHash()).exists());
+    }
+
+    @Test
+    public void load_deletesDamagedBinary() throws Exception {
+        GLProgramRegistry.Key key = key("fragment");
+        GLProgramBinaryCache cache = storeBinary(key);
+        File file = cache.getFile(key.getSourceHash());
+        RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+        try {
+            damaged.seek(file.length() - 1);
+            damaged.write(0x7F);
+        } finally {
+            damaged.close();
+        }
+
+        assertFalse(cache.glLoad(2, key));
+        assertEquals(0, mGL.mLoadCount);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void load_deletesBinaryRejectedByDriver() throws Exception {
+        GLProgramRegistry.Key key = key("fragment");
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        mGL.mLinked.put(1, new byte[]{9, 9, 9});
+        assertTrue(cache.glStore(1, key));
+
+        assertFalse(cache.glLoad(2, key));
+        assertEquals(1, mGL.mLoadCount);
+        assertEquals(1, cache.getRejectCount());
+        assertFalse(cache.getFile(key.getSourceHash()).exists());
+    }
+
+    @Test
+    public void unsupported_doesNothing() throws Exception {
+        mGL.mIsSupported = false;
+        GLProgramRegistry.Key key = key("fragment");
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        cache.glPrepare(1);
+        mGL.mLinked.put(1, BINARY);
+        assertFalse(cache.glStore(1, key));
+        assertFalse(cache.glLoad(2, key));
+        assertEquals(0, mGL.mRetrievableProgram);
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void store_skipsUnlinkedProgram() throws Exception {
+        GLProgramBinaryCache cache = new GLProgramBinaryCache(mDirectory, mGL);
+        assertFalse(cache.glStore(5, key("fragment")));
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void clear_deletesBinaries() throws Exception {
+        GLProgramRegistry.Key key = key("fragment");
+        GLProgramBinaryCache cache = storeBinary(key);
+        cache.clear();
+        assertFalse(cache.glLoad(2, key));
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void sourceHash_isStableAndSeparatesStrings() throws Exception {
+        assertEquals(key("fragment").getSourceHash(), key(new String("fragment")).getSourceHash());
+        GLProgramRegistry.Key split = new GLProgramRegistry.Key(StandardGLProgram.class, "ab", "c", new String[0]);
+        GLProgramRegistry.Key moved = new GLProgramRegistry.Key(StandardGLProgram.class, "a", "bc", new String[0]);
+        assertNotEquals(split.getSourceHash(), moved.getSourceHash());
+    }
+}
@@ -0,0 +1,95 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GLProgramRegistryTest {
+    private static final String VERTEX = "void main() { gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT = "void main() { gl_FragColor = vec4(1.0); }";
+    private static final String[] NO_DEFINES = new String[0];
+
+    private static GLProgramRegistry.Key key(String fragment, String... defines) {
+        return new GLProgramRegistry.Key(StandardGLProgram.class, VERTEX, fragment, defines);
+    }
+
+    @Test
+    public void acquire_sharesIdenticalSources() throws Exception {
+        GLProgramRegistry registry = new GLProgramRegistry();
+        assertNull(registry.acquire(key(FRAGMENT)));
+        GLProgramRegistry.Entry entry = registry.add(key(FRAGMENT), 7, 1000000L);
+
+        GLProgramRegistry.Entry shared = registry.acquire(key(new String(FRAGMENT)));
+        assertSame(entry, shared);
+        assertEquals(7, shared.getHandle());
+        assertEquals(2, entry.getRefCount());
+        assertEquals(1, registry.getProgramCount());
+        assertEquals(1, registry.getCompileCount());
+        assertEquals(1, registry.getShareCount());
+    }
+
+    @Test
+    public void acquire_distinguishesSourcesDefinesAndClass() throws Exception {
+        GLProgramRegistry registry = new GLProgramRegistry();
+        registry.add(key(FRAGMENT), 1, 0L);
+        assertNull(registry.acquire(key(FRAGMENT + " ")));
+        assertNull(registry.acquire(key(FRAGMENT, "USE_MASK")));
+        assertNull(registry.acquire(new GLProgramRegistry.Key(BatchGLProgram.class, VERTEX, FRAGMENT, NO_DEFINES)));
+
+        registry.add(key(FRAGMENT, "USE_MASK"), 2, 0L);
+        assertEquals(2, registry.acquire(key(FRAGMENT, "USE_MASK")).getHandle());
+        assertNull(registry.acquire(key(FRAGMENT, "USE_MASK", "SAMPLES 4")));
+    }
+
+    @Test
+    public void release_deletesWithLastReference() throws Exception {
+        GLProgramRegistry registry = new GLProgramRegistry();
+        GLProgramRegistry.Entry entry = registry.add(key(FRAGMENT), 3, 0L);
+        registry.acquire(key(FRAGMENT));
+
+        assertFalse(registry.release(entry));
+        assertEquals(1, registry.getProgramCount());
+        assertTrue(registry.release(entry));
+        assertEquals(0, registry.getProgramCount());
+        assertNull(registry.acquire(key(FRAGMENT)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_rejectsReleasedProgram() throws Exception {
+        GLProgramRegistry registry = new GLProgramRegistry();
+        GLProgramRegistry.Entry entry = registry.add(key(FRAGMENT), 3, 0L);
+        registry.release(entry);
+        registry.release(entry);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_rejectsDuplicateKey() throws Exception {
+        GLProgramRegistry registry = new GLProgramRegistry();
+        registry.add(key(FRAGMENT), 1, 0L);
+        registry.add(key(FRAGMENT), 2, 0L);
+    }
+
+    @Test
+    public void onGlContextLost_forgetsPrograms() throws Exception {
+        GLProgramRegistry registry = new GLProgramRegistry();
+        registry.add(key(FRAGMENT), 1, 2000000L);
+        registry.onGlContextLost();
+        assertEquals(0, registry.getProgramCount());
+        assertNull(registry.acquire(key(FRAGMENT)));
+        assertEquals(2, registry.getTotalCompileTimeMillis());
+    }
+
+    @Test
+    public void applyDefines_prependsDefines() throws Exception {
+        assertSame(FRAGMENT, GLProgram.applyDefines(FRAGMENT, NO_DEFINES));
+        assertEquals("#define USE_MASK\n#define SAMPLES 4\n" + FRAGMENT,
+                GLProgram.applyDefines(FRAGMENT, new String[]{"USE_MASK", "SAMPLES 4"}));
+    }
+
+    @Test
+    public void applyDefines_keepsVersionFirst() throws Exception {
+        assertEquals("#version 100\n#define A\n" + FRAGMENT,
+                GLProgram.applyDefines("#version 100\n" + FRAGMENT, new String[]{"A"}));
+        assertEquals("#version 100\n#define A\n", GLProgram.applyDefines("#version 100", new String[]{"A"}));
+    }
+}
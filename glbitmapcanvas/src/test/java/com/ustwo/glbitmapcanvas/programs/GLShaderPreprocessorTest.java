@@ -0,0 +1,127 @@
+package com.ustwo.glbitmapcanvas.programs;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GLShaderPreprocessorTest {
+    /**
+     * Sources by name, counting reads
+     */
+    private static class MapSourceProvider implements GLShaderPreprocessor.SourceProvider {
+        final Map<String, String> mSources = new HashMap<>();
+        int mReadCount = 0;
+
+        MapSourceProvider put(String name, String source) {
+            mSources.put(name, source);
+            return this;
+        }
+
+        @Override
+        public String read(String name) throws IOException {
+            String source = mSources.get(name);
+            if(source == null) {
+                throw new FileNotFoundException(name);
+            }
+            mReadCount++;
+            return source;
+        }
+    }
+
+    @Test
+    public void process_resolvesIncludes() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("main.glsl", "#include \"common.glsl\"\nvoid main() {}\n")
+                .put("common.glsl", "uniform vec4 u_Color;");
+        GLShaderPreprocessor preprocessor = new GLShaderPreprocessor(sources);
+        assertEquals("uniform vec4 u_Color;\nvoid main() {}\n", preprocessor.process("main.glsl", false));
+    }
+
+    @Test
+    public void process_resolvesNestedIncludesRelativeToIncludingSource() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("shaders/main.glsl", "#include <lib/a.glsl>\nA\n")
+                .put("shaders/lib/a.glsl", "  #  include \"../b.glsl\"\na")
+                .put("shaders/b.glsl", "b\n");
+        GLShaderPreprocessor preprocessor = new GLShaderPreprocessor(sources);
+        assertEquals("b\na\nA\n", preprocessor.process("shaders/main.glsl", false));
+    }
+
+    @Test
+    public void process_includesEachSourceOnce() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("main.glsl", "#include \"a.glsl\"\n#include \"b.glsl\"\nmain\n")
+                .put("a.glsl", "#include \"b.glsl\"\na\n")
+                .put("b.glsl", "b\n");
+        GLShaderPreprocessor preprocessor = new GLShaderPreprocessor(sources);
+        assertEquals("b\na\nmain\n", preprocessor.process("main.glsl", false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void process_rejectsIncludeCycle() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("main.glsl", "#include \"a.glsl\"\n")
+                .put("a.glsl", "#include \"b.glsl\"\n")
+                .put("b.glsl", "#include \"a.glsl\"\n");
+        new GLShaderPreprocessor(sources).process("main.glsl", false);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void process_reportsMissingInclude() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("main.glsl", "#include \"missing.glsl\"\n");
+        new GLShaderPreprocessor(sources).process("main.glsl", false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resolve_rejectsPathsOutsideRoot() throws Exception {
+        GLShaderPreprocessor.resolve("main.glsl", "../other.glsl");
+    }
+
+    @Test
+    public void process_selectsPrecisionPerVariant() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("frag.glsl", "void main() {}\n");
+        GLShaderPreprocessor preprocessor = new GLShaderPreprocessor(sources);
+        assertEquals("precision mediump float;\nvoid main() {}\n", preprocessor.process("frag.glsl", true));
+        assertEquals("precision mediump float;\nvoid main() {}\n", preprocessor.process("frag.glsl", true, GLShaderPreprocessor.AMBIENT));
+        assertEquals("precision lowp float;\nvoid main() {}\n", preprocessor.process("frag.glsl", true, GLShaderPreprocessor.AMBIENT, GLShaderPreprocessor.LOW_BIT));
+        assertEquals("void main() {}\n", preprocessor.process("frag.glsl", false, GLShaderPreprocessor.LOW_BIT));
+    }
+
+    @Test
+    public void addDefaultPrecision_keepsDeclaredPrecision() throws Exception {
+        String source = "precision highp float;\nvoid main() {}\n";
+        assertSame(source, GLShaderPreprocessor.addDefaultPrecision(source, "lowp"));
+    }
+
+    @Test
+    public void addDefaultPrecision_followsLeadingDirectives() throws Exception {
+        assertEquals("#version 100\n#extension GL_OES_standard_derivatives : enable\nprecision lowp float;\nvoid main() {}\n",
+                GLShaderPreprocessor.addDefaultPrecision("#version 100\n#extension GL_OES_standard_derivatives : enable\nvoid main() {}\n", "lowp"));
+        assertEquals("#version 100\nprecision lowp float;\n", GLShaderPreprocessor.addDefaultPrecision("#version 100", "lowp"));
+    }
+
+    @Test
+    public void process_readsSourcesOnce() throws Exception {
+        MapSourceProvider sources = new MapSourceProvider()
+                .put("frag.glsl", "#include \"common.glsl\"\nvoid main() {}\n")
+                .put("common.glsl", "uniform vec4 u_Color;\n");
+        GLShaderPreprocessor preprocessor = new GLShaderPreprocessor(sources);
+        String mediump = preprocessor.process("frag.glsl", true);
+        String lowp = preprocessor.process("frag.glsl", true, GLShaderPreprocessor.LOW_BIT);
+        assertEquals(2, sources.mReadCount);
+        assertSame(mediump, preprocessor.process("frag.glsl", true, GLShaderPreprocessor.ROUND));
+        assertSame(lowp, preprocessor.process("frag.glsl", true, "LOW_BIT 1"));
+        assertEquals(2, sources.mReadCount);
+
+        preprocessor.clear();
+        preprocessor.process("frag.glsl", true);
+        assertEquals(4, sources.mReadCount);
+    }
+}